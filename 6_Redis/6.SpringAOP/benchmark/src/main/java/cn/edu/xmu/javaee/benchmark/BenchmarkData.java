@@ -0,0 +1,96 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.benchmark;
+
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.OnSale;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试使用的样本数据，字段取值参照oomall_demo中的商品
+ */
+public class BenchmarkData {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 11, 20, 10, 0, 0);
+
+    public static ProductPo productPo(long id) {
+        ProductPo po = new ProductPo();
+        po.setId(id);
+        po.setShopId(10L);
+        po.setCategoryId(186L);
+        po.setTemplateId(1L);
+        po.setName("欢乐家久宝桃罐头");
+        po.setOriginalPrice(53295L);
+        po.setWeight(500L);
+        po.setBarcode("6924001303094");
+        po.setUnit("罐");
+        po.setOriginPlace("广东");
+        po.setCreator("admin");
+        po.setGmtCreate(NOW);
+        po.setGmtModified(NOW);
+        po.setStatus((byte) 1);
+        po.setCommissionRatio(2);
+        po.setShopLogisticId(1L);
+        po.setFreeThreshold(1000L);
+        return po;
+    }
+
+    public static Product product(long id) {
+        return Product.builder()
+                .id(id)
+                .shopId(10L)
+                .name("欢乐家久宝桃罐头")
+                .originalPrice(53295L)
+                .weight(500L)
+                .barcode("6924001303094")
+                .unit("罐")
+                .originPlace("广东")
+                .commissionRatio(2)
+                .freeThreshold(1000L)
+                .status((byte) 1)
+                .creatorId(1L)
+                .creatorName("admin")
+                .gmtCreate(NOW)
+                .gmtModified(NOW)
+                .build();
+    }
+
+    public static OnSale onSale(long id) {
+        return OnSale.builder()
+                .id(id)
+                .price(53295L)
+                .beginTime(NOW.minusDays(1))
+                .endTime(NOW.plusDays(30))
+                .quantity(2000)
+                .maxQuantity(10)
+                .creatorId(1L)
+                .creatorName("admin")
+                .gmtCreate(NOW)
+                .build();
+    }
+
+    /**
+     * 带OnSale和关联商品的完整商品，模拟getFullProduct的结果
+     */
+    public static Product fullProduct(long id, int relations) {
+        Product product = product(id);
+        product.setOnSaleList(List.of(onSale(id)));
+        List<Product> others = new ArrayList<>(relations);
+        for (int i = 1; i <= relations; i++) {
+            others.add(product(id + i));
+        }
+        product.setOtherProduct(others);
+        return product;
+    }
+
+    public static ArrayList<Long> ids(long first, int count) {
+        ArrayList<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(first + i * 7L);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,37 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH启动入口
+ * 接受JMH原生的命令行参数，未指定-rf/-rff时默认输出JSON结果到jmh.result，
+ * 便于比较不同提交之间的性能回归
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmdOptions);
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdOptions.getResult().hasValue()) {
+            builder.result(System.getProperty("jmh.result", DEFAULT_RESULT));
+        }
+        if (cmdOptions.getIncludes().isEmpty()) {
+            builder.include("cn\\.edu\\.xmu\\.javaee\\..*Benchmark");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,52 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.benchmark;
+
+import cn.edu.xmu.javaee.core.util.CloneFactory;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.CustomerProductVo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CloneFactory生成的copy/copyNotNull方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloneFactoryBenchmark {
+
+    private ProductPo po;
+    private Product product;
+
+    @Setup
+    public void setup() {
+        this.po = BenchmarkData.productPo(1550L);
+        this.product = BenchmarkData.fullProduct(1550L, 0);
+    }
+
+    @Benchmark
+    public Product copyPoToBo() {
+        return CloneFactory.copy(new Product(), this.po);
+    }
+
+    @Benchmark
+    public ProductPo copyBoToPo() {
+        return CloneFactory.copy(new ProductPo(), this.product);
+    }
+
+    @Benchmark
+    public ProductPo copyNotNullBoToPo() {
+        return CloneFactory.copyNotNull(BenchmarkData.productPo(1550L), this.product);
+    }
+
+    @Benchmark
+    public CustomerProductVo copyBoToCustomerVo() {
+        CustomerProductVo vo = CloneFactory.copy(new CustomerProductVo(), this.product);
+        return CloneFactory.copy(vo, this.product.getOnSaleList().get(0));
+    }
+}
@@ -0,0 +1,121 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.benchmark;
+
+import cn.edu.xmu.javaee.core.model.UserToken;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JacksonUtil的每个公开方法，
+ * 其中UserToken的解析对应ControllerAspect处理Authorization头的路径
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonUtilBenchmark {
+
+    private static final String BODY = "{\"name\":\"欢乐家久宝桃罐头\",\"price\":53295,\"onsale\":true,\"status\":1,"
+            + "\"tags\":[\"罐头\",\"水果\",\"广东\"],\"ids\":[2079,2358,2439,2929,3056],"
+            + "\"user\":{\"id\":2,\"name\":\"admin2\",\"departId\":0,\"userLevel\":1},"
+            + "\"others\":[{\"id\":2079,\"name\":\"瓜果刨\"},{\"id\":2358,\"name\":\"梅花味精\"}]}";
+
+    private static final String ARRAY = "[\"${product}\",\"1550\",\"10\"]";
+
+    private static final String MAP = "{\"traceId\":\"a1b2c3\",\"shopId\":\"10\",\"name\":\"瓜果刨\"}";
+
+    private String token;
+    private UserToken user;
+
+    @Setup
+    public void setup() {
+        this.user = UserToken.builder().id(2L).name("admin2").departId(0L).userLevel(1).build();
+        this.token = JacksonUtil.toJson(this.user);
+    }
+
+    @Benchmark
+    public String parseString() {
+        return JacksonUtil.parseString(BODY, "name");
+    }
+
+    @Benchmark
+    public List<String> parseStringList() {
+        return JacksonUtil.parseStringList(BODY, "tags");
+    }
+
+    @Benchmark
+    public List<UserToken> parseObjectListByField() {
+        return JacksonUtil.parseObjectList(BODY, "others", UserToken.class);
+    }
+
+    @Benchmark
+    public Integer parseInteger() {
+        return JacksonUtil.parseInteger(BODY, "price");
+    }
+
+    @Benchmark
+    public List<Integer> parseIntegerList() {
+        return JacksonUtil.parseIntegerList(BODY, "ids");
+    }
+
+    @Benchmark
+    public Boolean parseBoolean() {
+        return JacksonUtil.parseBoolean(BODY, "onsale");
+    }
+
+    @Benchmark
+    public Short parseShort() {
+        return JacksonUtil.parseShort(BODY, "status");
+    }
+
+    @Benchmark
+    public Byte parseByte() {
+        return JacksonUtil.parseByte(BODY, "status");
+    }
+
+    @Benchmark
+    public UserToken parseObject() {
+        return JacksonUtil.parseObject(BODY, "user", UserToken.class);
+    }
+
+    @Benchmark
+    public Object toNode() {
+        return JacksonUtil.toNode(BODY);
+    }
+
+    @Benchmark
+    public Map<String, String> toMap() {
+        return JacksonUtil.toMap(MAP);
+    }
+
+    @Benchmark
+    public UserToken toObj() {
+        return JacksonUtil.toObj(this.token, UserToken.class);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JacksonUtil.toJson(this.user);
+    }
+
+    @Benchmark
+    public List<String> parseObjectList() {
+        return JacksonUtil.parseObjectList(ARRAY, String.class);
+    }
+
+    @Benchmark
+    public List<String> parseSubnodeToStringList() {
+        return JacksonUtil.parseSubnodeToStringList(BODY, "/others");
+    }
+
+    @Benchmark
+    public String parseSubnodeToString() {
+        return JacksonUtil.parseSubnodeToString(BODY, "/user");
+    }
+}
@@ -0,0 +1,51 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.benchmark;
+
+import cn.edu.xmu.javaee.core.infrastructure.ShardRing;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * DAO中用String.format拼接缓存键，与直接字符串拼接对比；
+ * 以及每次访问Redis前在一致性哈希环上查找分片的开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyFormatBenchmark {
+
+    private static final String PRODUCT_KEY_TEMPLATE = "product:obj:{%d}";
+    private static final String PRODUCT_KEY_PREFIX = "product:obj:{";
+
+    private Long productId;
+    private String key;
+    private ShardRing<String> ring;
+
+    @Setup
+    public void setup() {
+        this.productId = 1550L;
+        this.key = String.format(PRODUCT_KEY_TEMPLATE, this.productId);
+        this.ring = new ShardRing<>(List.of("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379", "10.0.0.4:6379"), Function.identity());
+    }
+
+    @Benchmark
+    public String format() {
+        return String.format(PRODUCT_KEY_TEMPLATE, this.productId);
+    }
+
+    @Benchmark
+    public String concat() {
+        return PRODUCT_KEY_PREFIX + this.productId + "}";
+    }
+
+    @Benchmark
+    public String shardOf() {
+        return this.ring.get(this.key);
+    }
+}
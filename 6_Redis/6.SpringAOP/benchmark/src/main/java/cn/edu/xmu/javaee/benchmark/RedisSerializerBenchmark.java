@@ -0,0 +1,82 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.benchmark;
+
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.OnSale;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisConfig中配置的value序列化器，分别对应
+ * product:obj、product:onsale 和 product:relation / product:onsale:list 三类缓存值
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisSerializerBenchmark {
+
+    @Param({"10", "100"})
+    private int idCount;
+
+    private RedisSerializer<Object> serializer;
+
+    private Product product;
+    private OnSale onSale;
+    private ArrayList<Long> ids;
+
+    private byte[] productBytes;
+    private byte[] onSaleBytes;
+    private byte[] idsBytes;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        // 连接工厂不会被启动，只用来构造RedisTemplate以取得其中的序列化器
+        LettuceConnectionFactory factory = new LettuceConnectionFactory();
+        this.serializer = (RedisSerializer<Object>) new RedisConfig().redisTemplate(factory).getValueSerializer();
+        this.product = BenchmarkData.product(1550L);
+        this.onSale = BenchmarkData.onSale(1550L);
+        this.ids = BenchmarkData.ids(2079L, this.idCount);
+        this.productBytes = this.serializer.serialize(this.product);
+        this.onSaleBytes = this.serializer.serialize(this.onSale);
+        this.idsBytes = this.serializer.serialize(this.ids);
+    }
+
+    @Benchmark
+    public byte[] serializeProduct() {
+        return this.serializer.serialize(this.product);
+    }
+
+    @Benchmark
+    public Object deserializeProduct() {
+        return this.serializer.deserialize(this.productBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeOnSale() {
+        return this.serializer.serialize(this.onSale);
+    }
+
+    @Benchmark
+    public Object deserializeOnSale() {
+        return this.serializer.deserialize(this.onSaleBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeIdList() {
+        return this.serializer.serialize(this.ids);
+    }
+
+    @Benchmark
+    public Object deserializeIdList() {
+        return this.serializer.deserialize(this.idsBytes);
+    }
+}
@@ -0,0 +1,56 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.aop;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ControllerAspect.checkPageTimeLimit，每个带ReturnObject返回值的控制器方法都会调用。
+ * 与ControllerAspect同包，以便访问包内可见的方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerAspectBenchmark {
+
+    private static final String[] PARAM_NAMES = {"shopId", "name", "page", "pageSize", "beginTime", "endTime", "request"};
+
+    private ControllerAspect aspect;
+    private MockHttpServletRequest emptyRequest;
+    private MockHttpServletRequest pagedRequest;
+
+    @Setup
+    public void setup() {
+        this.aspect = new ControllerAspect(null, null, null, null);
+        ReflectionTestUtils.setField(this.aspect, "max_page_size", 1000);
+        ReflectionTestUtils.setField(this.aspect, "default_page_size", 10);
+
+        this.emptyRequest = new MockHttpServletRequest("GET", "/shops/10/products");
+        this.pagedRequest = new MockHttpServletRequest("GET", "/shops/10/products");
+        this.pagedRequest.setParameter("page", "3");
+        this.pagedRequest.setParameter("pageSize", "50");
+        this.pagedRequest.setParameter("beginTime", "2025-11-01T00:00:00");
+        this.pagedRequest.setParameter("endTime", "2025-11-30T00:00:00");
+    }
+
+    private Object[] args() {
+        return new Object[]{10L, "欢乐家久宝桃罐头", null, null, null, null, null};
+    }
+
+    @Benchmark
+    public Object[] defaultPageAndTime() {
+        return this.aspect.checkPageTimeLimit(this.emptyRequest, PARAM_NAMES, args());
+    }
+
+    @Benchmark
+    public Object[] explicitPageAndTime() {
+        return this.aspect.checkPageTimeLimit(this.pagedRequest, PARAM_NAMES, args());
+    }
+
+}
@@ -0,0 +1,47 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.dao;
+
+import cn.edu.xmu.javaee.benchmark.BenchmarkData;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProductDao中的对象复制：
+ * deepCopyProduct在每次读取完整商品和关联商品时调用，
+ * snapshotOf在每次写入product:obj缓存时调用。
+ * 与ProductDao同包，以便访问包内可见的方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductDaoBenchmark {
+
+    private Product baseProduct;
+    private Product fullProduct;
+
+    @Setup
+    public void setup() {
+        this.baseProduct = BenchmarkData.product(1550L);
+        this.fullProduct = BenchmarkData.fullProduct(1550L, 9);
+    }
+
+    @Benchmark
+    public Product deepCopyBaseProduct() {
+        return ProductDao.deepCopyProduct(this.baseProduct);
+    }
+
+    @Benchmark
+    public Product deepCopyFullProduct() {
+        return ProductDao.deepCopyProduct(this.fullProduct);
+    }
+
+    @Benchmark
+    public Product cacheProductSnapshot() {
+        return ProductDao.snapshotOf(this.fullProduct);
+    }
+}
@@ -3,6 +3,9 @@ package cn.edu.xmu.javaee.core.aop;
 
 import cn.edu.xmu.javaee.core.bean.RequestVariables;
 import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.limiter.AdaptiveConcurrencyLimiter;
+import cn.edu.xmu.javaee.core.limiter.ControllerLimiters;
+import cn.edu.xmu.javaee.core.limiter.RateLimiters;
 import cn.edu.xmu.javaee.core.model.ReturnNo;
 import cn.edu.xmu.javaee.core.model.ReturnObject;
 import cn.edu.xmu.javaee.core.model.UserToken;
@@ -20,8 +23,11 @@ import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.context.support.MessageSourceAccessor;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
@@ -32,6 +38,7 @@ import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static cn.edu.xmu.javaee.core.model.Constants.BEGIN_TIME;
 import static cn.edu.xmu.javaee.core.model.Constants.END_TIME;
@@ -51,8 +58,15 @@ public class ControllerAspect {
     @Value("${javaee.core.page-size.default:10}")
     private int default_page_size;
 
+    /**
+     * 流式响应结束时归还并发许可的回调名称
+     */
+    private static final String STREAMING_PERMIT = ControllerAspect.class.getName() + ".streamingPermit";
+
     private final RequestVariables requestVariables;
     private final MessageSource messageSource;
+    private final ControllerLimiters controllerLimiters;
+    private final RateLimiters rateLimiters;
     /**
      * 所有返回值为ReturnObject的Controller
      *
@@ -69,21 +83,59 @@ public class ControllerAspect {
         HttpServletResponse response = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getResponse();
 
         MessageSourceAccessor messageSourceAccessor = new MessageSourceAccessor(this.messageSource, LocaleContextHolder.getLocale());
+
+        UserToken user = null;
         String Authorization = request.getHeader("Authorization");
         if (Objects.nonNull(Authorization) && !Authorization.isEmpty() && !Authorization.isBlank()) {
-            UserToken user = JacksonUtil.toObj(request.getHeader("Authorization"), UserToken.class);
+            user = JacksonUtil.toObj(request.getHeader("Authorization"), UserToken.class);
             this.requestVariables.setUser(user);
         }
 
-        String[] paramNames = ms.getParameterNames();
-        log.debug("doAround: method = {}, paramNames = {}", ms.getName(), paramNames);
-        Object[] args = jp.getArgs();
+        // 超过限流规则的请求返回429，并告诉客户端多久之后重试
+        long retryAfter = this.rateLimiters.tryAcquire(ms.getMethod(), request, user);
+        if (retryAfter > 0) {
+            retVal = new ReturnObject(ReturnNo.TOO_MANY_REQUESTS, messageSourceAccessor.getMessage(ReturnNo.TOO_MANY_REQUESTS.getMessage()));
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((retryAfter + 999) / 1000));
+            changeHttpStatus(retVal.getCode(), response);
+            return retVal;
+        }
+
+        // 超过并发上限的请求直接返回503，不再排队等待数据库连接
+        AdaptiveConcurrencyLimiter limiter = this.controllerLimiters.of(ms.getDeclaringType());
+        long permit = this.controllerLimiters.isEnabled() ? limiter.tryAcquire() : 0;
+        if (permit < 0) {
+            log.info("doAround: rejected, limiter = {}, limit = {}", limiter.getName(), limiter.getLimit());
+            this.controllerLimiters.rejected(limiter);
+            retVal = new ReturnObject(ReturnNo.SERVICE_UNAVAILABLE, messageSourceAccessor.getMessage(ReturnNo.SERVICE_UNAVAILABLE.getMessage()));
+            changeHttpStatus(retVal.getCode(), response);
+            return retVal;
+        }
+
+        boolean dropped = true;
         try {
-            Object[] newArgs = checkPageTimeLimit(request, paramNames, args);
-            retVal = (ReturnObject) jp.proceed(newArgs);
-        } catch (BusinessException exception) {
-            log.info("doAround: BusinessException， errno = {}", exception.getErrno());
-            retVal = new ReturnObject(exception.getErrno(), this.getI18nMessage(exception,messageSourceAccessor));
+            String[] paramNames = ms.getParameterNames();
+            log.debug("doAround: method = {}, paramNames = {}", ms.getName(), paramNames);
+            Object[] args = jp.getArgs();
+            try {
+                Object[] newArgs = checkPageTimeLimit(request, paramNames, args);
+                retVal = (ReturnObject) jp.proceed(newArgs);
+            } catch (BusinessException exception) {
+                log.info("doAround: BusinessException， errno = {}", exception.getErrno());
+                retVal = new ReturnObject(exception.getErrno(), this.getI18nMessage(exception,messageSourceAccessor));
+            }
+            dropped = ReturnNo.INTERNAL_SERVER_ERR == retVal.getCode();
+        } finally {
+            if (this.controllerLimiters.isEnabled()) {
+                if (dropped) {
+                    limiter.onDropped();
+                } else if (retVal.getData() instanceof Stream) {
+                    // 流式的数据在写出响应时才生成，请求结束时才归还许可，许可的延迟包含生成数据的时间
+                    RequestContextHolder.currentRequestAttributes().registerDestructionCallback(STREAMING_PERMIT,
+                            () -> limiter.onSuccess(permit), RequestAttributes.SCOPE_REQUEST);
+                } else {
+                    limiter.onSuccess(permit);
+                }
+            }
         }
 
         ReturnNo code = retVal.getCode();
@@ -106,6 +158,11 @@ public class ControllerAspect {
                 response.setStatus(HttpServletResponse.SC_CREATED);
                 break;
 
+            case NOT_MODIFIED:
+                // 304：条件请求的资源没有变化
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                break;
+
             case RESOURCE_ID_NOTEXIST:
                 // 404：资源不存在
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -126,6 +183,16 @@ public class ControllerAspect {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 break;
 
+            case SERVICE_UNAVAILABLE:
+                // 503：超过并发限制，快速拒绝
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                break;
+
+            case TOO_MANY_REQUESTS:
+                // 429：超过限流规则
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                break;
+
             case FIELD_NOTVALID:
             case IMG_FORMAT_ERROR:
             case IMG_SIZE_EXCEED:
@@ -183,7 +250,7 @@ public class ControllerAspect {
      * @param paramNames
      * @param args
      */
-    private Object[] checkPageTimeLimit(HttpServletRequest request, String[] paramNames, Object[] args) {
+    Object[] checkPageTimeLimit(HttpServletRequest request, String[] paramNames, Object[] args) {
         Integer page = 1, pageSize = default_page_size;
         LocalDateTime beginTime = BEGIN_TIME, endTime = END_TIME;
 
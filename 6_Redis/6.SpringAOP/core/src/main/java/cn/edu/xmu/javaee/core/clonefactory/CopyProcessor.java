@@ -400,12 +400,21 @@ public class CopyProcessor extends AbstractProcessor {
         List<ExecutableElement> methods = new ArrayList<>();
         // 获取当前类的所有方法
         methods.addAll(ElementFilter.methodsIn(type.getEnclosedElements()));
+        // 接口（如Spring Data的投影）没有父类，方法来自父接口
+        if (type.getKind() == ElementKind.INTERFACE) {
+            for (TypeMirror superInterface : type.getInterfaces()) {
+                methods.addAll(getAllMethods((TypeElement) ((DeclaredType) superInterface).asElement()));
+            }
+            return methods;
+        }
         // 获取父类的类型
-        TypeElement superClass = (TypeElement) ((DeclaredType) type.getSuperclass()).asElement();
+        TypeMirror superClassType = type.getSuperclass();
+        TypeElement superClass = superClassType.getKind() == TypeKind.DECLARED ?
+                (TypeElement) ((DeclaredType) superClassType).asElement() : null;
         // 递归获取所有父类的方法，直到到达Object类
         while (superClass != null && !superClass.getQualifiedName().toString().equals("java.lang.Object")) {
             methods.addAll(ElementFilter.methodsIn(superClass.getEnclosedElements()));
-            TypeMirror superClassType = superClass.getSuperclass();
+            superClassType = superClass.getSuperclass();
             if (superClassType.getKind() == TypeKind.DECLARED) {
                 superClass = (TypeElement) ((DeclaredType) superClassType).asElement();
             } else {
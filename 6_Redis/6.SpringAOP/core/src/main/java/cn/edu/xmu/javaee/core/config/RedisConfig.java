@@ -7,19 +7,127 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.ShardRing;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
+@Slf4j
 public class RedisConfig {
+
+    /**
+     * javaee.core.redis.shards中配置的分片节点，关闭时释放
+     */
+    private final List<RedisNode> shardNodes = new ArrayList<>();
+
     @Bean
     public RedisTemplate<String, Serializable> redisTemplate(LettuceConnectionFactory factory) {
+        return createTemplate(factory);
+    }
+
+    /**
+     * 主节点及其读副本
+     * 副本由javaee.core.redis.replicas配置（host:port，逗号分隔），使用与主节点相同的用户名、密码和database
+     */
+    @Bean(destroyMethod = "destroy")
+    public RedisNode redisNode(RedisTemplate<String, Serializable> redisTemplate, RedisProperties properties,
+                               @Value("${javaee.core.redis.replicas:}") List<String> replicas) {
+        List<LettuceConnectionFactory> factories = new ArrayList<>();
+        List<RedisTemplate<String, Serializable>> replicaTemplates = new ArrayList<>();
+        for (String replica : replicas) {
+            if (replica.isBlank()) {
+                continue;
+            }
+            LettuceConnectionFactory factory = connect(replica.trim(), properties);
+            factories.add(factory);
+            replicaTemplates.add(createTemplate(factory));
+        }
+        RedisNode node = new RedisNode(properties.getHost() + ":" + properties.getPort(), redisTemplate, replicaTemplates, factories);
+        log.info("redisNode: {}", node);
+        return node;
+    }
+
+    /**
+     * Redis分片
+     * spring.data.redis配置的主节点（含javaee.core.redis.replicas）总是第一个分片，
+     * javaee.core.redis.shards配置其余分片，分片之间用逗号分隔，每个分片写作主节点;副本1;副本2...
+     * 如 10.0.0.2:6379;10.0.0.3:6379,10.0.0.4:6379 表示两个分片，第一个有一个副本。
+     * 分片按host:port放在一致性哈希环上，增加分片只有约1/N的键需要迁移（即失效后重新回源）
+     */
+    @Bean
+    public ShardRing<RedisNode> redisShards(RedisNode redisNode, RedisProperties properties,
+                                            @Value("${javaee.core.redis.shards:}") List<String> shards) {
+        List<RedisNode> nodes = new ArrayList<>();
+        nodes.add(redisNode);
+        for (String shard : shards) {
+            if (shard.isBlank()) {
+                continue;
+            }
+            String[] hosts = shard.trim().split(";");
+            List<LettuceConnectionFactory> factories = new ArrayList<>();
+            List<RedisTemplate<String, Serializable>> replicaTemplates = new ArrayList<>();
+            LettuceConnectionFactory primary = connect(hosts[0].trim(), properties);
+            factories.add(primary);
+            for (int i = 1; i < hosts.length; i++) {
+                LettuceConnectionFactory factory = connect(hosts[i].trim(), properties);
+                factories.add(factory);
+                replicaTemplates.add(createTemplate(factory));
+            }
+            RedisNode node = new RedisNode(hosts[0].trim(), createTemplate(primary), replicaTemplates, factories);
+            this.shardNodes.add(node);
+            nodes.add(node);
+        }
+        log.info("redisShards: {}", nodes);
+        return new ShardRing<>(nodes, RedisNode::getName);
+    }
+
+    @PreDestroy
+    public void destroyShards() {
+        this.shardNodes.forEach(RedisNode::destroy);
+    }
+
+    /**
+     * 连接指定的Redis节点
+     * @param hostAndPort host:port
+     * @param properties 主节点的配置，复用其中的用户名、密码、database和超时
+     */
+    public static LettuceConnectionFactory connect(String hostAndPort, RedisProperties properties) {
+        int colon = hostAndPort.lastIndexOf(':');
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(hostAndPort.substring(0, colon),
+                Integer.parseInt(hostAndPort.substring(colon + 1)));
+        config.setUsername(properties.getUsername());
+        config.setPassword(properties.getPassword());
+        config.setDatabase(properties.getDatabase());
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder();
+        if (properties.getTimeout() != null) {
+            client.commandTimeout(properties.getTimeout());
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config, client.build());
+        factory.afterPropertiesSet();
+        factory.start();
+        return factory;
+    }
+
+    /**
+     * 用统一的序列化方式创建RedisTemplate
+     */
+    public static RedisTemplate<String, Serializable> createTemplate(RedisConnectionFactory factory) {
         RedisTemplate<String, Serializable> template = new RedisTemplate<>();
         template.setConnectionFactory(factory);
 
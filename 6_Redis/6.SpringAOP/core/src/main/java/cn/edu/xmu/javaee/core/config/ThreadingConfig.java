@@ -0,0 +1,34 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+/**
+ * 请求执行模式
+ * spring.threads.virtual.enabled=true时，Tomcat请求和Spring的异步/定时任务都在虚拟线程上执行，
+ * 只有运行在JDK 21及以上时才会生效，否则仍使用平台线程
+ */
+@Configuration
+@Slf4j
+public class ThreadingConfig {
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualEnabled;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reportThreadingMode() {
+        if (!virtualEnabled) {
+            log.info("reportThreadingMode: requests run on platform threads");
+        } else if (JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            log.info("reportThreadingMode: requests run on virtual threads");
+        } else {
+            log.warn("reportThreadingMode: virtual threads are enabled but java {} does not support them, platform threads are used",
+                    JavaVersion.getJavaVersion());
+        }
+    }
+}
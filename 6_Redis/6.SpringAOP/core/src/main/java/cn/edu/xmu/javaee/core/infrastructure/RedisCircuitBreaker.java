@@ -0,0 +1,114 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.infrastructure;
+
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.limiter.CircuitBreaker;
+import cn.edu.xmu.javaee.core.limiter.TokenBucket;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * Redis的熔断与降级准入
+ * Redis出错或变慢（超过slow-call-threshold）计为失败，失败率超过阈值后熔断，
+ * 熔断期间缓存读写直接跳过，查询降级到数据库；
+ * 降级的数据库查询受令牌桶限制，超出时返回SERVICE_UNAVAILABLE，避免缓存失效的全部流量压到数据库上
+ */
+@Component
+@Slf4j
+public class RedisCircuitBreaker {
+
+    private final boolean enabled;
+    private final CircuitBreaker breaker;
+    private final TokenBucket fallbackBucket;
+    private final long slowCallNanos;
+
+    private final Counter errorCounter;
+    private final Counter admittedCounter;
+    private final Counter rejectedCounter;
+
+    public RedisCircuitBreaker(@Value("${javaee.core.redis.breaker.enabled:true}") boolean enabled,
+                               @Value("${javaee.core.redis.breaker.window-size:50}") int windowSize,
+                               @Value("${javaee.core.redis.breaker.minimum-calls:20}") int minimumCalls,
+                               @Value("${javaee.core.redis.breaker.failure-rate:0.5}") double failureRate,
+                               @Value("${javaee.core.redis.breaker.slow-call-threshold:200}") long slowCallMillis,
+                               @Value("${javaee.core.redis.breaker.open-duration:5000}") long openDurationMillis,
+                               @Value("${javaee.core.redis.breaker.probe-calls:5}") int probeCalls,
+                               @Value("${javaee.core.redis.fallback.burst:50}") long fallbackBurst,
+                               @Value("${javaee.core.redis.fallback.rate:100}") double fallbackRate,
+                               MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.breaker = new CircuitBreaker("redis", windowSize, minimumCalls, failureRate, openDurationMillis, probeCalls);
+        this.fallbackBucket = new TokenBucket(fallbackBurst, fallbackRate);
+        this.slowCallNanos = slowCallMillis * 1_000_000L;
+        Gauge.builder("redis.circuit.state", this.breaker, b -> b.getState().getCode())
+                .description("0 closed, 1 half-open, 2 open").register(meterRegistry);
+        this.errorCounter = meterRegistry.counter("redis.circuit.errors");
+        this.admittedCounter = meterRegistry.counter("redis.cache.fallback", "result", "admitted");
+        this.rejectedCounter = meterRegistry.counter("redis.cache.fallback", "result", "rejected");
+    }
+
+    /**
+     * 是否可以访问Redis
+     * @return 可以访问时返回调用的开始时间(纳秒)，熔断时返回-1
+     */
+    public long tryAcquire() {
+        if (!this.enabled || this.breaker.tryAcquire()) {
+            return System.nanoTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Redis调用成功返回，超过慢调用阈值的也计为失败
+     * @param startTime tryAcquire返回的开始时间
+     */
+    public void onSuccess(long startTime) {
+        if (!this.enabled) {
+            return;
+        }
+        if (System.nanoTime() - startTime > this.slowCallNanos) {
+            this.breaker.onFailure();
+        } else {
+            this.breaker.onSuccess();
+        }
+    }
+
+    /**
+     * Redis调用抛出异常
+     */
+    public void onFailure(RuntimeException exception) {
+        log.warn("onFailure: redis error = {}", exception.getMessage());
+        this.errorCounter.increment();
+        if (this.enabled) {
+            this.breaker.onFailure();
+        }
+    }
+
+    /**
+     * 缓存不可用、准备直接查询数据库前调用，占用一个降级令牌
+     * @throws BusinessException 令牌耗尽时抛出SERVICE_UNAVAILABLE
+     */
+    public void admitFallback() throws BusinessException {
+        if (!this.fallbackBucket.tryAcquire()) {
+            this.rejectedCounter.increment();
+            throw new BusinessException(ReturnNo.SERVICE_UNAVAILABLE, JacksonUtil.toJson(new String[] {}));
+        }
+        this.admittedCounter.increment();
+    }
+
+    public void setListener(Consumer<CircuitBreaker.State> listener) {
+        this.breaker.setListener(listener);
+    }
+
+    public CircuitBreaker.State getState() {
+        return this.breaker.getState();
+    }
+}
@@ -0,0 +1,83 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.infrastructure;
+
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个Redis节点：一个主节点和若干读副本
+ * 写操作总是发往主节点，读操作轮流发往各副本；没有副本，或调用方要求读自己刚写入的数据时，读主节点
+ */
+public class RedisNode {
+
+    private final String name;
+    private final RedisTemplate<String, Serializable> primary;
+    private final List<RedisTemplate<String, Serializable>> replicas;
+    /**
+     * 由本节点创建、需要在关闭时释放的连接工厂
+     */
+    private final List<LettuceConnectionFactory> ownedFactories;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public RedisNode(String name, RedisTemplate<String, Serializable> primary,
+                     List<RedisTemplate<String, Serializable>> replicas, List<LettuceConnectionFactory> ownedFactories) {
+        this.name = name;
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.ownedFactories = List.copyOf(ownedFactories);
+    }
+
+    public RedisNode(String name, RedisTemplate<String, Serializable> primary) {
+        this(name, primary, List.of(), List.of());
+    }
+
+    /**
+     * 写操作使用的主节点
+     */
+    public RedisTemplate<String, Serializable> writer() {
+        return this.primary;
+    }
+
+    /**
+     * 读操作使用的节点
+     * @param fromPrimary 是否强制读主节点（如刚刚写入后立即读取，副本可能还没有同步）
+     */
+    public RedisTemplate<String, Serializable> reader(boolean fromPrimary) {
+        if (fromPrimary || this.replicas.isEmpty()) {
+            return this.primary;
+        }
+        return this.replicas.get(Math.floorMod(this.next.getAndIncrement(), this.replicas.size()));
+    }
+
+    /**
+     * 主节点和全部副本
+     */
+    public List<RedisTemplate<String, Serializable>> all() {
+        List<RedisTemplate<String, Serializable>> templates = new ArrayList<>(this.replicas.size() + 1);
+        templates.add(this.primary);
+        templates.addAll(this.replicas);
+        return templates;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int replicaCount() {
+        return this.replicas.size();
+    }
+
+    public void destroy() {
+        this.ownedFactories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RedisNode(%s, replicas = %d)", this.name, this.replicas.size());
+    }
+}
@@ -1,22 +1,49 @@
 //School of Informatics Xiamen University, GPL-3.0 license
 package cn.edu.xmu.javaee.core.infrastructure;
 
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.limiter.CircuitBreaker;
+import cn.edu.xmu.javaee.core.util.IdListCodec;
 import io.lettuce.core.*;
 import io.lettuce.core.api.StatefulConnection;
 import io.lettuce.core.dynamic.RedisCommandFactory;
-import jakarta.annotation.Resource;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.Limit;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisStringCommands.BitOperation;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Component;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 
 /**
@@ -24,31 +51,282 @@ import java.util.concurrent.TimeUnit;
  * @author Ming Qiu
  * @modify huang zhong
  * @modifydate 2023
+ * 缓存读写（get/set/del/hasKey/expire/getByList）受RedisCircuitBreaker保护：
+ * Redis出错或熔断时读当作未命中、写直接跳过，不再抛出异常。
+ * 写操作发往主节点，读操作（get、getByList、getSet、rangeList、bfExist等）发往读副本，
+ * 需要读到自己刚写入的数据时使用带fromPrimary参数的重载。
+ * 键按一致性哈希分布到各分片，涉及多个键的命令（unionAndStoreSet、bitAnd、bitOr、executeScript）
+ * 要求所有键在同一分片上，应使用相同的hash tag，如product:obj:{1}和product:relation:{1}
+ * 流（stream）和消费组操作不受熔断保护，出错时抛出异常，由调用方稍后重试
  **/
 @Component
-@RequiredArgsConstructor
+@Slf4j
 public class RedisUtil {
 
-    @Resource
-    private final RedisTemplate<String, Serializable> redisTemplate;
+    /**
+     * 熔断期间没能删除的键最多记录的个数
+     */
+    private static final int MAX_PENDING_EVICTIONS = 10000;
+
+    private static final AtomicInteger SHARD_THREADS = new AtomicInteger();
+
+    /**
+     * 一次往返读取ID列表及其全部成员对象，见lua/list_members.lua
+     */
+    private static final DefaultRedisScript<List<byte[]>> LIST_MEMBERS_SCRIPT = listScript("lua/list_members.lua");
+
+    /**
+     * 返回多个值的脚本
+     * Class对象不能带类型参数，List.class只能在这里转换为List<T>一次，T由调用方按结果序列化器确定
+     * @param path 脚本在classpath中的路径
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> DefaultRedisScript<List<T>> listScript(String path) {
+        DefaultRedisScript<List<T>> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        script.setResultType((Class<List<T>>) (Class<?>) List.class);
+        return script;
+    }
+
+    /**
+     * ID列表及其成员对象
+     * @param ids 列表中的ID
+     * @param members 与ids一一对应的成员对象，未命中的为null
+     */
+    public record ListMembers(long[] ids, List<Serializable> members) {
+        /**
+         * 是否全部成员都命中
+         */
+        public boolean isComplete() {
+            return this.members.stream().allMatch(Objects::nonNull);
+        }
+    }
+
+    /**
+     * 分片，每个分片是一个主节点及其读副本，读操作默认发往副本
+     */
+    private final ShardRing<RedisNode> shards;
+    /**
+     * 跨分片的批量操作并行执行，只有一个分片时不创建
+     */
+    private final ExecutorService shardExecutor;
+
+    /**
+     * 缓存命中/未命中计数，用于统计缓存命中率
+     */
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    private final RedisCircuitBreaker breaker;
+    /**
+     * 熔断期间没能删除的键，Redis恢复后补删，避免恢复后读到修改前的旧缓存
+     */
+    private final Set<String> pendingEvictions = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public RedisUtil(ShardRing<RedisNode> shards, MeterRegistry meterRegistry, RedisCircuitBreaker breaker) {
+        this.shards = shards;
+        this.shardExecutor = shards.size() > 1 ? Executors.newFixedThreadPool(shards.size() * 2, runnable -> {
+            Thread thread = new Thread(runnable, "redis-shard-" + SHARD_THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.hitCounter = meterRegistry.counter("redis.cache.gets", "result", "hit");
+        this.missCounter = meterRegistry.counter("redis.cache.gets", "result", "miss");
+        this.breaker = breaker;
+        this.breaker.setListener(state -> {
+            if (state == CircuitBreaker.State.CLOSED) {
+                this.replayEvictions();
+            }
+        });
+    }
+
+    /**
+     * 只有一个分片（一个主节点及其读副本）
+     */
+    public RedisUtil(RedisNode node, MeterRegistry meterRegistry, RedisCircuitBreaker breaker) {
+        this(new ShardRing<>(List.of(node), RedisNode::getName), meterRegistry, breaker);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (this.shardExecutor != null) {
+            this.shardExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Redis是否可用（没有熔断）
+     * 熔断时读缓存当作未命中，写缓存被忽略，调用方可以据此决定回源时是否可以读本节点的缓存
+     */
+    public boolean isAvailable() {
+        return this.breaker.getState() != CircuitBreaker.State.OPEN;
+    }
 
     /**
      * 删除缓存
-     *
+     * 键按分片分组后删除，
+     * Redis不可用时记下这些键，恢复后补删
      * @param key 可以传一个值 或多个
      */
     public Long del(String... key) {
-        return redisTemplate.delete(Arrays.asList(key));
+        List<String> keys = Arrays.asList(key);
+        return this.guard(() -> this.shards.group(keys).entrySet().stream()
+                .mapToLong(group -> Objects.requireNonNullElse(group.getKey().writer().delete(group.getValue()), 0L))
+                .sum(), () -> {
+            if (this.pendingEvictions.size() + keys.size() <= MAX_PENDING_EVICTIONS) {
+                this.pendingEvictions.addAll(keys);
+            } else {
+                log.error("del: too many pending evictions, keys = {} dropped", keys);
+            }
+            return 0L;
+        });
+    }
+
+    /**
+     * 删除缓存，值的内存由Redis在后台线程中回收
+     * 与del相同，键按分片分组，每个分片一条UNLINK命令，
+     * 一次删除大量键或很大的值时不阻塞Redis。Redis不可用时记下这些键，恢复后补删
+     * @param keys 键
+     */
+    public Long unlink(Collection<String> keys) {
+        return this.guard(() -> this.shards.group(keys).entrySet().stream()
+                .mapToLong(group -> Objects.requireNonNullElse(group.getKey().writer().unlink(group.getValue()), 0L))
+                .sum(), () -> {
+            if (this.pendingEvictions.size() + keys.size() <= MAX_PENDING_EVICTIONS) {
+                this.pendingEvictions.addAll(keys);
+            } else {
+                log.error("unlink: too many pending evictions, keys = {} dropped", keys.size());
+            }
+            return 0L;
+        });
     }
 
     /**
      * 普通缓存获取
-     *
+     * Redis不可用时当作未命中返回null，调用方随后会查询数据库，
+     * 因此先占用一个降级令牌，令牌耗尽时抛出SERVICE_UNAVAILABLE
      * @param key 键
      * @return 值
      */
-    public Serializable get(String key) {
-        return key == null ? null : redisTemplate.opsForValue().get(key);
+    public Serializable get(String key) throws BusinessException {
+        return this.get(key, false);
+    }
+
+    /**
+     * 普通缓存获取
+     * @param key 键
+     * @param fromPrimary 是否强制读主节点，在自己刚写入后立即读取时使用，避免读到副本上尚未同步的旧值
+     * @return 值
+     */
+    public Serializable get(String key, boolean fromPrimary) throws BusinessException {
+        if (key == null) {
+            return null;
+        }
+        Serializable value = this.guard(() -> this.reader(key, fromPrimary).opsForValue().get(key), () -> {
+            this.breaker.admitFallback();
+            return null;
+        });
+        if (value == null) {
+            missCounter.increment();
+        } else {
+            hitCounter.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 读取“ID列表 → 全部成员对象”
+     * 在列表键所在的节点上执行脚本，一次往返取得列表和该节点上的全部成员；
+     * 成员不在列表键所在分片上时（没有共同的hash tag），再按分片并行补读，总共最多两次往返，与列表长度无关
+     * @param listKey ID列表的键，值为setIds写入的紧凑编码，或旧的JSON格式的List<Long>
+     * @param memberPrefix 成员键的前缀，成员键为memberPrefix + id + memberSuffix
+     * @param memberSuffix 成员键的后缀
+     * @return 列表未命中时返回null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ListMembers getListMembers(String listKey, String memberPrefix, String memberSuffix) throws BusinessException {
+        RedisNode node = this.shards.get(listKey);
+        RedisTemplate<String, Serializable> template = node.reader(false);
+        // 结果序列化器作用在回复的每个元素（byte[]）上，而不是整个List<byte[]>，类型参数对不上，只能用原始类型
+        List<byte[]> reply = this.guard(() -> template.execute(LIST_MEMBERS_SCRIPT, RedisSerializer.string(),
+                (RedisSerializer) RedisSerializer.byteArray(), List.of(listKey), memberPrefix, memberSuffix), () -> {
+            this.breaker.admitFallback();
+            return null;
+        });
+        if (reply == null || reply.isEmpty() || reply.get(0) == null) {
+            missCounter.increment();
+            return null;
+        }
+        RedisSerializer<?> serializer = template.getValueSerializer();
+        long[] ids;
+        try {
+            ids = decodeIds(reply.get(0), serializer);
+        } catch (IllegalArgumentException e) {
+            log.warn("getListMembers: bad id list, key = {}, e = {}", listKey, e.getMessage());
+            missCounter.increment();
+            return null;
+        }
+        hitCounter.increment();
+        BitSet misses = BitSet.valueOf(reply.get(1));
+        List<Serializable> members = new ArrayList<>(ids.length);
+        List<String> remoteKeys = new ArrayList<>();
+        List<Integer> remoteIndexes = new ArrayList<>();
+        int next = 2;
+        for (int i = 0; i < ids.length; i++) {
+            Serializable member = misses.get(i) ? null : (Serializable) serializer.deserialize(reply.get(next++));
+            String key = memberPrefix + ids[i] + memberSuffix;
+            if (this.shards.get(key) != node) {
+                // 不属于该节点的成员，即使读到也可能是分片调整前留下的旧值
+                remoteKeys.add(key);
+                remoteIndexes.add(i);
+                member = null;
+            }
+            members.add(member);
+        }
+        if (!remoteKeys.isEmpty()) {
+            List<Object> remote = this.getByList(remoteKeys);
+            for (int j = 0; j < remoteKeys.size(); j++) {
+                members.set(remoteIndexes.get(j), (Serializable) remote.get(j * 2 + 1));
+            }
+        }
+        members.forEach(member -> (member == null ? missCounter : hitCounter).increment());
+        return new ListMembers(ids, members);
+    }
+
+    /**
+     * 解码ID列表：setIds写入的紧凑编码，或迁移之前用set写入的JSON格式的List<Long>
+     * @throws IllegalArgumentException 值不是ID列表
+     */
+    private static long[] decodeIds(byte[] value, RedisSerializer<?> serializer) {
+        if (IdListCodec.isPacked(value)) {
+            return IdListCodec.decode(value);
+        }
+        try {
+            return ((List<?>) Objects.requireNonNull(serializer.deserialize(value))).stream()
+                    .mapToLong(id -> ((Number) id).longValue()).toArray();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 在所有节点上预先加载脚本，之后用EVALSHA执行，不必每次发送脚本内容
+     * Redis不可用时只记录日志，执行时找不到脚本会自动退回EVAL
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadScripts() {
+        byte[] script = LIST_MEMBERS_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        for (RedisNode node : this.shards.getNodes()) {
+            for (RedisTemplate<String, Serializable> template : node.all()) {
+                try {
+                    String sha = template.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(script));
+                    log.debug("loadScripts: node = {}, sha = {}", node.getName(), sha);
+                } catch (RuntimeException e) {
+                    log.warn("loadScripts: node = {}, e = {}", node.getName(), e.getMessage());
+                }
+            }
+        }
     }
 
     /**
@@ -60,14 +338,86 @@ public class RedisUtil {
      * @return true成功 false失败
      */
     public  boolean set(String key, Serializable value, long timeout) throws RuntimeException{
-        if (timeout > 0) {
-            // 为了防止雪崩，随机生成过期时间，范围为 timeout ~ timeout + timeout / 5
-            timeout = randomizeTimeout(timeout);
-            redisTemplate.opsForValue().set(key, value, timeout, TimeUnit.SECONDS);
-        }else{
-            redisTemplate.opsForValue().set(key, value);
-        }
-        return true;
+        return this.guard(() -> {
+            if (timeout > 0) {
+                // 为了防止雪崩，随机生成过期时间，范围为 timeout ~ timeout + timeout / 5
+                this.writer(key).opsForValue().set(key, value, randomizeTimeout(timeout), TimeUnit.SECONDS);
+            } else {
+                this.writer(key).opsForValue().set(key, value);
+            }
+            return true;
+        }, () -> false);
+    }
+
+    /**
+     * 键不存在时才放入缓存，已有的值不覆盖
+     *
+     * @param key   键
+     * @param value 值
+     * @param timeout 过期时间， -1为永不过期
+     * @return true放入了 false键已存在或失败
+     */
+    public boolean setIfAbsent(String key, Serializable value, long timeout) {
+        return this.guard(() -> {
+            Boolean set = timeout > 0
+                    ? this.writer(key).opsForValue().setIfAbsent(key, value, randomizeTimeout(timeout), TimeUnit.SECONDS)
+                    : this.writer(key).opsForValue().setIfAbsent(key, value);
+            return Boolean.TRUE.equals(set);
+        }, () -> false);
+    }
+
+    /**
+     * 缓存ID列表
+     * 值是IdListCodec的紧凑编码，不经过Jackson，由getListMembers读取
+     *
+     * @param key   键
+     * @param ids   ID
+     * @param timeout 过期时间， -1为永不过期
+     * @return true成功 false失败
+     */
+    public boolean setIds(String key, long[] ids, long timeout) {
+        byte[] value = IdListCodec.encode(ids);
+        return this.guard(() -> {
+            this.writer(key).execute((RedisCallback<Object>) connection -> {
+                if (timeout > 0) {
+                    connection.stringCommands().setEx(key.getBytes(), randomizeTimeout(timeout), value);
+                } else {
+                    connection.stringCommands().set(key.getBytes(), value);
+                }
+                return null;
+            });
+            return true;
+        }, () -> false);
+    }
+
+    /**
+     * 批量放入缓存
+     * 键按分片分组，每个分片一次往返（pipeline）写入，各分片并行
+     * @param values 键和值
+     * @param timeout 过期时间，每个键各自随机化，-1为永不过期
+     * @return true成功 false失败
+     */
+    @SuppressWarnings("unchecked")
+    public boolean setByList(Map<String, ? extends Serializable> values, long timeout) {
+        List<String> keyList = new ArrayList<>(values.keySet());
+        return this.guard(() -> {
+            this.parallelByShard(keyList, (node, keys) -> {
+                RedisTemplate<String, Serializable> template = node.writer();
+                RedisSerializer<Serializable> serializer = (RedisSerializer<Serializable>) template.getValueSerializer();
+                return template.executePipelined((RedisCallback<Object>) connection -> {
+                    keys.forEach(key -> {
+                        byte[] value = serializer.serialize(values.get(key));
+                        if (timeout > 0) {
+                            connection.stringCommands().setEx(key.getBytes(), randomizeTimeout(timeout), value);
+                        } else {
+                            connection.stringCommands().set(key.getBytes(), value);
+                        }
+                    });
+                    return null;
+                });
+            }, 1);
+            return true;
+        }, () -> false);
     }
 
     /**
@@ -78,7 +428,7 @@ public class RedisUtil {
      */
     public long decr(String key, long delta) {
         if (delta > 0) {
-            return redisTemplate.opsForValue().increment(key, -delta);
+            return this.writer(key).opsForValue().increment(key, -delta);
         }else {
             return 0;
         }
@@ -90,7 +440,7 @@ public class RedisUtil {
      * @return
      */
     public boolean hasKey(String key) {
-        return redisTemplate.hasKey(key);
+        return this.guard(() -> this.reader(key, false).hasKey(key), () -> false);
     }
 
     /**
@@ -101,7 +451,7 @@ public class RedisUtil {
      * @return
      */
     public Boolean expire(String key, long timeout, TimeUnit unit){
-        return redisTemplate.expire(key,timeout,unit);
+        return this.guard(() -> this.writer(key).expire(key,timeout,unit), () -> false);
     }
 
     /**
@@ -110,7 +460,17 @@ public class RedisUtil {
      * @return
      */
     public Set<Serializable > getSet(String key) {
-        return  redisTemplate.opsForSet().members(key);
+        return this.getSet(key, false);
+    }
+
+    /**
+     * 获得redis中set集合
+     * @param key   键
+     * @param fromPrimary 是否强制读主节点
+     * @return
+     */
+    public Set<Serializable > getSet(String key, boolean fromPrimary) {
+        return this.reader(key, fromPrimary).opsForSet().members(key);
     }
 
     /**
@@ -121,7 +481,7 @@ public class RedisUtil {
      * @return
      */
     public Long unionAndStoreSet(String key, Collection<String> otherKeys, String destKey){
-        return redisTemplate.opsForSet().unionAndStore(key, otherKeys, destKey);
+        return this.writer(keysOf(destKey, otherKeys, key)).opsForSet().unionAndStore(key, otherKeys, destKey);
     }
 
     /**
@@ -131,7 +491,7 @@ public class RedisUtil {
      * @return
      */
     public Long unionAndStoreSet(Collection<String> keys, String destKey){
-        return redisTemplate.opsForSet().unionAndStore(keys, destKey);
+        return this.writer(keysOf(destKey, keys)).opsForSet().unionAndStore(keys, destKey);
     }
     /**
      * 将values加入key的集合中
@@ -140,7 +500,7 @@ public class RedisUtil {
      * @return
      */
     public Long addSet(String key, Serializable... values) {
-        return redisTemplate.opsForSet().add(key, values);
+        return this.writer(key).opsForSet().add(key, values);
     }
 
     /**
@@ -150,7 +510,7 @@ public class RedisUtil {
      * @return
      */
     public Boolean isMemberSet(String key, Serializable value) {
-        return redisTemplate.opsForSet().isMember(key, value);
+        return this.reader(key, false).opsForSet().isMember(key, value);
     }
     /**
      * 获取List中第index元素
@@ -159,7 +519,7 @@ public class RedisUtil {
      * @return
      */
     public Serializable indexList(String key, long index) {
-        return redisTemplate.opsForList().index(key, index);
+        return this.reader(key, false).opsForList().index(key, index);
     }
 
     /**
@@ -170,7 +530,19 @@ public class RedisUtil {
      * @return
      */
     public List<Serializable> rangeList(String key, long start, long end){
-        return redisTemplate.opsForList().range(key, start,end);
+        return this.rangeList(key, start, end, false);
+    }
+
+    /**
+     * 获取list中start至end的元素
+     * @param key
+     * @param start
+     * @param end
+     * @param fromPrimary 是否强制读主节点
+     * @return
+     */
+    public List<Serializable> rangeList(String key, long start, long end, boolean fromPrimary){
+        return this.reader(key, fromPrimary).opsForList().range(key, start,end);
     }
 
     /**
@@ -181,7 +553,7 @@ public class RedisUtil {
      * @return
      */
     public Long removeList(String key, long count, Object value){
-        return redisTemplate.opsForList().remove(key, count, value);
+        return this.writer(key).opsForList().remove(key, count, value);
     }
 
     /**
@@ -190,7 +562,7 @@ public class RedisUtil {
      * @return
      */
     public Long sizeList(String key){
-        return redisTemplate.opsForList().size(key);
+        return this.reader(key, false).opsForList().size(key);
     }
 
     /**
@@ -200,7 +572,7 @@ public class RedisUtil {
      * @return
      */
     public long leftPushList(String key, Serializable value){
-        return redisTemplate.opsForList().leftPush(key, value);
+        return this.writer(key).opsForList().leftPush(key, value);
     }
 
     /**
@@ -210,7 +582,7 @@ public class RedisUtil {
      * @return
      */
     public long leftPushAllList(String key, Serializable... values){
-        return redisTemplate.opsForList().leftPushAll(key, values);
+        return this.writer(key).opsForList().leftPushAll(key, values);
     }
 
     /**
@@ -220,7 +592,7 @@ public class RedisUtil {
      * @return
      */
     public long rightPushList(String key, Serializable value){
-        return redisTemplate.opsForList().rightPush(key, value);
+        return this.writer(key).opsForList().rightPush(key, value);
     }
 
     /**
@@ -230,11 +602,11 @@ public class RedisUtil {
      * @return
      */
     public long rightPushAllList(String key, Serializable... values){
-        return redisTemplate.opsForList().rightPushAll(key, values);
+        return this.writer(key).opsForList().rightPushAll(key, values);
     }
 
     public Serializable leftPopList(String key){
-        return redisTemplate.opsForList().leftPop(key);
+        return this.writer(key).opsForList().leftPop(key);
     }
 
     /**
@@ -245,7 +617,127 @@ public class RedisUtil {
      * @return
      */
     public <T> T executeScript(DefaultRedisScript<T> script,List<String> keyList, Object... values){
-        return redisTemplate.execute(script,keyList,values);
+        return this.writer(keyList).execute(script,keyList,values);
+    }
+
+    /**
+     * 按所在分片分组，每组的键可以在一个脚本中执行
+     * @param keys 键
+     * @return 各分片上的键，按第一次出现的顺序
+     */
+    public Collection<List<String>> groupByShard(Collection<String> keys) {
+        return this.shards.group(keys).values();
+    }
+
+    /**
+     * 在熔断器保护下执行脚本
+     * @param script 脚本
+     * @param keyList 键，须在同一分片上
+     * @param fallback 熔断或Redis出错时的返回值
+     * @param values 参数
+     */
+    public <T> T executeScriptOrElse(DefaultRedisScript<T> script, List<String> keyList, Supplier<T> fallback, Object... values) {
+        return this.guard(() -> this.writer(keyList).execute(script, keyList, values), fallback);
+    }
+
+    /**
+     * 创建消费组，流不存在时一并创建，消费组已经存在时忽略
+     * 消费组从流的开头开始消费，创建前写入的记录也会被消费
+     * @param key 流
+     * @param group 消费组
+     */
+    public void createStreamGroup(String key, String group) {
+        try {
+            this.writer(key).opsForStream().createGroup(key, ReadOffset.from("0"), group);
+        } catch (RedisSystemException e) {
+            if (e.getMostSpecificCause().getMessage() == null || !e.getMostSpecificCause().getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 以消费组中一个消费者的身份读取流
+     * @param key 流
+     * @param group 消费组
+     * @param consumer 消费者
+     * @param count 最多读取的记录数
+     * @param pending true读取该消费者已读取但未确认的记录，false读取新记录
+     * @return 记录
+     */
+    // StreamOperations.read只有可变参数的重载，这里只传一个StreamOffset，生成的泛型数组不会被写入，是安全的
+    @SuppressWarnings("unchecked")
+    public List<MapRecord<String, Object, Object>> readStreamGroup(String key, String group, String consumer, long count, boolean pending) {
+        ReadOffset offset = pending ? ReadOffset.from("0") : ReadOffset.lastConsumed();
+        List<MapRecord<String, Object, Object>> records = this.writer(key).opsForStream()
+                .read(Consumer.from(group, consumer), StreamReadOptions.empty().count(count), StreamOffset.create(key, offset));
+        return records == null ? List.of() : records;
+    }
+
+    /**
+     * 确认并删除已经处理完的记录，流中只保留未处理的记录
+     * @param key 流
+     * @param group 消费组
+     * @param ids 记录id
+     * @return 删除的记录数
+     */
+    public long ackStream(String key, String group, List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        RedisTemplate<String, Serializable> template = this.writer(key);
+        String[] idArray = ids.toArray(new String[0]);
+        template.opsForStream().acknowledge(key, group, idArray);
+        return Objects.requireNonNullElse(template.opsForStream().delete(key, idArray), 0L);
+    }
+
+    /**
+     * 消费组中已读取但未确认的记录
+     * @param key 流
+     * @param group 消费组
+     * @param consumer 消费者，为null时为全部消费者
+     * @param count 最多返回的记录数
+     */
+    public PendingMessages pendingStream(String key, String group, String consumer, long count) {
+        StreamOperations<String, Object, Object> operations = this.writer(key).opsForStream();
+        return consumer == null ? operations.pending(key, group, Range.unbounded(), count)
+                : operations.pending(key, Consumer.from(group, consumer), Range.unbounded(), count);
+    }
+
+    /**
+     * 把其他消费者已读取但长时间未确认的记录转给consumer
+     * @param minIdle 只转移超过该时间未确认的记录，避免与仍在处理的消费者冲突
+     * @return 转移成功的记录
+     */
+    public List<MapRecord<String, Object, Object>> claimStream(String key, String group, String consumer, Duration minIdle, List<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        List<MapRecord<String, Object, Object>> records = this.writer(key).opsForStream()
+                .claim(key, group, consumer, minIdle, ids.stream().map(RecordId::of).toArray(RecordId[]::new));
+        return records == null ? List.of() : records;
+    }
+
+    /**
+     * 从消费组中删除消费者
+     */
+    public void deleteStreamConsumer(String key, String group, String consumer) {
+        this.writer(key).opsForStream().deleteConsumer(key, Consumer.from(group, consumer));
+    }
+
+    /**
+     * 流中的记录数
+     */
+    public long sizeStream(String key) {
+        return Objects.requireNonNullElse(this.writer(key).opsForStream().size(key), 0L);
+    }
+
+    /**
+     * 流中最早的记录id，流为空时返回null
+     */
+    public RecordId firstStreamId(String key) {
+        List<MapRecord<String, Object, Object>> records = this.writer(key).opsForStream().range(key, Range.unbounded(), Limit.limit().count(1));
+        return records == null || records.isEmpty() ? null : records.get(0).getId();
     }
 
     /**
@@ -258,7 +750,7 @@ public class RedisUtil {
      * @param value
      */
     public void setHash(String key, String field, Serializable value){
-        redisTemplate.opsForHash().put(key, field, value);
+        this.writer(key).opsForHash().put(key, field, value);
     }
 
     /**
@@ -271,15 +763,15 @@ public class RedisUtil {
      * @return
      */
     public Serializable getHash(String key, String field) {
-        return (Serializable) redisTemplate.opsForHash().get(key, field);
+        return (Serializable) this.reader(key, false).opsForHash().get(key, field);
     }
 
     public boolean getBit(String key, long offset){
-        return redisTemplate.opsForValue().getBit(key, offset);
+        return this.reader(key, false).opsForValue().getBit(key, offset);
     }
 
     public boolean setBit(String key, long offset, boolean value){
-        return redisTemplate.opsForValue().setBit(key, offset, value);
+        return this.writer(key).opsForValue().setBit(key, offset, value);
     }
 
 
@@ -295,7 +787,7 @@ public class RedisUtil {
      * @return
      */
     public long bitCount(String key, long start, long end){
-        return (long) redisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key.getBytes(), start, end));
+        return (long) this.reader(key, false).execute((RedisCallback<Long>) connection -> connection.bitCount(key.getBytes(), start, end));
     }
 
     public Long bitAnd(String destKey, String... keys){
@@ -303,7 +795,7 @@ public class RedisUtil {
         for (int i = 0; i < keys.length; i++) {
             bytes[i] = keys[i].getBytes();
         }
-        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.bitOp(BitOperation.AND, destKey.getBytes(), bytes));
+        return this.writer(keysOf(destKey, Arrays.asList(keys))).execute((RedisCallback<Long>) connection -> connection.bitOp(BitOperation.AND, destKey.getBytes(), bytes));
     }
 
     public Long bitOr(String destKey, String... keys){
@@ -311,7 +803,7 @@ public class RedisUtil {
         for (int i = 0; i < keys.length; i++) {
             bytes[i] = keys[i].getBytes();
         }
-        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.bitOp(BitOperation.OR, destKey.getBytes(), bytes));
+        return this.writer(keysOf(destKey, Arrays.asList(keys))).execute((RedisCallback<Long>) connection -> connection.bitOp(BitOperation.OR, destKey.getBytes(), bytes));
     }
 
     /**
@@ -339,7 +831,7 @@ public class RedisUtil {
         }else{
             valueBytes[3] = "NONSCALING".getBytes();
         }
-        return redisTemplate.execute((RedisCallback) connection -> connection.execute("BF.RESERVE", valueBytes));
+        return this.writer(key).execute((RedisCallback) connection -> connection.execute("BF.RESERVE", valueBytes));
     }
 
 
@@ -361,7 +853,7 @@ public class RedisUtil {
          * 经查阅资料可知：现在的客户端不能处理 bf:XXX相关的操作
          */
 
-        return redisTemplate.execute(new RedisCallback<Object>() {
+        return this.writer(key).execute(new RedisCallback<Object>() {
 
             @Override
             public Object doInRedis(RedisConnection connection) throws DataAccessException {
@@ -403,7 +895,7 @@ public class RedisUtil {
          * tips：redis有数据协议标准 ,每个command的请求响应的数据结构不一样，
          * 经查阅资料可知：现在的客户端不能处理 bf:XXX相关的操作
          */
-        return (Boolean) redisTemplate.execute(new RedisCallback<Object>() {
+        return (Boolean) this.reader(key, false).execute(new RedisCallback<Object>() {
 
             @Override
             public Object doInRedis(RedisConnection connection) throws DataAccessException {
@@ -428,7 +920,7 @@ public class RedisUtil {
 
     public Boolean bfExist(String key, String value){
 
-        return (Boolean) redisTemplate.execute(new RedisCallback<Object>() {
+        return (Boolean) this.reader(key, false).execute(new RedisCallback<Object>() {
 
             @Override
             public Object doInRedis(RedisConnection connection) throws DataAccessException {
@@ -455,7 +947,8 @@ public class RedisUtil {
     private long randomizeTimeout(long timeout) {
         long min = 1;
         long max = timeout / 5;
-        return timeout + (long) (new Random().nextDouble() * (max - min));
+        // ThreadLocalRandom避免每次新建Random，也不会在多线程（包括虚拟线程）间争用同一个种子
+        return timeout + (long) (ThreadLocalRandom.current().nextDouble() * (max - min));
     }
 
     /**
@@ -466,16 +959,144 @@ public class RedisUtil {
      * @return
      */
     public List<Object> getByList(List<String> keyList){
+        return this.getByList(keyList, false);
+    }
+
+    /**
+     * 批量查询
+     * @param keyList
+     * @param fromPrimary 是否强制读主节点
+     * @return
+     */
+    public List<Object> getByList(List<String> keyList, boolean fromPrimary){
 
-        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+        return this.guard(() -> this.parallelByShard(keyList, (node, keys) -> node.reader(fromPrimary).executePipelined((RedisCallback<Object>) connection -> {
             // 执行多个Redis命令
-            keyList.stream().forEach(key->{
+            keys.stream().forEach(key->{
                 connection.exists(key.getBytes());
                 connection.get(key.getBytes());
             });
             // 返回null表示不需要在这里返回结果
             return null;
+        }), 2), () -> {
+            this.breaker.admitFallback();
+            List<Object> misses = new ArrayList<>(keyList.size() * 2);
+            keyList.forEach(key -> {
+                misses.add(false);
+                misses.add(null);
+            });
+            return misses;
+        });
+    }
+
+    /**
+     * 按分片拆分键，各分片并行执行批量操作，再按原来键的顺序合并结果
+     * @param keyList 键
+     * @param action 在一个分片上对一组键执行的操作，返回的结果按键的顺序排列
+     * @param resultsPerKey 每个键对应几个结果（如exists+get为2）
+     */
+    private List<Object> parallelByShard(List<String> keyList, BiFunction<RedisNode, List<String>, List<Object>> action, int resultsPerKey) {
+        Map<RedisNode, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keyList.size(); i++) {
+            groups.computeIfAbsent(this.shards.get(keyList.get(i)), k -> new ArrayList<>()).add(i);
+        }
+        if (groups.size() <= 1) {
+            return groups.isEmpty() ? new ArrayList<>() : action.apply(groups.keySet().iterator().next(), keyList);
+        }
+        Map<RedisNode, CompletableFuture<List<Object>>> futures = new LinkedHashMap<>();
+        groups.forEach((node, indexes) -> {
+            List<String> keys = indexes.stream().map(keyList::get).toList();
+            futures.put(node, CompletableFuture.supplyAsync(() -> action.apply(node, keys), this.shardExecutor));
+        });
+        Object[] results = new Object[keyList.size() * resultsPerKey];
+        futures.forEach((node, future) -> {
+            List<Object> partial;
+            try {
+                partial = future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            List<Integer> indexes = groups.get(node);
+            for (int j = 0; j < indexes.size(); j++) {
+                for (int r = 0; r < resultsPerKey; r++) {
+                    results[indexes.get(j) * resultsPerKey + r] = partial.get(j * resultsPerKey + r);
+                }
+            }
         });
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * 键所在分片的主节点
+     */
+    private RedisTemplate<String, Serializable> writer(String key) {
+        return this.shards.get(key).writer();
+    }
+
+    /**
+     * 一组键所在分片的主节点，这些键必须在同一个分片上（用相同的hash tag）
+     */
+    private RedisTemplate<String, Serializable> writer(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return this.shards.getNodes().get(0).writer();
+        }
+        Set<RedisNode> nodes = this.shards.group(keys).keySet();
+        if (nodes.size() > 1) {
+            throw new IllegalArgumentException(String.format("keys %s span %d shards, use a common hash tag", keys, nodes.size()));
+        }
+        return nodes.iterator().next().writer();
+    }
+
+    /**
+     * 键所在分片的读节点
+     */
+    private RedisTemplate<String, Serializable> reader(String key, boolean fromPrimary) {
+        return this.shards.get(key).reader(fromPrimary);
+    }
+
+    private static List<String> keysOf(String key, Collection<String> otherKeys, String... moreKeys) {
+        List<String> keys = new ArrayList<>(otherKeys);
+        keys.add(key);
+        keys.addAll(Arrays.asList(moreKeys));
+        return keys;
+    }
+
+    /**
+     * 在熔断器保护下访问Redis
+     * @param action 访问Redis的操作
+     * @param fallback 熔断或Redis出错时的返回值
+     */
+    private <T> T guard(Supplier<T> action, Supplier<T> fallback) {
+        long start = this.breaker.tryAcquire();
+        if (start < 0) {
+            return fallback.get();
+        }
+        T result;
+        try {
+            result = action.get();
+        } catch (DataAccessException e) {
+            this.breaker.onFailure(e);
+            return fallback.get();
+        } catch (RuntimeException e) {
+            // 序列化等客户端错误，Redis本身是正常的
+            this.breaker.onSuccess(start);
+            throw e;
+        }
+        this.breaker.onSuccess(start);
+        return result;
+    }
+
+    /**
+     * Redis恢复后补删熔断期间没能删除的键
+     */
+    private void replayEvictions() {
+        if (this.pendingEvictions.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(this.pendingEvictions);
+        this.pendingEvictions.removeAll(keys);
+        log.info("replayEvictions: keys = {}", keys.size());
+        this.del(keys.toArray(new String[0]));
     }
 
 }
@@ -0,0 +1,126 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.infrastructure;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 一致性哈希环
+ * 每个节点按名称在环上放置若干虚拟节点，键顺时针找到的第一个虚拟节点即为其所在节点。
+ * 增加一个节点只会从其他节点各迁走一部分键，总计约1/N，而不是像取模那样几乎全部重新分布。
+ * 键中含有{...}时只对花括号内的部分求哈希（与Redis Cluster的hash tag相同），
+ * 如product:obj:{1}和product:relation:{1}一定落在同一个节点上
+ * 环创建后不可修改，增删节点时重新创建
+ */
+public class ShardRing<T> {
+
+    /**
+     * 每个节点的虚拟节点数，越多分布越均匀
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<T> nodes;
+    private final long[] points;
+    private final Object[] owners;
+
+    /**
+     * @param nodes 节点
+     * @param nameOf 节点的名称，决定节点在环上的位置，应在节点增减时保持不变（如host:port）
+     * @param virtualNodes 每个节点的虚拟节点数
+     */
+    public ShardRing(Collection<T> nodes, Function<T, String> nameOf, int virtualNodes) {
+        assert !nodes.isEmpty() && virtualNodes > 0;
+        this.nodes = List.copyOf(nodes);
+        TreeMap<Long, T> ring = new TreeMap<>();
+        for (T node : this.nodes) {
+            String name = nameOf.apply(node);
+            for (int i = 0; i < virtualNodes; i++) {
+                // 哈希冲突时先放入的节点保留该位置
+                ring.putIfAbsent(hash(name + "#" + i), node);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new Object[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, T> entry : ring.entrySet()) {
+            this.points[i] = entry.getKey();
+            this.owners[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    public ShardRing(Collection<T> nodes, Function<T, String> nameOf) {
+        this(nodes, nameOf, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * 键所在的节点
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        if (this.nodes.size() == 1) {
+            return this.nodes.get(0);
+        }
+        int index = Arrays.binarySearch(this.points, hash(hashTag(key)));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == this.points.length) {
+                index = 0;
+            }
+        }
+        return (T) this.owners[index];
+    }
+
+    /**
+     * 按所在节点对键分组，组内保持原来的顺序
+     */
+    public Map<T, List<String>> group(Collection<String> keys) {
+        Map<T, List<String>> groups = new LinkedHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(this.get(key), k -> new ArrayList<>()).add(key);
+        }
+        return groups;
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return this.nodes.size();
+    }
+
+    /**
+     * 取键中参与哈希的部分：第一个{与其后第一个}之间非空的内容，没有则为整个键
+     */
+    static String hashTag(String key) {
+        int begin = key.indexOf('{');
+        if (begin >= 0) {
+            int end = key.indexOf('}', begin + 1);
+            if (end > begin + 1) {
+                return key.substring(begin + 1, end);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * FNV-1a 64位哈希，再经过MurmurHash3的fmix64打散，使相近的键在环上均匀分布
+     */
+    static long hash(String value) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
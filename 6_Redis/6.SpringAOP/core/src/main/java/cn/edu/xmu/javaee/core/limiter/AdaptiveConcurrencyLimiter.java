@@ -0,0 +1,136 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.limiter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于延迟梯度的自适应并发限制
+ * 以长期平均延迟与最近延迟之比作为梯度：延迟上升时梯度小于1，并发上限随之收缩；
+ * 延迟平稳时上限每次增加一个排队余量(sqrt(limit))，逐步探测系统的容量。
+ * 请求失败（如数据库超时）时按乘性减小上限。超过上限的请求直接拒绝，而不是排队等待
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 长期延迟的平滑系数，约等于最近600个请求的平均
+     */
+    private static final double LONG_RTT_FACTOR = 2.0 / (600 + 1);
+    /**
+     * 短期延迟的平滑系数，约等于最近10个请求的平均
+     */
+    private static final double SHORT_RTT_FACTOR = 2.0 / (10 + 1);
+    /**
+     * 容忍最近延迟比长期延迟高出的比例
+     */
+    private static final double RTT_TOLERANCE = 1.5;
+    /**
+     * 新上限的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+    /**
+     * 请求失败时上限的乘性减小系数
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile double limit;
+    private double longRtt;
+    private double shortRtt;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        assert minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit;
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * 尝试获得一个执行许可
+     * @return 许可的开始时间(纳秒)，超过并发上限时返回-1
+     */
+    public long tryAcquire() {
+        int current;
+        do {
+            current = this.inflight.get();
+            if (current >= (int) this.limit) {
+                return -1;
+            }
+        } while (!this.inflight.compareAndSet(current, current + 1));
+        return System.nanoTime();
+    }
+
+    /**
+     * 请求成功完成，归还许可并用本次延迟更新上限
+     * @param startTime tryAcquire返回的开始时间
+     */
+    public void onSuccess(long startTime) {
+        long rtt = System.nanoTime() - startTime;
+        int current = this.inflight.getAndDecrement();
+        // 并发量不到上限的一半时，延迟不能反映容量，不调整上限
+        if (current * 2 < this.limit || !this.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (this.longRtt == 0) {
+                this.longRtt = rtt;
+                this.shortRtt = rtt;
+                return;
+            }
+            this.shortRtt += (rtt - this.shortRtt) * SHORT_RTT_FACTOR;
+            this.longRtt += (rtt - this.longRtt) * LONG_RTT_FACTOR;
+            // 长期延迟明显高于最近延迟时（负载已回落），让长期延迟更快地回落
+            if (this.longRtt / this.shortRtt > 2) {
+                this.longRtt *= 0.95;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * this.longRtt / this.shortRtt));
+            double newLimit = this.limit * gradient + Math.sqrt(this.limit);
+            setLimit(this.limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 请求失败（超时、服务器内部错误），归还许可并乘性减小上限
+     */
+    public void onDropped() {
+        this.inflight.decrementAndGet();
+        this.lock.lock();
+        try {
+            setLimit(this.limit * BACKOFF_RATIO);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void setLimit(double newLimit) {
+        double old = this.limit;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+        if ((int) old != (int) this.limit) {
+            log.debug("setLimit: limiter = {}, limit {} -> {}", this.name, (int) old, (int) this.limit);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+}
@@ -0,0 +1,175 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.limiter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 熔断器
+ * CLOSED：正常调用，记录最近windowSize次调用的结果，失败率超过阈值时转为OPEN；
+ * OPEN：不再调用下游，经过openDuration后转为HALF_OPEN；
+ * HALF_OPEN：放行probeCalls次试探调用，全部成功则转为CLOSED，任何一次失败重新OPEN
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        private final int code;
+
+        State(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final int probeCalls;
+
+    /**
+     * 最近调用结果的环形缓冲，true为失败
+     */
+    private final boolean[] outcomes;
+    private int next;
+    private int calls;
+    private int failures;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger probePermits = new AtomicInteger();
+    private final AtomicInteger probeSuccesses = new AtomicInteger();
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+    private volatile Consumer<State> listener = s -> {};
+
+    /**
+     * @param name 名称，用于日志和指标
+     * @param windowSize 统计失败率的调用次数窗口
+     * @param minimumCalls 窗口内至少有多少次调用才计算失败率
+     * @param failureRateThreshold 失败率阈值(0~1)
+     * @param openDurationMillis OPEN状态保持的时间
+     * @param probeCalls HALF_OPEN状态放行的试探调用数
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openDurationMillis, int probeCalls) {
+        assert windowSize > 0 && minimumCalls > 0 && minimumCalls <= windowSize && probeCalls > 0;
+        this.name = name;
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = openDurationMillis * 1_000_000L;
+        this.probeCalls = probeCalls;
+    }
+
+    /**
+     * 状态变化时的回调，在状态变化后、锁外调用
+     */
+    public void setListener(Consumer<State> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 是否允许调用下游，允许时调用方必须在调用结束后调用onSuccess或onFailure
+     */
+    public boolean tryAcquire() {
+        State current = this.state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            if (System.nanoTime() - this.openedAt < this.openDurationNanos) {
+                return false;
+            }
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+        return this.probePermits.getAndDecrement() > 0;
+    }
+
+    public void onSuccess() {
+        if (this.state == State.HALF_OPEN) {
+            if (this.probeSuccesses.incrementAndGet() >= this.probeCalls) {
+                transition(State.HALF_OPEN, State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    public void onFailure() {
+        if (this.state == State.HALF_OPEN) {
+            transition(State.HALF_OPEN, State.OPEN);
+            return;
+        }
+        if (record(true)) {
+            transition(State.CLOSED, State.OPEN);
+        }
+    }
+
+    /**
+     * 记录一次调用结果
+     * @return 失败率是否超过阈值
+     */
+    private boolean record(boolean failed) {
+        this.lock.lock();
+        try {
+            if (this.calls == this.outcomes.length) {
+                if (this.outcomes[this.next]) {
+                    this.failures--;
+                }
+            } else {
+                this.calls++;
+            }
+            this.outcomes[this.next] = failed;
+            if (failed) {
+                this.failures++;
+            }
+            this.next = (this.next + 1) % this.outcomes.length;
+            return this.calls >= this.minimumCalls && this.failures >= this.failureRateThreshold * this.calls;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void transition(State from, State to) {
+        this.lock.lock();
+        try {
+            if (this.state != from) {
+                return;
+            }
+            switch (to) {
+                case OPEN -> this.openedAt = System.nanoTime();
+                case HALF_OPEN -> {
+                    this.probePermits.set(this.probeCalls);
+                    this.probeSuccesses.set(0);
+                }
+                case CLOSED -> {
+                    this.next = 0;
+                    this.calls = 0;
+                    this.failures = 0;
+                }
+            }
+            this.state = to;
+        } finally {
+            this.lock.unlock();
+        }
+        log.warn("transition: circuit breaker {} {} -> {}", this.name, from, to);
+        this.listener.accept(to);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,68 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.limiter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 控制器的并发限制
+ * 顾客端（如ProductController）和管理端（Admin开头的控制器，如AdminProductController）各自独立限流，
+ * 顾客端的读流量再大也不会挤占管理端写操作的并发额度
+ */
+@Component
+public class ControllerLimiters {
+
+    private static final String ADMIN_PREFIX = "Admin";
+
+    private final boolean enabled;
+    private final AdaptiveConcurrencyLimiter customer;
+    private final AdaptiveConcurrencyLimiter admin;
+    private final Counter customerRejected;
+    private final Counter adminRejected;
+
+    public ControllerLimiters(@Value("${javaee.core.limiter.enabled:true}") boolean enabled,
+                              @Value("${javaee.core.limiter.customer.initial-limit:50}") int customerInitial,
+                              @Value("${javaee.core.limiter.customer.min-limit:10}") int customerMin,
+                              @Value("${javaee.core.limiter.customer.max-limit:400}") int customerMax,
+                              @Value("${javaee.core.limiter.admin.initial-limit:20}") int adminInitial,
+                              @Value("${javaee.core.limiter.admin.min-limit:5}") int adminMin,
+                              @Value("${javaee.core.limiter.admin.max-limit:100}") int adminMax,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.customer = new AdaptiveConcurrencyLimiter("customer", customerInitial, customerMin, customerMax);
+        this.admin = new AdaptiveConcurrencyLimiter("admin", adminInitial, adminMin, adminMax);
+        this.customerRejected = register(this.customer, meterRegistry);
+        this.adminRejected = register(this.admin, meterRegistry);
+    }
+
+    private static Counter register(AdaptiveConcurrencyLimiter limiter, MeterRegistry meterRegistry) {
+        Gauge.builder("controller.limiter.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("limiter", limiter.getName()).register(meterRegistry);
+        Gauge.builder("controller.limiter.inflight", limiter, AdaptiveConcurrencyLimiter::getInflight)
+                .tag("limiter", limiter.getName()).register(meterRegistry);
+        return meterRegistry.counter("controller.limiter.rejected", "limiter", limiter.getName());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 按控制器类选择限流器
+     * @param controllerClass 控制器类
+     * @return 限流器
+     */
+    public AdaptiveConcurrencyLimiter of(Class<?> controllerClass) {
+        return controllerClass.getSimpleName().startsWith(ADMIN_PREFIX) ? this.admin : this.customer;
+    }
+
+    /**
+     * 记录一次被拒绝的请求
+     */
+    public void rejected(AdaptiveConcurrencyLimiter limiter) {
+        (limiter == this.admin ? this.adminRejected : this.customerRejected).increment();
+    }
+}
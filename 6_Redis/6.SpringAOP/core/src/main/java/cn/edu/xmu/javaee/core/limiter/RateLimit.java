@@ -0,0 +1,61 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.limiter;
+
+import java.lang.annotation.*;
+
+/**
+ * 控制器方法的限流规则，由ControllerAspect在进入方法前检查，超过限制时返回429
+ * 分两级：本节点的令牌桶（每秒rate个，最多突发burst个），不访问Redis；
+ * 通过之后再检查集群的配额（每window秒最多quota次），用Redis上的滑动窗口计数，所有实例共享
+ * 规则中的数值可以用javaee.core.rate-limit.rules.{name}.rate/burst/quota/window覆盖
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RateLimit {
+
+    /**
+     * 规则名称，用于配置、Redis的键和监控指标
+     */
+    String name();
+
+    /**
+     * 按哪些维度分别计数，每个维度各有一个令牌桶和一个滑动窗口，都通过才放行
+     */
+    KeyType[] keys() default {KeyType.CLIENT};
+
+    /**
+     * 本节点每秒补充的令牌数，0为不限
+     */
+    double rate() default 0;
+
+    /**
+     * 本节点令牌桶的容量，0时取rate
+     */
+    long burst() default 0;
+
+    /**
+     * 集群在一个窗口内允许的请求数，0为不限
+     */
+    long quota() default 0;
+
+    /**
+     * 滑动窗口的长度（秒）
+     */
+    long window() default 60;
+
+    enum KeyType {
+        /**
+         * 客户端地址
+         */
+        CLIENT,
+        /**
+         * 登录用户（UserToken.id），未登录的请求不按此维度计数
+         */
+        USER,
+        /**
+         * 商铺，取路径中的shopId，没有时取登录用户的departId
+         */
+        SHOP
+    }
+}
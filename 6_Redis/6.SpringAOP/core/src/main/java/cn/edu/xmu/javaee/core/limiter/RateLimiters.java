@@ -0,0 +1,248 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.limiter;
+
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.model.UserToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按@RateLimit规则限流
+ * 先用本节点的令牌桶过滤，大部分超限的请求不必访问Redis；通过之后再用Redis的滑动窗口检查集群的配额。
+ * Redis熔断或出错时只按本节点的令牌桶限流，不因为限流拒绝请求
+ */
+@Component
+@Slf4j
+public class RateLimiters {
+
+    /**
+     * 本节点最多保留的令牌桶个数，超过时清理已经补满（一段时间没有请求）的桶
+     */
+    private static final int MAX_BUCKETS = 100000;
+
+    private static final String KEY_PREFIX = "ratelimit:";
+
+    private static final String SHOP_ID = "shopId";
+
+    /**
+     * 滑动窗口计数，见lua/sliding_window.lua
+     */
+    private static final DefaultRedisScript<List<Long>> SLIDING_WINDOW_SCRIPT = new DefaultRedisScript<>();
+
+    /**
+     * 撤销滑动窗口中的一次请求，见lua/sliding_window_release.lua
+     */
+    private static final DefaultRedisScript<Long> SLIDING_WINDOW_RELEASE_SCRIPT = new DefaultRedisScript<>();
+
+    private static final List<Long> PASSED = List.of(0L, 0L);
+
+    static {
+        SLIDING_WINDOW_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/sliding_window.lua")));
+        @SuppressWarnings("unchecked")
+        Class<List<Long>> listType = (Class<List<Long>>) (Class<?>) List.class;
+        SLIDING_WINDOW_SCRIPT.setResultType(listType);
+        SLIDING_WINDOW_RELEASE_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/sliding_window_release.lua")));
+        SLIDING_WINDOW_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 配置覆盖之后的规则
+     * @param burst 令牌桶容量
+     * @param windowMillis 滑动窗口长度（毫秒）
+     */
+    record Rule(String name, RateLimit.KeyType[] keys, double rate, long burst, long quota, long windowMillis) {
+    }
+
+    private static final Rule NONE = new Rule("", new RateLimit.KeyType[0], 0, 0, 0, 0);
+
+    private final boolean enabled;
+    private final RedisUtil redisUtil;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final Map<Method, Rule> rules = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    /**
+     * 滑动窗口成员的前缀和序号，保证各实例的成员互不相同
+     */
+    private final String instance = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLong sequence = new AtomicLong();
+
+    public RateLimiters(@Value("${javaee.core.rate-limit.enabled:true}") boolean enabled,
+                        RedisUtil redisUtil, MeterRegistry meterRegistry, Environment environment) {
+        this.enabled = enabled;
+        this.redisUtil = redisUtil;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+    }
+
+    /**
+     * 检查请求是否超过限制，没有超过时计入本次请求
+     * 请求在任何一个维度上超限时都不计入，其他维度上已经取到的令牌和记下的请求都要归还，
+     * 否则一个商铺超限的请求还会消耗同一用户在其他商铺的配额
+     * @param method 控制器方法
+     * @param request 请求
+     * @param user 登录用户，未登录为null
+     * @return 0为放行，否则为建议客户端等待的毫秒数
+     */
+    public long tryAcquire(Method method, HttpServletRequest request, UserToken user) {
+        if (!this.enabled) {
+            return 0;
+        }
+        Rule rule = this.rules.computeIfAbsent(method, this::ruleOf);
+        if (rule == NONE) {
+            return 0;
+        }
+        List<RateLimit.KeyType> types = new ArrayList<>(rule.keys().length);
+        List<String> values = new ArrayList<>(rule.keys().length);
+        for (RateLimit.KeyType type : rule.keys()) {
+            String value = keyOf(type, request, user);
+            if (value != null) {
+                types.add(type);
+                values.add(value);
+            }
+        }
+        List<TokenBucket> acquired = new ArrayList<>(values.size());
+        if (rule.rate() > 0) {
+            for (int i = 0; i < values.size(); i++) {
+                TokenBucket bucket = this.bucketOf(rule, types.get(i), values.get(i));
+                if (!bucket.tryAcquire()) {
+                    acquired.forEach(b -> b.release(1));
+                    this.throttled(rule, types.get(i), "local");
+                    return Math.max(1, (long) Math.ceil(1000 / rule.rate()));
+                }
+                acquired.add(bucket);
+            }
+        }
+        if (rule.quota() > 0 && !values.isEmpty()) {
+            long wait = this.tryAcquireCluster(rule, types, values);
+            if (wait > 0) {
+                acquired.forEach(b -> b.release(1));
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 在Redis的滑动窗口中检查并记下本次请求
+     * 同一分片上的各维度在一个脚本中先全部检查、再一起记下；维度分布在几个分片上时逐个分片执行，
+     * 后面的分片超限时撤销前面的分片上已经记下的请求
+     * @return 0为放行，否则为建议客户端等待的毫秒数
+     */
+    private long tryAcquireCluster(Rule rule, List<RateLimit.KeyType> types, List<String> values) {
+        long now = System.currentTimeMillis();
+        String member = this.instance + ":" + this.sequence.incrementAndGet();
+        List<String> keys = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            keys.add(String.format("%s{%s:%s:%s}", KEY_PREFIX, rule.name(), types.get(i).name().toLowerCase(), values.get(i)));
+        }
+        List<List<String>> recorded = new ArrayList<>();
+        for (List<String> group : this.redisUtil.groupByShard(keys)) {
+            List<Long> result = this.redisUtil.executeScriptOrElse(SLIDING_WINDOW_SCRIPT, group, () -> PASSED,
+                    now, rule.windowMillis(), rule.quota(), member);
+            if (result != null && result.size() == 2 && result.get(0) > 0) {
+                for (List<String> done : recorded) {
+                    this.redisUtil.executeScriptOrElse(SLIDING_WINDOW_RELEASE_SCRIPT, done, () -> 0L, member);
+                }
+                String key = group.get(result.get(1).intValue() - 1);
+                this.throttled(rule, types.get(keys.indexOf(key)), "cluster");
+                return result.get(0);
+            }
+            recorded.add(group);
+        }
+        return 0;
+    }
+
+    private TokenBucket bucketOf(Rule rule, RateLimit.KeyType type, String value) {
+        String key = rule.name() + ':' + type.name() + ':' + value;
+        TokenBucket bucket = this.buckets.get(key);
+        if (bucket == null) {
+            if (this.buckets.size() >= MAX_BUCKETS) {
+                this.evictFullBuckets();
+            }
+            bucket = this.buckets.computeIfAbsent(key, k -> new TokenBucket(rule.burst(), rule.rate()));
+        }
+        return bucket;
+    }
+
+    /**
+     * 丢弃已经补满的桶，下次请求时重新创建
+     */
+    private void evictFullBuckets() {
+        this.buckets.values().removeIf(TokenBucket::isFull);
+        if (this.buckets.size() >= MAX_BUCKETS) {
+            log.warn("evictFullBuckets: too many active clients, size = {}", this.buckets.size());
+            this.buckets.clear();
+        }
+    }
+
+    private void throttled(Rule rule, RateLimit.KeyType type, String level) {
+        log.info("tryAcquire: throttled, rule = {}, key = {}, level = {}", rule.name(), type, level);
+        this.meterRegistry.counter("controller.ratelimit.throttled",
+                "rule", rule.name(), "key", type.name().toLowerCase(), "level", level).increment();
+    }
+
+    /**
+     * 读取方法上的@RateLimit，并用配置覆盖其中的数值
+     */
+    private Rule ruleOf(Method method) {
+        RateLimit limit = AnnotationUtils.findAnnotation(method, RateLimit.class);
+        if (limit == null) {
+            return NONE;
+        }
+        String prefix = "javaee.core.rate-limit.rules." + limit.name() + ".";
+        double rate = this.environment.getProperty(prefix + "rate", Double.class, limit.rate());
+        long burst = this.environment.getProperty(prefix + "burst", Long.class, limit.burst());
+        long quota = this.environment.getProperty(prefix + "quota", Long.class, limit.quota());
+        long window = this.environment.getProperty(prefix + "window", Long.class, limit.window());
+        if (burst <= 0) {
+            burst = Math.max(1, (long) Math.ceil(rate));
+        }
+        Rule rule = new Rule(limit.name(), limit.keys(), rate, burst, quota, window * 1000);
+        log.debug("ruleOf: method = {}, rule = {}", method.getName(), rule);
+        return rule;
+    }
+
+    /**
+     * 取请求在某个维度上的值
+     * @return 请求中没有这个维度时返回null，不按这个维度计数
+     */
+    private static String keyOf(RateLimit.KeyType type, HttpServletRequest request, UserToken user) {
+        switch (type) {
+            case CLIENT:
+                // 不直接读X-Forwarded-For，客户端可以任意伪造，每次换一个值就能得到新的配额；
+                // 经过代理时由server.forward-headers-strategy只采信可信代理转发的地址
+                return request.getRemoteAddr();
+            case USER:
+                return Optional.ofNullable(user).map(UserToken::getId).map(Objects::toString).orElse(null);
+            case SHOP:
+                Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+                if (variables instanceof Map<?, ?> map && map.get(SHOP_ID) != null) {
+                    return map.get(SHOP_ID).toString();
+                }
+                return Optional.ofNullable(user).map(UserToken::getDepartId).map(Objects::toString).orElse(null);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.limiter;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 令牌桶
+ * 以固定速率补充令牌，最多积累capacity个，允许capacity以内的突发；
+ * 令牌在tryAcquire时按流逝的时间惰性补充，不需要后台线程
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final long capacity;
+    private final double tokensPerNano;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity 桶容量（最大突发数）
+     * @param tokensPerSecond 每秒补充的令牌数
+     */
+    public TokenBucket(long capacity, double tokensPerSecond) {
+        assert capacity > 0 && tokensPerSecond > 0;
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / NANOS_PER_SECOND;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 尝试取一个令牌
+     * @return 是否取到
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * 尝试取permits个令牌，不够时一个也不取
+     * @param permits 令牌数
+     * @return 是否取到
+     */
+    public boolean tryAcquire(int permits) {
+        this.lock.lock();
+        try {
+            refill();
+            if (this.tokens < permits) {
+                return false;
+            }
+            this.tokens -= permits;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 归还取到的令牌，请求在其他维度上被拒绝时使用，最多补满
+     * @param permits 令牌数
+     */
+    public void release(int permits) {
+        this.lock.lock();
+        try {
+            refill();
+            this.tokens = Math.min(this.capacity, this.tokens + permits);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 当前可用的令牌数
+     */
+    public long available() {
+        this.lock.lock();
+        try {
+            refill();
+            return (long) this.tokens;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 桶是否已经补满，补满的桶与新建的桶没有区别
+     */
+    public boolean isFull() {
+        return available() >= this.capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+        this.lastRefill = now;
+    }
+}
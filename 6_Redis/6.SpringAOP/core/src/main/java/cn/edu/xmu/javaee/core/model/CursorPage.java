@@ -0,0 +1,61 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.model;
+
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 按游标（keyset）分页的一页
+ * 对象按id升序排列，游标记录本页最后一个对象的id，下一页查询id大于它的对象。
+ * 与按offset分页不同，数据库按索引直接定位到游标处，翻到多深的页代价都和第一页相同
+ *
+ * @param items 本页的对象，可以在写出响应时才逐个生成
+ * @param next 下一页的游标，没有下一页时为null
+ */
+public record CursorPage<T>(Stream<T> items, String next) {
+
+    /**
+     * 游标的版本前缀，以后改变排序键时可以区分旧游标
+     */
+    private static final String PREFIX = "id:";
+
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new CursorPage<>(this.items.map(mapper), this.next);
+    }
+
+    /**
+     * 把id编码为不透明的游标，客户端只应原样传回，不应解析
+     */
+    public static String encode(Long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((PREFIX + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码客户端传回的游标
+     * @param cursor 游标，为空时表示第一页
+     * @return 上一页最后一个对象的id，第一页为0
+     * @throws BusinessException FIELD_NOTVALID 游标不是encode生成的
+     */
+    public static long decode(String cursor) throws BusinessException {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (value.startsWith(PREFIX)) {
+                long id = Long.parseLong(value.substring(PREFIX.length()));
+                if (id >= 0) {
+                    return id;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Base64或数字格式错误，与前缀不符一样处理
+        }
+        throw new BusinessException(ReturnNo.FIELD_NOTVALID, JacksonUtil.toJson(new String[]{"cursor"}));
+    }
+}
@@ -19,6 +19,9 @@ public enum ReturnNo {
     STATENOTALLOW(7,"STATENOTALLOW"),
     RESOURCE_FALSIFY(11, "RESOURCE_FALSIFY"),
 
+    //状态码 304
+    NOT_MODIFIED(23, "NOT_MODIFIED"),
+
     //状态码 404
     RESOURCE_ID_NOTEXIST(4,"RESOURCE_ID_NOTEXIST"),
 
@@ -26,6 +29,12 @@ public enum ReturnNo {
     INTERNAL_SERVER_ERR(2,"INTERNAL_SERVER_ERR"),
     APPLICATION_PARAM_ERR(20, "APPLICATION_PARAM_ERR"),
 
+    //状态码 503
+    SERVICE_UNAVAILABLE(21, "SERVICE_UNAVAILABLE"),
+
+    //状态码 429
+    TOO_MANY_REQUESTS(22, "TOO_MANY_REQUESTS"),
+
     //所有需要登录才能访问的API都可能会返回以下错误
     //状态码 400
     FIELD_NOTVALID(3,"FIELD_NOTVALID"),
@@ -44,7 +53,15 @@ public enum ReturnNo {
 
     //状态码 403
     AUTH_NO_RIGHT(16, "AUTH_NO_RIGHT"),
-    RESOURCE_ID_OUTSCOPE(17,"RESOURCE_ID_OUTSCOPE");
+    RESOURCE_ID_OUTSCOPE(17,"RESOURCE_ID_OUTSCOPE"),
+
+    /***************************************************
+     *    商品模块错误码（900开头）
+     **************************************************/
+
+    //状态码 200
+    GOODS_STOCK_SHORTAGE(900,"GOODS_STOCK_SHORTAGE"),
+    GOODS_ONSALE_EXCEED_MAXQUANTITY(901,"GOODS_ONSALE_EXCEED_MAXQUANTITY");
 
 
     private int errNo;
@@ -2,8 +2,13 @@ package cn.edu.xmu.javaee.core.util;
 
 import cn.edu.xmu.javaee.core.exception.BusinessException;
 import cn.edu.xmu.javaee.core.model.ReturnNo;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.context.support.MessageSourceAccessor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.util.List;
 import java.util.Objects;
@@ -26,6 +31,11 @@ public class Common {
                 response.setStatus(HttpServletResponse.SC_CREATED);
                 break;
 
+            case NOT_MODIFIED:
+                // 304：条件请求的资源没有变化
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                break;
+
             case RESOURCE_ID_NOTEXIST:
                 // 404：资源不存在
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -46,6 +56,16 @@ public class Common {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 break;
 
+            case SERVICE_UNAVAILABLE:
+                // 503：超过并发限制，快速拒绝
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                break;
+
+            case TOO_MANY_REQUESTS:
+                // 429：超过限流规则
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                break;
+
             case FIELD_NOTVALID:
             case IMG_FORMAT_ERROR:
             case IMG_SIZE_EXCEED:
@@ -66,6 +86,35 @@ public class Common {
         response.setContentType("application/json;charset=UTF-8");
     }
 
+    /**
+     * 处理HTTP条件请求（GET/HEAD）
+     * 在响应中加上弱ETag（消息随语言变化，响应不是逐字节相同的），
+     * 请求的If-None-Match与之相符时把响应状态改为304
+     *
+     * @param version 资源的版本，为null时不处理
+     * @return 资源是否没有变化，是则控制器应直接返回NOT_MODIFIED
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String version) {
+        if (Objects.isNull(version)) {
+            return false;
+        }
+        return new ServletWebRequest(request, response).checkNotModified("W/\"" + version + "\"");
+    }
+
+    /**
+     * 按游标分页时，在响应的Link头中给出下一页的地址
+     * 下一页的地址是把本次请求的cursor参数换成下一页的游标，其他参数不变
+     *
+     * @param cursor 下一页的游标，为null（没有下一页）时不处理
+     */
+    public static void setNextPageLink(HttpServletRequest request, HttpServletResponse response, String cursor) {
+        if (Objects.isNull(cursor)) {
+            return;
+        }
+        String next = ServletUriComponentsBuilder.fromRequest(request).replaceQueryParam("cursor", cursor).build().toUriString();
+        response.setHeader(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+    }
+
     /**
      * 获得国际化的message
      * @param e 错误Exception
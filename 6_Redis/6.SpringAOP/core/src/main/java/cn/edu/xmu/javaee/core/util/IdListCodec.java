@@ -0,0 +1,98 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.core.util;
+
+import java.util.Arrays;
+
+/**
+ * 缓存中ID列表的紧凑编码
+ * 格式：1个字节的格式标记FORMAT，ID个数的varint，之后每个ID与前一个ID之差（第一个与0之差）zigzag之后的varint。
+ * varint每字节低7位是数据、最高位表示后面还有字节，低位在前；zigzag把有符号的差映射为无符号数，小的负数也只占一两个字节。
+ * 按id排列的列表差值很小，每个ID通常只占1~3个字节，而Jackson带类型信息的JSON每个ID要二十多个字节。
+ * 旧的JSON格式以'['开头，与FORMAT不同，读取时由isPacked区分两种格式。
+ * lua/list_members.lua中按同样的格式解码
+ */
+public final class IdListCodec {
+
+    /**
+     * 格式标记
+     */
+    public static final byte FORMAT = 1;
+
+    private IdListCodec() {
+    }
+
+    /**
+     * 编码ID列表
+     * @param ids ID
+     * @return 编码后的字节
+     */
+    public static byte[] encode(long[] ids) {
+        // 格式标记 + 个数 + 每个ID最多10个字节
+        byte[] buffer = new byte[1 + 5 + ids.length * 10];
+        buffer[0] = FORMAT;
+        int position = writeVarint(buffer, 1, ids.length);
+        long previous = 0;
+        for (long id : ids) {
+            long delta = id - previous;
+            position = writeVarint(buffer, position, (delta << 1) ^ (delta >> 63));
+            previous = id;
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * 是否是encode编码的字节
+     */
+    public static boolean isPacked(byte[] bytes) {
+        return bytes != null && bytes.length > 0 && bytes[0] == FORMAT;
+    }
+
+    /**
+     * 解码ID列表
+     * @param bytes encode编码的字节
+     * @return ID
+     * @throws IllegalArgumentException 不是encode编码的字节或已经损坏
+     */
+    public static long[] decode(byte[] bytes) {
+        if (!isPacked(bytes)) {
+            throw new IllegalArgumentException("IdListCodec: not a packed id list");
+        }
+        int[] position = {1};
+        long count = readVarint(bytes, position);
+        if (count < 0 || count > bytes.length - position[0]) {
+            throw new IllegalArgumentException("IdListCodec: bad count " + count);
+        }
+        long[] ids = new long[(int) count];
+        long previous = 0;
+        for (int i = 0; i < ids.length; i++) {
+            long zigzag = readVarint(bytes, position);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new IllegalArgumentException("IdListCodec: truncated varint");
+            }
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("IdListCodec: varint too long");
+    }
+}
@@ -0,0 +1,109 @@
+-- 一次往返读取ID列表及其全部成员对象
+-- KEYS[1]  ID列表的键，值为IdListCodec的紧凑编码（首字节为1），
+--          或旧的RedisTemplate序列化的["java.util.ArrayList",[["java.lang.Long",id1],...]]
+-- ARGV[1]  成员键的前缀，成员键为 ARGV[1] .. id .. ARGV[2]
+-- ARGV[2]  成员键的后缀
+-- 返回值：列表未命中时返回nil；否则返回 {列表原值, 未命中位图, 命中的成员1, 命中的成员2, ...}
+-- 位图第i个位（从0开始，每字节低位在前）为1表示第i个ID的成员未命中，命中的成员按ID的顺序排列
+local list = redis.call('GET', KEYS[1])
+if not list then
+    return nil
+end
+
+-- 解码紧凑编码：格式标记、ID个数的varint、各ID与前一个ID之差zigzag之后的varint，见IdListCodec
+-- Lua的数是double，ID的绝对值在2^52以内时是精确的
+local function unpack_ids(bytes)
+    local position = 2
+    local function varint()
+        local value, multiplier = 0, 1
+        while true do
+            local b = string.byte(bytes, position)
+            if not b then
+                return nil
+            end
+            position = position + 1
+            value = value + (b % 128) * multiplier
+            if b < 128 then
+                return value
+            end
+            multiplier = multiplier * 128
+        end
+    end
+    local count = varint()
+    if not count then
+        return nil
+    end
+    local ids, previous = {}, 0
+    for i = 1, count do
+        local zigzag = varint()
+        if not zigzag then
+            return nil
+        end
+        if zigzag % 2 == 0 then
+            previous = previous + zigzag / 2
+        else
+            previous = previous - (zigzag + 1) / 2
+        end
+        ids[i] = previous
+    end
+    return ids
+end
+
+local ids
+if string.byte(list, 1) == 1 then
+    ids = unpack_ids(list)
+    if not ids then
+        return nil
+    end
+else
+    local ok, decoded = pcall(cjson.decode, list)
+    if not ok or type(decoded) ~= 'table' or type(decoded[2]) ~= 'table' then
+        return nil
+    end
+    ids = decoded[2]
+end
+-- 整数的十进制表示，不用string.format('%d')：有的Lua实现按32位整数格式化
+local function decimal(n)
+    if n < 0 then
+        return '-' .. decimal(-n)
+    end
+    local digits = {}
+    repeat
+        local digit = n % 10
+        table.insert(digits, 1, string.char(48 + digit))
+        n = (n - digit) / 10
+    until n == 0
+    return table.concat(digits)
+end
+
+local result = {list, ''}
+if #ids == 0 then
+    return result
+end
+local keys = {}
+for i, id in ipairs(ids) do
+    -- 带类型信息的Long序列化为["java.lang.Long",id]
+    if type(id) == 'table' then
+        id = id[2]
+    end
+    keys[i] = ARGV[1] .. decimal(id) .. ARGV[2]
+end
+local values = redis.call('MGET', unpack(keys))
+local bytes = {}
+for i = 1, math.floor((#ids + 7) / 8) do
+    bytes[i] = 0
+end
+for i = 1, #ids do
+    local value = values[i]
+    if value then
+        result[#result + 1] = value
+    else
+        local index = math.floor((i - 1) / 8) + 1
+        bytes[index] = bytes[index] + 2 ^ ((i - 1) % 8)
+    end
+end
+for i = 1, #bytes do
+    bytes[i] = string.char(bytes[i])
+end
+result[2] = table.concat(bytes)
+return result
@@ -0,0 +1,27 @@
+-- 滑动窗口计数：窗口内的每次请求是有序集合中的一个成员，分数为请求时间
+-- KEYS     本次请求各个维度的有序集合的键，必须在同一个分片上
+-- ARGV[1]  当前时间（毫秒）
+-- ARGV[2]  窗口长度（毫秒）
+-- ARGV[3]  窗口内允许的请求数
+-- ARGV[4]  本次请求的成员，每次请求不同
+-- 先检查全部的键，都没有超限时才在每个键中记下本次请求，超限时一个也不记
+-- 返回值：{0, 0}表示放行；否则为{窗口内最早的请求移出窗口还要等待的毫秒数, 超限的键在KEYS中的序号（从1开始）}
+local now = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+local quota = tonumber(ARGV[3])
+for i, key in ipairs(KEYS) do
+    redis.call('ZREMRANGEBYSCORE', key, '-inf', now - window)
+    if redis.call('ZCARD', key) >= quota then
+        local oldest = redis.call('ZRANGE', key, 0, 0, 'WITHSCORES')
+        local wait = 1
+        if oldest[2] then
+            wait = math.max(1, tonumber(oldest[2]) + window - now)
+        end
+        return {wait, i}
+    end
+end
+for _, key in ipairs(KEYS) do
+    redis.call('ZADD', key, now, ARGV[4])
+    redis.call('PEXPIRE', key, window)
+end
+return {0, 0}
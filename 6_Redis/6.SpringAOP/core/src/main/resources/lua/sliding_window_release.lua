@@ -0,0 +1,9 @@
+-- 撤销滑动窗口中记下的一次请求，请求在其他分片上超限被拒绝时使用
+-- KEYS     有序集合的键，在同一个分片上
+-- ARGV[1]  本次请求的成员
+-- 返回值：删除的成员个数
+local removed = 0
+for _, key in ipairs(KEYS) do
+    removed = removed + redis.call('ZREM', key, ARGV[1])
+end
+return removed
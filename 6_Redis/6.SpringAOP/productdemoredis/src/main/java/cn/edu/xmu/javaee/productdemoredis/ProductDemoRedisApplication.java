@@ -2,8 +2,10 @@ package cn.edu.xmu.javaee.productdemoredis;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = {"cn.edu.xmu.javaee.core", "cn.edu.xmu.javaee.productdemoredis"})
+@EnableScheduling
 public class ProductDemoRedisApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,18 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.config;
+
+import cn.edu.xmu.javaee.core.aop.ControllerAspect;
+import cn.edu.xmu.javaee.core.aop.DaoAspect;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * 启用core中的ControllerAspect和DaoAspect，core中的Aspect不是组件，由使用的应用决定是否启用
+ * ControllerAspect：从Authorization头解析用户放入RequestVariables，检查分页参数，执行限流，
+ * 把返回的ReturnObject和抛出的BusinessException按errno转换为HTTP状态码（如RESOURCE_ID_NOTEXIST为404、RESOURCE_ID_OUTSCOPE为403）；
+ * DaoAspect：把dao抛出的BusinessException之外的异常转换为INTERNAL_SERVER_ERR
+ */
+@Configuration
+@Import({ControllerAspect.class, DaoAspect.class})
+public class AspectConfig {
+}
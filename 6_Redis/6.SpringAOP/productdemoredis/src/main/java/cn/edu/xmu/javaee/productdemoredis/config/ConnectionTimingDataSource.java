@@ -0,0 +1,102 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按端点统计数据库连接的等待时间和占用时间
+ * datasource.connection.wait是从连接池取得物理连接的耗时，datasource.connection.hold是取得连接到归还连接池的时间，
+ * 都按请求的uri模板和method打标签（请求之外的定时任务等为NONE），带百分位直方图。
+ * 包在LazyConnectionDataSourceProxy之内，只统计真正从连接池取出的连接
+ */
+public class ConnectionTimingDataSource extends DelegatingDataSource {
+
+    private static final String NONE = "NONE";
+
+    private final MeterRegistry meterRegistry;
+
+    public ConnectionTimingDataSource(DataSource target, MeterRegistry meterRegistry) {
+        super(target);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        String[] endpoint = endpoint();
+        long start = System.nanoTime();
+        Connection connection = this.obtainTargetDataSource().getConnection();
+        return this.timed(connection, endpoint, start);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        String[] endpoint = endpoint();
+        long start = System.nanoTime();
+        Connection connection = this.obtainTargetDataSource().getConnection(username, password);
+        return this.timed(connection, endpoint, start);
+    }
+
+    private Connection timed(Connection connection, String[] endpoint, long start) {
+        long acquired = System.nanoTime();
+        this.timer("datasource.connection.wait", endpoint).record(acquired - start, TimeUnit.NANOSECONDS);
+        Timer hold = this.timer("datasource.connection.hold", endpoint);
+        boolean[] closed = new boolean[1];
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(), new Class<?>[]{ConnectionProxy.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTargetConnection":
+                            return connection;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "close":
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                hold.record(System.nanoTime() - acquired, TimeUnit.NANOSECONDS);
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    private Timer timer(String name, String[] endpoint) {
+        return Timer.builder(name).tag("uri", endpoint[0]).tag("method", endpoint[1])
+                .publishPercentileHistogram().register(this.meterRegistry);
+    }
+
+    /**
+     * 当前请求匹配的uri模板和method，如/shops/{shopId}/products/{id}和GET
+     */
+    private static String[] endpoint() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes servletAttributes) {
+            HttpServletRequest request = servletAttributes.getRequest();
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            return new String[]{pattern == null ? NONE : pattern.toString(), request.getMethod()};
+        }
+        return new String[]{NONE, NONE};
+    }
+}
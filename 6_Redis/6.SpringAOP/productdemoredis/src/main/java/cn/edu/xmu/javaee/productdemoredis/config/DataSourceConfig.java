@@ -0,0 +1,108 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.config;
+
+import com.alibaba.druid.filter.Filter;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.spring.boot3.autoconfigure.DruidDataSourceBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据源
+ * 主库由spring.datasource配置，替代Druid自动配置的数据源。应用使用的数据源由外到内是：
+ * LazyConnectionDataSourceProxy，执行第一条语句时才从连接池取连接，缓存命中、不执行SQL的事务不占用连接；
+ * ConnectionTimingDataSource，按端点统计连接的等待和占用时间；
+ * 配置了javaee.productdemoredis.datasource.replicas（读副本的JDBC url，逗号分隔）时是ReadWriteRoutingDataSource，
+ * 只读事务读副本，读副本使用与主库相同的用户名、密码和spring.datasource.druid连接池参数；否则是主库的连接池。
+ * 导出商品目录另用一个小的连接池exportDataSource，url可以带上只对导出有意义的参数（如MySQL的useCursorFetch）
+ */
+@Configuration
+@Slf4j
+public class DataSourceConfig {
+
+    /**
+     * 读副本的连接池，关闭时释放
+     */
+    private final List<DruidDataSource> replicaPools = new ArrayList<>();
+
+    /**
+     * 主库的连接池，替代Druid自动配置的数据源
+     */
+    @Bean(initMethod = "init", destroyMethod = "close")
+    @ConfigurationProperties("spring.datasource.druid")
+    public DruidDataSource primaryDataSource(DataSourceProperties properties, ObjectProvider<Filter> filters) {
+        DruidDataSource dataSource = DruidDataSourceBuilder.create().build();
+        dataSource.setName("primary");
+        dataSource.setUrl(properties.determineUrl());
+        dataSource.setUsername(properties.determineUsername());
+        dataSource.setPassword(properties.determinePassword());
+        dataSource.setDriverClassName(properties.determineDriverClassName());
+        dataSource.setProxyFilters(filters.orderedStream().toList());
+        return dataSource;
+    }
+
+    /**
+     * 应用（JPA、JdbcTemplate）使用的数据源
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(DruidDataSource primaryDataSource, @Value("${javaee.productdemoredis.datasource.replicas:}") List<String> replicas,
+                                 MeterRegistry meterRegistry) throws SQLException {
+        for (String replica : replicas) {
+            if (replica.isBlank()) {
+                continue;
+            }
+            DruidDataSource pool = primaryDataSource.cloneDruidDataSource();
+            pool.setName("replica-" + this.replicaPools.size());
+            pool.setUrl(replica.trim());
+            this.replicaPools.add(pool);
+            pool.init();
+        }
+        log.info("dataSource: primary = {}, replicas = {}", primaryDataSource.getUrl(), this.replicaPools.stream().map(DruidDataSource::getUrl).toList());
+        DataSource target = primaryDataSource;
+        if (!this.replicaPools.isEmpty()) {
+            ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primaryDataSource, this.replicaPools, meterRegistry);
+            routing.afterPropertiesSet();
+            target = routing;
+        }
+        return new LazyConnectionDataSourceProxy(new ConnectionTimingDataSource(target, meterRegistry));
+    }
+
+    /**
+     * 导出商品目录的连接池，只供ProductPoExportMapperImpl使用
+     * url为javaee.productdemoredis.export.datasource.url，为空时与主库相同；其余参数与主库相同，但不预先建立连接，
+     * 最多max-active个连接，导出是少数长时间的查询，不应占用主库连接池的连接
+     */
+    @Bean(initMethod = "init", destroyMethod = "close")
+    public DruidDataSource exportDataSource(DruidDataSource primaryDataSource, @Value("${javaee.productdemoredis.export.datasource.url:}") String url,
+                                            @Value("${javaee.productdemoredis.export.datasource.max-active:2}") int maxActive) {
+        DruidDataSource dataSource = primaryDataSource.cloneDruidDataSource();
+        dataSource.setName("export");
+        if (!url.isBlank()) {
+            dataSource.setUrl(url.trim());
+        }
+        dataSource.setInitialSize(0);
+        dataSource.setMinIdle(0);
+        dataSource.setMaxActive(maxActive);
+        return dataSource;
+    }
+
+    @PreDestroy
+    public void closeReplicas() {
+        this.replicaPools.forEach(DruidDataSource::close);
+    }
+}
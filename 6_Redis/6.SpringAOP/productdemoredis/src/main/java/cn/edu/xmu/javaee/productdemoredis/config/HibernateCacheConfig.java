@@ -0,0 +1,122 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.stat.HibernateMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Hibernate二级缓存
+ * 在Redis缓存之后、数据库之前，缓存ProductPo、GoodsPo和GoodsPoMapper.findByProductId的结果。
+ * 二级缓存只在本节点内，其他节点修改数据后，本节点最多在ttl秒内读到旧值，而Redis缓存是所有节点共享的，
+ * 因此回源读到的数据要写入Redis时不读二级缓存，只把读到的新值放入二级缓存（见ProductPoMapper.findFreshById）；
+ * Redis熔断、不写缓存时，回源的查询才先查本节点内存，减轻数据库的压力。
+ * OnSalePo不放在二级缓存中，见OnSalePo。
+ * 缓存由Ehcache通过JCache提供，每个区域的条目数和过期时间可以配置：
+ * javaee.productdemoredis.second-level-cache.regions.{区域}.max-entries和ttl（秒）覆盖REGIONS中的默认值。
+ * 各区域的命中、未命中和写入次数见/actuator/metrics/hibernate.second.level.cache.requests等指标（按region标签区分）
+ */
+@Configuration
+@Slf4j
+public class HibernateCacheConfig {
+
+    private static final String PREFIX = "javaee.productdemoredis.second-level-cache.";
+
+    /**
+     * 区域的默认大小和过期时间
+     * @param maxEntries 堆中最多的条目数
+     * @param ttl 写入后过期的秒数，0为不过期
+     */
+    record Region(long maxEntries, long ttl) {
+    }
+
+    /**
+     * 所有区域，名称与实体上@Cache的region和查询的cacheRegion一致，
+     * 最后两个是Hibernate的查询缓存和表修改时间戳，时间戳不能先于查询结果过期
+     */
+    private static final Map<String, Region> REGIONS = new LinkedHashMap<>();
+
+    static {
+        REGIONS.put("goods_product", new Region(10000, 60));
+        REGIONS.put("goods_goods", new Region(20000, 300));
+        REGIONS.put("goods_goods.byProduct", new Region(10000, 300));
+        REGIONS.put("default-query-results-region", new Region(1000, 60));
+        REGIONS.put("default-update-timestamps-region", new Region(1000, 0));
+    }
+
+    /**
+     * 二级缓存的JCache CacheManager，javaee.productdemoredis.second-level-cache.enabled=false时不创建
+     * 每个应用上下文用自己的URI，同一JVM中的多个上下文（如测试）互不影响
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = PREFIX + "enabled", havingValue = "true", matchIfMissing = true)
+    public CacheManager hibernateCacheManager(Environment environment) {
+        ConfigurationBuilder builder = ConfigurationBuilder.newConfigurationBuilder();
+        for (Map.Entry<String, Region> region : REGIONS.entrySet()) {
+            String name = region.getKey();
+            long maxEntries = environment.getProperty(PREFIX + "regions." + name + ".max-entries", Long.class, region.getValue().maxEntries());
+            long ttl = environment.getProperty(PREFIX + "regions." + name + ".ttl", Long.class, region.getValue().ttl());
+            // ConfigurationBuilder是不可变的，withCache返回新的builder
+            builder = builder.withCache(name, CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                            ResourcePoolsBuilder.heap(maxEntries))
+                    .withExpiry(ttl > 0 ? ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ttl)) : ExpiryPolicyBuilder.noExpiration())
+                    .build());
+            log.info("hibernateCacheManager: region = {}, maxEntries = {}, ttl = {}", name, maxEntries, ttl);
+        }
+        EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        return provider.getCacheManager(URI.create("urn:X-ehcache:hibernate:" + UUID.randomUUID()), builder.build());
+    }
+
+    /**
+     * 有hibernateCacheManager时打开二级缓存和查询缓存，区域必须是REGIONS中的；否则关闭二级缓存，
+     * 避免classpath上的hibernate-jcache用默认的、不限大小的缓存
+     */
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer(ObjectProvider<CacheManager> hibernateCacheManager) {
+        return properties -> {
+            CacheManager cacheManager = hibernateCacheManager.getIfAvailable();
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, cacheManager != null);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, cacheManager != null);
+            if (cacheManager == null) {
+                log.info("secondLevelCacheCustomizer: second level cache is disabled");
+                return;
+            }
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            properties.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+            properties.put(AvailableSettings.GENERATE_STATISTICS, true);
+        };
+    }
+
+    /**
+     * 把Hibernate的统计（含各二级缓存区域的命中率）注册为指标
+     */
+    @Bean
+    @ConditionalOnProperty(name = PREFIX + "enabled", havingValue = "true", matchIfMissing = true)
+    public HibernateMetrics hibernateMetrics(EntityManagerFactory entityManagerFactory) {
+        return new HibernateMetrics(entityManagerFactory.unwrap(SessionFactory.class), "entityManagerFactory", List.of());
+    }
+}
@@ -0,0 +1,102 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离的数据源
+ * 只读事务（@Transactional(readOnly = true)）的连接轮流取自各读副本，其他连接（读写事务和事务之外）取自主库。
+ * 一个请求中开始过读写事务之后，该请求余下的只读事务也用主库，读到自己刚写入的数据。
+ * 连接在getConnection时确定去向，而事务的只读标志在开始事务之后才设置，
+ * 因此要包在LazyConnectionDataSourceProxy中，到执行第一条语句时才取连接。
+ * 读副本可能落后于主库，事务读了副本时isReplicaRead返回true，读到的数据不应写入所有节点共享的Redis缓存
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica-";
+    /**
+     * 请求属性，请求中开始过读写事务
+     */
+    private static final String STICKY = ReadWriteRoutingDataSource.class.getName() + ".sticky";
+    /**
+     * 事务资源的键，当前事务的连接取自读副本
+     */
+    private static final String REPLICA_READ = ReadWriteRoutingDataSource.class.getName() + ".replica";
+
+    private final int replicas;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter primaryCounter;
+    private final Counter replicaCounter;
+    private final Counter stickyCounter;
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<? extends DataSource> replicas, MeterRegistry meterRegistry) {
+        assert !replicas.isEmpty();
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(REPLICA + i, replicas.get(i));
+        }
+        this.setTargetDataSources(targets);
+        this.setDefaultTargetDataSource(primary);
+        this.replicas = replicas.size();
+        this.primaryCounter = Counter.builder("datasource.routing").tag("target", "primary").tag("reason", "default").register(meterRegistry);
+        this.replicaCounter = Counter.builder("datasource.routing").tag("target", "replica").tag("reason", "read").register(meterRegistry);
+        this.stickyCounter = Counter.builder("datasource.routing").tag("target", "primary").tag("reason", "sticky").register(meterRegistry);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (request != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+                request.setAttribute(STICKY, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+            }
+            this.primaryCounter.increment();
+            return PRIMARY;
+        }
+        if (request != null && request.getAttribute(STICKY, RequestAttributes.SCOPE_REQUEST) != null) {
+            this.stickyCounter.increment();
+            return PRIMARY;
+        }
+        this.replicaCounter.increment();
+        markReplicaRead();
+        return REPLICA + Math.floorMod(this.next.getAndIncrement(), this.replicas);
+    }
+
+    /**
+     * 当前事务是否读了副本。副本上可能还没有其他请求刚提交的修改，读到的旧值写入Redis后，
+     * 所有节点在缓存过期之前都会读到旧值
+     */
+    public static boolean isReplicaRead() {
+        return TransactionSynchronizationManager.hasResource(REPLICA_READ);
+    }
+
+    /**
+     * 在事务中记下读了副本，事务结束时清除
+     */
+    private static void markReplicaRead() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || TransactionSynchronizationManager.hasResource(REPLICA_READ)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(REPLICA_READ, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+            }
+        });
+    }
+}
@@ -0,0 +1,110 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 启动时在主库上建立查询依赖、表上还没有的索引
+ * 实体上的@Index只在Hibernate建表（ddl-auto: create）时生效，已有的库需要在这里补建。
+ * 按索引名判断是否已经存在，已有同名索引的不再建立；几个实例同时启动时可能重复建立，失败的只记录日志。
+ * MySQL（InnoDB）建索引时不阻塞读写，但大表上耗时较长，可以先手工建好，或者关闭javaee.productdemoredis.datasource.create-indexes
+ */
+@Component
+@Slf4j
+public class SchemaIndexInitializer implements ApplicationRunner {
+
+    /**
+     * 索引：表名、索引名和列
+     */
+    record IndexDefinition(String table, String name, String columns) {
+        String ddl() {
+            return String.format("CREATE INDEX %s ON %s (%s)", this.name, this.table, this.columns);
+        }
+    }
+
+    static final List<IndexDefinition> INDEXES = List.of(
+            // 按名称的游标分页，见ProductPoMapper.findByNameAndIdGreaterThanOrderByIdAsc
+            new IndexDefinition("goods_product", "idx_product_name_id", "name, id"),
+            new IndexDefinition("goods_product", "idx_product_shop_name_id", "shop_id, name, id"),
+            // 导出商铺的商品目录，按id顺序读出商铺的商品，见ProductPoExportMapper
+            new IndexDefinition("goods_product", "idx_product_shop_id", "shop_id, id"),
+            // 读出商品当前有效的OnSale
+            new IndexDefinition("goods_onsale", "idx_onsale_product_end", "product_id, end_time"));
+
+    private final DataSource dataSource;
+
+    private final boolean enabled;
+
+    public SchemaIndexInitializer(DataSource dataSource, @Value("${javaee.productdemoredis.datasource.create-indexes:true}") boolean enabled) {
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!this.enabled) {
+            return;
+        }
+        this.createMissingIndexes();
+    }
+
+    /**
+     * 建立表上还没有的索引
+     * @return 建立了的索引个数
+     */
+    int createMissingIndexes() {
+        int created = 0;
+        try (Connection connection = this.dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (IndexDefinition index : INDEXES) {
+                if (exists(connection, metaData, index)) {
+                    continue;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    log.info("createMissingIndexes: {}", index.ddl());
+                    statement.execute(index.ddl());
+                    created++;
+                } catch (SQLException e) {
+                    log.error("createMissingIndexes: failed to create {} on {}, {}", index.name(), index.table(), e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            log.error("createMissingIndexes: {}", e.getMessage());
+        }
+        return created;
+    }
+
+    /**
+     * 表上是否已有同名索引，表不存在时也返回true，不建立
+     */
+    private static boolean exists(Connection connection, DatabaseMetaData metaData, IndexDefinition index) throws SQLException {
+        String table = metaData.storesUpperCaseIdentifiers() ? index.table().toUpperCase(Locale.ROOT) : index.table();
+        try (ResultSet tables = metaData.getTables(connection.getCatalog(), connection.getSchema(), table, null)) {
+            if (!tables.next()) {
+                log.warn("exists: table {} not found, index {} not created", index.table(), index.name());
+                return true;
+            }
+        }
+        try (ResultSet indexes = metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(), table, false, false)) {
+            while (indexes.next()) {
+                if (index.name().equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
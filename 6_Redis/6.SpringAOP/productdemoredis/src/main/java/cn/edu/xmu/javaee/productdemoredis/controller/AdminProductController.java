@@ -1,24 +1,41 @@
 package cn.edu.xmu.javaee.productdemoredis.controller;
 
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.limiter.RateLimit;
+import cn.edu.xmu.javaee.core.model.CursorPage;
 import cn.edu.xmu.javaee.core.model.ReturnNo;
 import cn.edu.xmu.javaee.core.model.ReturnObject;
 import cn.edu.xmu.javaee.core.util.CloneFactory;
+import cn.edu.xmu.javaee.core.util.Common;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
 import cn.edu.xmu.javaee.core.validation.NewGroup;
 import cn.edu.xmu.javaee.core.validation.UpdateGroup;
 import cn.edu.xmu.javaee.productdemoredis.controller.dto.ProductDto;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductDao;
 import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import cn.edu.xmu.javaee.productdemoredis.service.CatalogExportService;
+import cn.edu.xmu.javaee.productdemoredis.service.ProductExportWriter;
 import cn.edu.xmu.javaee.productdemoredis.service.ProductService;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.CatalogExportVo;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.ProductImportVo;
 import cn.edu.xmu.javaee.productdemoredis.service.vo.ProductVo;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.stream.Collectors;
 
 
 /**
@@ -31,9 +48,25 @@ import java.util.Locale;
 @RequiredArgsConstructor
 public class AdminProductController {
 
+    /**
+     * 批量导入时最多列出的出错行数
+     */
+    private static final int MAX_IMPORT_ERRORS = 1000;
+    /**
+     * 批量修改和删除一次最多的商品数
+     */
+    private static final int MAX_BULK_IDS = 1000;
+
+    @Value("${javaee.productdemoredis.import.batch-size:500}")
+    private int importBatchSize;
+
     private final ProductService productService;
+    private final CatalogExportService catalogExportService;
     private final MessageSource messageSource;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
 
+    @RateLimit(name = "shop.product.write", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 20, burst = 40, quota = 600)
     @PostMapping("/products")
     public ReturnObject createDraft(@PathVariable Long shopId,
                                     @RequestBody @Validated(value = NewGroup.class) ProductDto dto, HttpServletRequest request) {
@@ -45,8 +78,77 @@ public class AdminProductController {
         return  retObj;
     }
 
+    /**
+     * 批量导入商品
+     * 请求体是CSV（第一行为列名，列名同ProductDto的属性）或NDJSON（每行一个ProductDto），边读边导入，
+     * 每行按新建商品的规则校验，通过的商品每importBatchSize个用一个JDBC批次插入，
+     * 一批中有违反数据库约束的行时整批回滚，再逐行插入找出出错的行，见ProductDao.insertAll
+     */
+    @RateLimit(name = "shop.product.import", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 1, burst = 2, quota = 30)
+    @PostMapping(value = "/products/import", consumes = {ProductImportReader.CSV, ProductImportReader.NDJSON})
+    public ReturnObject importProducts(@PathVariable Long shopId, HttpServletRequest request) throws IOException {
+        ProductImportVo result = new ProductImportVo();
+        List<ProductImportReader.Row> batch = new ArrayList<>(this.importBatchSize);
+        try (ProductImportReader reader = ProductImportReader.of(request, this.objectMapper)) {
+            ProductImportReader.Row row;
+            while ((row = reader.next()) != null) {
+                result.setTotal(result.getTotal() + 1);
+                String error = row.error() != null ? row.error() : this.validator.validate(row.dto(), NewGroup.class).stream()
+                        .map(violation -> String.format("%s:%s", violation.getPropertyPath(), violation.getMessage()))
+                        .sorted().findFirst().orElse(null);
+                if (error != null) {
+                    addImportError(result, row.line(), ReturnNo.FIELD_NOTVALID, error);
+                    continue;
+                }
+                batch.add(row);
+                if (batch.size() == this.importBatchSize) {
+                    this.importBatch(shopId, batch, result);
+                    batch.clear();
+                }
+            }
+        }
+        this.importBatch(shopId, batch, result);
+        log.debug("importProducts: shopId = {}, total = {}, created = {}, failed = {}", shopId, result.getTotal(), result.getCreated(), result.getFailed());
+        return new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), result);
+    }
+
+    /**
+     * 导出商铺的全部商品及其当前有效的OnSale到文件
+     * 从数据库游标逐个读出、逐个写出，内存占用与商品数无关
+     * @param format ndjson或csv
+     */
+    @RateLimit(name = "shop.product.export", keys = RateLimit.KeyType.SHOP, rate = 1, burst = 2, quota = 10)
+    @PostMapping("/products/export")
+    public ReturnObject exportProducts(@PathVariable Long shopId, @RequestParam(defaultValue = ProductExportWriter.NDJSON) String format,
+                                       HttpServletRequest request) throws IOException {
+        CatalogExportVo vo = this.catalogExportService.exportCatalog(shopId, format);
+        return new ReturnObject(ReturnNo.CREATED, this.messageSource.getMessage(ReturnNo.CREATED.getMessage(), null, LocaleContextHolder.getLocale()), vo);
+    }
+
+    private void importBatch(Long shopId, List<ProductImportReader.Row> batch, ProductImportVo result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Product> products = batch.stream().map(row -> CloneFactory.copy(new Product(), row.dto())).collect(Collectors.toList());
+        ProductDao.InsertResult inserted = this.productService.importProducts(shopId, products);
+        result.setCreated(result.getCreated() + inserted.created().size());
+        inserted.rejected().forEach((index, message) -> addImportError(result, batch.get(index).line(), ReturnNo.FIELD_NOTVALID, message));
+    }
+
+    private static void addImportError(ProductImportVo result, int line, ReturnNo errno, String message) {
+        result.setFailed(result.getFailed() + 1);
+        if (result.getErrors().size() < MAX_IMPORT_ERRORS) {
+            result.getErrors().add(new ProductImportVo.RowError(line, errno.getErrNo(), message));
+        }
+    }
+
+    @RateLimit(name = "shop.product.read", keys = RateLimit.KeyType.SHOP, rate = 100, burst = 200)
     @GetMapping("/products/{id}")
-    public ReturnObject getProductById(@PathVariable Long shopId, @PathVariable("id") Long id,HttpServletRequest request) {
+    public ReturnObject getProductById(@PathVariable Long shopId, @PathVariable("id") Long id, HttpServletRequest request, HttpServletResponse response) {
+        String version = this.productService.retrieveProductVersion(shopId, id, false);
+        if (Common.checkNotModified(request, response, version)) {
+            return new ReturnObject(ReturnNo.NOT_MODIFIED, this.messageSource.getMessage(ReturnNo.NOT_MODIFIED.getMessage(), null, LocaleContextHolder.getLocale()));
+        }
         ProductVo productVo = this.productService.retrieveSimpleProductByID(shopId, id);
         ReturnObject retObj  = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), productVo);
         return  retObj;
@@ -54,13 +156,27 @@ public class AdminProductController {
 
 
 
+    @RateLimit(name = "shop.product.search", keys = RateLimit.KeyType.SHOP, rate = 20, burst = 40, quota = 1200)
     @GetMapping("/products")
-    public ReturnObject searchProductByName(@PathVariable Long shopId, @RequestParam String name, HttpServletRequest request) {
-        List<ProductVo> data = this.productService.retrieveProductByName(shopId, name);
+    public ReturnObject searchProductByName(@PathVariable Long shopId, @RequestParam String name, @RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer pageSize,
+                                            HttpServletRequest request, HttpServletResponse response) {
+        CursorPage<ProductVo> page = this.productService.retrieveProductByName(shopId, name, cursor, pageSize);
+        Common.setNextPageLink(request, response, page.next());
+        ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), page.items());
+        return  retObj;
+    }
+
+    @RateLimit(name = "shop.product.search", keys = RateLimit.KeyType.SHOP, rate = 20, burst = 40, quota = 1200)
+    @GetMapping("/products/search")
+    public ReturnObject searchProductByKeyword(@PathVariable Long shopId, @RequestParam String keyword,
+                                               @RequestParam(required = false) Integer pageSize, HttpServletRequest request) {
+        List<ProductVo> data = this.productService.retrieveProductByKeyword(shopId, keyword, pageSize);
         ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), data);
         return  retObj;
     }
 
+    @RateLimit(name = "shop.product.write", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 20, burst = 40, quota = 600)
     @PutMapping("/products/{id}")
     public ReturnObject modiProduct(@PathVariable Long id, @RequestBody @Validated(UpdateGroup.class) ProductDto productDto, HttpServletRequest request){
         Product product = CloneFactory.copy(new Product(), productDto);;
@@ -71,10 +187,43 @@ public class AdminProductController {
 
     }
 
+    @RateLimit(name = "shop.product.write", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 20, burst = 40, quota = 600)
     @DeleteMapping("/products/{id}")
     public ReturnObject delProduct(@PathVariable("id") Long id, HttpServletRequest request) {
         this.productService.deleteProduct(id);
         ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()));
         return  retObj;
     }
+
+    /**
+     * 批量修改商品，请求体中不为null的属性修改到ids中属于商铺的每个商品上
+     * @return 修改了的商品id，不存在或不属于商铺的id不在其中
+     */
+    @RateLimit(name = "shop.product.bulk", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 2, burst = 5, quota = 60)
+    @PutMapping("/products")
+    public ReturnObject modiProducts(@PathVariable Long shopId, @RequestParam List<Long> ids,
+                                     @RequestBody @Validated(UpdateGroup.class) ProductDto productDto, HttpServletRequest request) {
+        checkBulkIds(ids);
+        Product product = CloneFactory.copy(new Product(), productDto);
+        List<Long> data = this.productService.modifyProducts(shopId, ids, product);
+        return new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), data);
+    }
+
+    /**
+     * 批量删除商品，删除ids中属于商铺的商品
+     * @return 删除了的商品id，不存在或不属于商铺的id不在其中
+     */
+    @RateLimit(name = "shop.product.bulk", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 2, burst = 5, quota = 60)
+    @DeleteMapping("/products")
+    public ReturnObject delProducts(@PathVariable Long shopId, @RequestParam List<Long> ids, HttpServletRequest request) {
+        checkBulkIds(ids);
+        List<Long> data = this.productService.deleteProducts(shopId, ids);
+        return new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), data);
+    }
+
+    private static void checkBulkIds(List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > MAX_BULK_IDS || ids.contains(null)) {
+            throw new BusinessException(ReturnNo.FIELD_NOTVALID, JacksonUtil.toJson(new String[]{"ids"}));
+        }
+    }
 }
@@ -0,0 +1,37 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.controller;
+
+import cn.edu.xmu.javaee.core.limiter.RateLimit;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.model.ReturnObject;
+import cn.edu.xmu.javaee.productdemoredis.controller.dto.ReservationDto;
+import cn.edu.xmu.javaee.productdemoredis.service.OnSaleService;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.ReservationVo;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 秒杀控制器
+ */
+@RestController /*Restful的Controller对象*/
+@RequestMapping(value = "/onsales", produces = "application/json;charset=UTF-8")
+@Slf4j
+@RequiredArgsConstructor
+public class OnSaleController {
+
+    private final OnSaleService onSaleService;
+    private final MessageSource messageSource;
+
+    @RateLimit(name = "onsale.reserve", keys = RateLimit.KeyType.USER, rate = 2, burst = 5, quota = 30)
+    @PostMapping("{id}/reservations")
+    public ReturnObject createReservation(@PathVariable("id") Long id, @RequestBody @Validated ReservationDto dto, HttpServletRequest request) {
+        log.debug("createReservation: id = {}, dto = {}", id, dto);
+        ReservationVo vo = this.onSaleService.reserve(id, dto.getQuantity());
+        return new ReturnObject(ReturnNo.CREATED, this.messageSource.getMessage(ReturnNo.CREATED.getMessage(), null, LocaleContextHolder.getLocale()), vo);
+    }
+}
@@ -1,7 +1,10 @@
 package cn.edu.xmu.javaee.productdemoredis.controller;
 
+import cn.edu.xmu.javaee.core.limiter.RateLimit;
+import cn.edu.xmu.javaee.core.model.CursorPage;
 import cn.edu.xmu.javaee.core.model.ReturnNo;
 import cn.edu.xmu.javaee.core.model.ReturnObject;
+import cn.edu.xmu.javaee.core.util.Common;
 import cn.edu.xmu.javaee.productdemoredis.service.ProductService;
 import cn.edu.xmu.javaee.productdemoredis.service.vo.CustomerProductVo;
 import jakarta.servlet.http.HttpServletRequest;
@@ -14,6 +17,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.stream.Stream;
 
 import static cn.edu.xmu.javaee.core.model.Constants.PLATFORM;
 
@@ -31,17 +35,61 @@ public class ProductController {
     private final  ProductService productService;
     private final MessageSource messageSource;
 
+    @RateLimit(name = "product.read", keys = RateLimit.KeyType.CLIENT, rate = 200, burst = 400)
     @GetMapping("{id}")
     public ReturnObject getProductById(@PathVariable("id") Long id, HttpServletRequest request, HttpServletResponse response) {
         log.debug("getProductById: id = {} " ,id);
+        // 版本在组装商品之前读取，期间商品被修改时ETag只会比响应旧，下次请求不会误判为没有变化
+        String version = this.productService.retrieveProductVersion(PLATFORM, id, true);
+        if (Common.checkNotModified(request, response, version)) {
+            return new ReturnObject(ReturnNo.NOT_MODIFIED, this.messageSource.getMessage(ReturnNo.NOT_MODIFIED.getMessage(), null, LocaleContextHolder.getLocale()));
+        }
         CustomerProductVo product = this.productService.retrieveProductByID(PLATFORM, id);
         ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), product);
         return  retObj;
     }
 
+    @RateLimit(name = "product.search", keys = RateLimit.KeyType.CLIENT, rate = 50, burst = 100, quota = 6000)
     @GetMapping("")
-    public ReturnObject searchProductByName(@RequestParam String name, HttpServletRequest request, HttpServletResponse response) {
-        List<CustomerProductVo> data = this.productService.retrieveCustomerProductByName(PLATFORM, name);
+    public ReturnObject searchProductByName(@RequestParam String name, @RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer pageSize,
+                                            HttpServletRequest request, HttpServletResponse response) {
+        // 商品在序列化时逐个组装并写出，不在内存中构造整页的商品
+        CursorPage<CustomerProductVo> page = this.productService.streamCustomerProductByName(PLATFORM, name, cursor, pageSize);
+        Common.setNextPageLink(request, response, page.next());
+        ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), page.items());
+        return  retObj;
+    }
+
+    @RateLimit(name = "product.search", keys = RateLimit.KeyType.CLIENT, rate = 50, burst = 100, quota = 6000)
+    @GetMapping("search")
+    public ReturnObject searchProductByKeyword(@RequestParam String keyword, @RequestParam(required = false) Integer pageSize,
+                                               HttpServletRequest request, HttpServletResponse response) {
+        // 名称包含keyword的商品，按相关度排序，只返回第一页
+        Stream<CustomerProductVo> data = this.productService.streamCustomerProductByKeyword(PLATFORM, keyword, pageSize);
+        ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), data);
+        return  retObj;
+    }
+
+    /**
+     * 关联商品的关联商品（两跳），按经过的关联商品个数从多到少排列，只返回第一页
+     */
+    @RateLimit(name = "product.read", keys = RateLimit.KeyType.CLIENT, rate = 200, burst = 400)
+    @GetMapping("{id}/related")
+    public ReturnObject getAlsoRelatedProduct(@PathVariable("id") Long id, @RequestParam(required = false) Integer pageSize) {
+        List<CustomerProductVo> data = this.productService.retrieveAlsoRelatedProduct(PLATFORM, id, pageSize);
+        ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), data);
+        return  retObj;
+    }
+
+    /**
+     * 搜索框的联想词，每次按键都会请求，只按客户端在本节点限流，不访问Redis
+     */
+    @RateLimit(name = "product.suggest", keys = RateLimit.KeyType.CLIENT, rate = 100, burst = 200)
+    @GetMapping("suggest")
+    public ReturnObject suggestProductName(@RequestParam String prefix, @RequestParam(required = false) Integer pageSize,
+                                           HttpServletRequest request) {
+        List<String> data = this.productService.suggestProductName(prefix, pageSize);
         ReturnObject retObj = new ReturnObject(ReturnNo.OK, this.messageSource.getMessage(ReturnNo.OK.getMessage(), null, LocaleContextHolder.getLocale()), data);
         return  retObj;
     }
@@ -0,0 +1,177 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.controller;
+
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import cn.edu.xmu.javaee.productdemoredis.controller.dto.ProductDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 逐行读出批量导入的商品，不把整个请求体读进内存
+ * CSV的第一行是列名，列名同ProductDto的属性，值为空的列不设置；NDJSON每行一个ProductDto。空行跳过
+ */
+class ProductImportReader implements Closeable {
+
+    static final String CSV = "text/csv";
+    static final String NDJSON = "application/x-ndjson";
+
+    private static final Map<String, BiConsumer<ProductDto, String>> COLUMNS = Map.of(
+            "name", ProductDto::setName,
+            "originalPrice", (dto, value) -> dto.setOriginalPrice(Long.valueOf(value)),
+            "weight", (dto, value) -> dto.setWeight(Long.valueOf(value)),
+            "barcode", ProductDto::setBarcode,
+            "unit", ProductDto::setUnit,
+            "originPlace", ProductDto::setOriginPlace);
+
+    /**
+     * 读出的一行，dto和error恰有一个不为null
+     * @param line 行号，从1开始
+     * @param error 格式错误
+     */
+    record Row(int line, ProductDto dto, String error) {
+    }
+
+    private final BufferedReader reader;
+    /**
+     * NDJSON时不为null
+     */
+    private final ObjectMapper objectMapper;
+    /**
+     * CSV的列名
+     */
+    private List<String> columns;
+    private int line;
+
+    private ProductImportReader(BufferedReader reader, ObjectMapper objectMapper) {
+        this.reader = reader;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 按请求的Content-Type读CSV或NDJSON，未指定字符集时按UTF-8读
+     */
+    static ProductImportReader of(HttpServletRequest request, ObjectMapper objectMapper) throws IOException {
+        Charset charset = request.getCharacterEncoding() == null ? StandardCharsets.UTF_8 : Charset.forName(request.getCharacterEncoding());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), charset));
+        boolean ndjson = request.getContentType() != null && request.getContentType().startsWith(NDJSON);
+        return new ProductImportReader(reader, ndjson ? objectMapper : null);
+    }
+
+    /**
+     * 读下一行
+     * @return 读完时返回null
+     * @throws BusinessException CSV的表头中有ProductDto没有的列时抛出FIELD_NOTVALID
+     */
+    Row next() throws IOException {
+        String text;
+        do {
+            text = this.reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            this.line++;
+            if (this.line == 1 && text.startsWith("\uFEFF")) {
+                text = text.substring(1);
+            }
+        } while (text.isBlank());
+        if (this.objectMapper != null) {
+            try {
+                return new Row(this.line, this.objectMapper.readValue(text, ProductDto.class), null);
+            } catch (JsonProcessingException e) {
+                return new Row(this.line, null, e.getOriginalMessage());
+            }
+        }
+        if (this.columns == null) {
+            try {
+                this.columns = split(text).stream().map(String::strip).toList();
+            } catch (IllegalArgumentException e) {
+                throw new BusinessException(ReturnNo.FIELD_NOTVALID, JacksonUtil.toJson(new String[]{text}));
+            }
+            for (String column : this.columns) {
+                if (!COLUMNS.containsKey(column)) {
+                    throw new BusinessException(ReturnNo.FIELD_NOTVALID, JacksonUtil.toJson(new String[]{column}));
+                }
+            }
+            return this.next();
+        }
+        return this.parseCsv(text);
+    }
+
+    private Row parseCsv(String text) {
+        List<String> values;
+        try {
+            values = split(text);
+        } catch (IllegalArgumentException e) {
+            return new Row(this.line, null, e.getMessage());
+        }
+        if (values.size() != this.columns.size()) {
+            return new Row(this.line, null, String.format("有%d列，表头有%d列", values.size(), this.columns.size()));
+        }
+        ProductDto dto = new ProductDto();
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i).strip();
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                COLUMNS.get(this.columns.get(i)).accept(dto, value);
+            } catch (NumberFormatException e) {
+                return new Row(this.line, null, String.format("%s:不是整数", this.columns.get(i)));
+            }
+        }
+        return new Row(this.line, dto, null);
+    }
+
+    /**
+     * 按逗号分列，带引号的列中可以有逗号，两个引号表示一个引号。不支持跨行的列
+     */
+    static List<String> split(String text) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("引号不成对");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+}
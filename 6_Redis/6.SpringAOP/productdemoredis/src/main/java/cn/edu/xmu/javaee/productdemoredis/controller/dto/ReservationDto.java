@@ -0,0 +1,19 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.controller.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 库存预留请求
+ */
+@Data
+@NoArgsConstructor
+public class ReservationDto {
+
+    @NotNull(message = "购买数量不能为空")
+    @Min(value = 1, message = "购买数量不能小于1")
+    private Integer quantity;
+}
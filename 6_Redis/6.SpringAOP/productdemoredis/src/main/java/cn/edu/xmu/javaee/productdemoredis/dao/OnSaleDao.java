@@ -2,10 +2,16 @@
 package cn.edu.xmu.javaee.productdemoredis.dao;
 
 // 引入 RedisUtil 是为了在 DAO 层操作 Redis 缓存工具类，如存储和获取商品上下架（OnSale）相关缓存信息
+import cn.edu.xmu.javaee.core.exception.BusinessException;
 import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
 import cn.edu.xmu.javaee.core.util.CloneFactory;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import cn.edu.xmu.javaee.productdemoredis.config.ReadWriteRoutingDataSource;
 import cn.edu.xmu.javaee.productdemoredis.dao.bo.OnSale;
+import cn.edu.xmu.javaee.productdemoredis.mapper.OnSaleBatchPoMapper;
 import cn.edu.xmu.javaee.productdemoredis.mapper.OnSalePoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.OnSaleBatchPo;
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.OnSalePo;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -13,14 +19,18 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Repository;
 
-import java.io.Serializable;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Repository
@@ -29,33 +39,93 @@ import java.util.stream.Collectors;
 public class OnSaleDao {
 
     private final OnSalePoMapper onSalePoMapper;
+    private final OnSaleBatchPoMapper onSaleBatchPoMapper;
     private final RedisUtil redisUtil;
+    /**
+     * 已经创建过消费组的分区
+     */
+    private final Set<Integer> streamGroups = ConcurrentHashMap.newKeySet();
 
     /**
      * Redis 缓存键模板：
-     *  - product:onsale:<onSaleId>        单个 OnSale 详情缓存
-     *  - product:onsale:list:<productId>  记录某商品“有效上架活动”的 OnSale ID 列表
+     *  - product:onsale:{<productId>}:<onSaleId>  单个 OnSale 详情缓存
+     *  - product:onsale:list:{<productId>}        记录某商品“有效上架活动”的 OnSale ID 列表
      * 这样一来，就能做到“列表命中 + 每条命中”后完全跳过数据库读取。
+     * {productId}是分片用的hash tag，与ProductDao中该商品的缓存在同一个Redis分片上，
+     * 列表和全部详情可以用一个脚本一次读出
+     *  - product:version:onsale:{<productId>}     列表及其详情的版本（内容的散列值），用于商品的ETag，
+     *    与列表和详情一起写入，它们被修改时删除，并且不晚于它们过期
      */
-    private static final String ONSALE_KEY_TEMPLATE = "product:onsale:%d";
-    private static final String PRODUCT_ONSALE_REL_KEY_TEMPLATE = "product:onsale:list:%d";
+    private static final String ONSALE_KEY_PREFIX_TEMPLATE = "product:onsale:{%d}:";
+    private static final String PRODUCT_ONSALE_REL_KEY_TEMPLATE = "product:onsale:list:{%d}";
+    private static final String ONSALE_VERSION_KEY_TEMPLATE = "product:version:onsale:{%d}";
     private static final long ONSALE_CACHE_TIMEOUT = 300;
     private static final long PRODUCT_ONSALE_REL_TIMEOUT = 300;
 
+    /**
+     * 秒杀库存的键模板：
+     *  - onsale:stock:{p<partition>}:<onSaleId>   库存hash，stock为剩余库存，max为每人限购数量
+     *  - onsale:bought:{p<partition>}:<onSaleId>  每个用户已购数量的hash
+     *  - onsale:reservations:{p<partition>}       预留流水，由消费组异步写回goods_onsale.quantity
+     *  - onsale:pending:{p<partition>}            每个OnSale还没有写回数据库的预留数量的hash，不过期，
+     *    与流水一起写入、一起确认，库存键被淘汰或过期后重新加载时从数据库的库存中减去，避免超卖
+     * OnSale按id取模分到STOCK_PARTITIONS个分区，同一分区的键使用相同的hash tag，在同一个分片上，
+     * 一个脚本可以原子地检查、扣减库存并写入流水，见lua/reserve_stock.lua。
+     * 修改分区数之前需要先把流水全部写回数据库
+     */
+    public static final int STOCK_PARTITIONS = 16;
+    private static final String STOCK_KEY_TEMPLATE = "onsale:stock:{p%d}:%d";
+    private static final String BOUGHT_KEY_TEMPLATE = "onsale:bought:{p%d}:%d";
+    private static final String RESERVATION_STREAM_TEMPLATE = "onsale:reservations:{p%d}";
+    private static final String PENDING_KEY_TEMPLATE = "onsale:pending:{p%d}";
+    private static final String RESERVATION_GROUP = "stock-writer";
+    private static final long STOCK_NOT_LOADED = -1;
+    private static final long STOCK_SHORTAGE = -2;
+    private static final long EXCEED_MAXQUANTITY = -3;
+    /**
+     * 一次预加载的OnSale个数上限
+     */
+    private static final int PRELOAD_PAGE_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> RESERVE_STOCK_SCRIPT = new DefaultRedisScript<>();
+    private static final DefaultRedisScript<Long> LOAD_STOCK_SCRIPT = new DefaultRedisScript<>();
+    private static final DefaultRedisScript<Long> PENDING_STOCK_SCRIPT = new DefaultRedisScript<>();
+    private static final DefaultRedisScript<Long> ACK_RESERVATIONS_SCRIPT = new DefaultRedisScript<>();
+
+    static {
+        RESERVE_STOCK_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/reserve_stock.lua")));
+        RESERVE_STOCK_SCRIPT.setResultType(Long.class);
+        LOAD_STOCK_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/load_stock.lua")));
+        LOAD_STOCK_SCRIPT.setResultType(Long.class);
+        PENDING_STOCK_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/pending_stock.lua")));
+        PENDING_STOCK_SCRIPT.setResultType(Long.class);
+        ACK_RESERVATIONS_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/ack_reservations.lua")));
+        ACK_RESERVATIONS_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 一批预留流水
+     * @param partition 分区
+     * @param id 批次id，由流的键和批次中第一条、最后一条流水的id组成，同一批次重复投递时不变
+     * @param recordIds 流水的id
+     * @param quantities 每个 OnSale 合计预留的数量
+     */
+    public record ReservationBatch(int partition, String id, List<String> recordIds, Map<Long, Integer> quantities) {
+    }
+
     /**
      * 获取商品当前有效的上架活动。
      * 查询流程：
-     *  1. 首先从 Redis 读取：每个商品（product）可能对应多个上架活动（OnSale），一个商品可以有多个 OnSale 记录。这里的“OnSale-ID”指的是上架活动（OnSale）的主键ID。如果 Redis 缓存中已经有这个商品对应的所有上架活动ID列表，并且这些 ID 对应的每个上架活动详细数据都在缓存中，就可以直接返回缓存结果，无需查数据库。
+     *  1. 首先从 Redis 一次读出 ID 列表和全部详情：每个商品（product）可能对应多个上架活动（OnSale），一个商品可以有多个 OnSale 记录。这里的“OnSale-ID”指的是上架活动（OnSale）的主键ID。如果 Redis 缓存中已经有这个商品对应的所有上架活动ID列表，并且这些 ID 对应的每个上架活动详细数据都在缓存中，就可以直接返回缓存结果，无需查数据库。
      *  2. 缓存未命中时，落库查询，并把列表及每条 OnSale 缓存下来；
      *  3. 返回数据给调用方。
      */
     public List<OnSale> getLatestOnSale(Long productId) throws DataAccessException {
         // 先尝试命中 Redis：若 ID 列表与对应 OnSale 都在缓存中，可直接返回
-        List<Long> cachedIds = getCachedRelation(productId);
-        List<OnSale> cached = getCachedOnSales(cachedIds);
-        if (cached != null) {
+        RedisUtil.ListMembers cached = redisUtil.getListMembers(buildProductOnSaleKey(productId), buildOnSaleKeyPrefix(productId), "");
+        if (cached != null && cached.isComplete()) {
             log.debug("getLatestOnSale: hit cache for productId = {}", productId);
-            return cached;
+            return cached.members().stream().map(OnSale.class::cast).collect(Collectors.toList());
         }
         // 缓存未命中则回源查询数据库，再写入缓存
         List<OnSale> latest = loadLatestOnSaleFromDb(productId);
@@ -68,7 +138,250 @@ public class OnSaleDao {
      * 以保证后续查询会重新落库、刷新缓存。
      */
     public void evictProductOnSaleCache(Long productId) {
-        redisUtil.del(buildProductOnSaleKey(productId));
+        redisUtil.del(productOnSaleCacheKeys(productId).toArray(new String[0]));
+    }
+
+    /**
+     * “商品 → OnSale 列表”的缓存键，商品更新/删除时要删除，
+     * 批量更新/删除时由 ProductDao 与商品自身的缓存键一起删除
+     */
+    List<String> productOnSaleCacheKeys(Long productId) {
+        return List.of(buildProductOnSaleKey(productId), buildOnSaleVersionKey(productId));
+    }
+
+    /**
+     * OnSale列表的版本，列表或其中任何一个OnSale的内容变化时改变
+     */
+    static String versionOf(List<OnSale> onSales) {
+        return VersionDigest.of(onSales.toString());
+    }
+
+    /**
+     * 预留秒杀库存。
+     * 在 Redis 中用一个脚本原子地检查剩余库存和用户的限购数量、扣减库存并累计用户已购数量，不访问数据库，
+     * 因此不需要数据库行锁，也不会因为并发请求超卖。
+     * 库存未加载时（定时预加载之前的请求，库存键被淘汰，或 OnSale 结束后键已过期），从数据库加载后重试一次。
+     * 预留不能退回数据库，Redis 出错或熔断时直接返回 SERVICE_UNAVAILABLE。
+     *
+     * @param id OnSale id
+     * @param userId 用户id
+     * @param quantity 购买数量
+     * @return 扣减后的剩余库存
+     * @throws BusinessException GOODS_STOCK_SHORTAGE, GOODS_ONSALE_EXCEED_MAXQUANTITY, RESOURCE_ID_NOTEXIST, STATENOTALLOW, SERVICE_UNAVAILABLE
+     */
+    public long reserve(Long id, Long userId, int quantity) throws BusinessException {
+        List<String> keys = List.of(buildStockKey(id), buildBoughtKey(id), buildReservationStreamKey(partitionOf(id)), buildPendingKey(id));
+        long remain = redisUtil.executeScriptOrElse(RESERVE_STOCK_SCRIPT, keys, OnSaleDao::unavailable, userId, quantity, id);
+        if (remain == STOCK_NOT_LOADED) {
+            // 先读未写回的预留数量再读数据库：期间写回的预留最多被重复减去，不会漏减
+            long pending = pendingStock(id);
+            OnSalePo po = onSalePoMapper.findById(id).orElseThrow(() ->
+                    new BusinessException(ReturnNo.RESOURCE_ID_NOTEXIST, JacksonUtil.toJson(new String[] {"${onsale}", id.toString()})));
+            LocalDateTime now = LocalDateTime.now();
+            if (now.isBefore(po.getBeginTime()) || !now.isBefore(po.getEndTime())) {
+                throw new BusinessException(ReturnNo.STATENOTALLOW, JacksonUtil.toJson(new String[] {"${onsale}", id.toString(), "${onsale.inactive}"}));
+            }
+            loadStock(po, pending);
+            remain = redisUtil.executeScriptOrElse(RESERVE_STOCK_SCRIPT, keys, OnSaleDao::unavailable, userId, quantity, id);
+        }
+        log.debug("reserve: id = {}, userId = {}, quantity = {}, remain = {}", id, userId, quantity, remain);
+        if (remain == STOCK_SHORTAGE) {
+            throw new BusinessException(ReturnNo.GOODS_STOCK_SHORTAGE, JacksonUtil.toJson(new String[] {"${onsale}", id.toString()}));
+        }
+        if (remain == EXCEED_MAXQUANTITY) {
+            throw new BusinessException(ReturnNo.GOODS_ONSALE_EXCEED_MAXQUANTITY, JacksonUtil.toJson(new String[] {"${onsale}", id.toString()}));
+        }
+        if (remain < 0) {
+            // 加载后到重试之间库存键恰好过期，即 OnSale 已经结束
+            throw new BusinessException(ReturnNo.STATENOTALLOW, JacksonUtil.toJson(new String[] {"${onsale}", id.toString(), "${onsale.inactive}"}));
+        }
+        return remain;
+    }
+
+    /**
+     * 预加载开始时间在 [from, to] 之间的 OnSale 的库存，已经加载过的不会被覆盖
+     * 库存键不存在时（还没有加载，或已经被淘汰而仍有未写回的预留），与 reserve 一样先读未写回的预留数量，再重新读数据库中的库存
+     *
+     * @return 本次加载的个数
+     */
+    public int preloadStock(LocalDateTime from, LocalDateTime to) {
+        LocalDateTime now = LocalDateTime.now();
+        Pageable pageable = PageRequest.of(0, PRELOAD_PAGE_SIZE, Sort.by(Sort.Direction.ASC, "beginTime"));
+        List<OnSalePo> poList = onSalePoMapper.findByBeginTimeBetween(from, to, pageable);
+        int loaded = 0;
+        for (OnSalePo po : poList) {
+            if (!po.getEndTime().isAfter(now) || redisUtil.hasKey(buildStockKey(po.getId()))) {
+                continue;
+            }
+            long pending = pendingStock(po.getId());
+            Optional<OnSalePo> current = onSalePoMapper.findById(po.getId());
+            if (current.isPresent() && loadStock(current.get(), pending)) {
+                loaded++;
+            }
+        }
+        log.debug("preloadStock: from = {}, to = {}, found = {}, loaded = {}", from, to, poList.size(), loaded);
+        return loaded;
+    }
+
+    /**
+     * 把 OnSale 的库存和限购数量加载到 Redis，到 OnSale 结束时过期，结束后无法再预留
+     *
+     * @param pending 读取 po 之前读到的未写回数据库的预留数量，从库存中减去
+     * @return 是否本次加载（false 表示已经加载过）
+     */
+    private boolean loadStock(OnSalePo po, long pending) {
+        long timeout = Math.max(1, Duration.between(LocalDateTime.now(), po.getEndTime()).toSeconds());
+        long quantity = Math.max(0, Objects.requireNonNullElse(po.getQuantity(), 0) - pending);
+        int maxQuantity = Objects.requireNonNullElse(po.getMaxQuantity(), 0);
+        Long loaded = redisUtil.executeScriptOrElse(LOAD_STOCK_SCRIPT, List.of(buildStockKey(po.getId())), OnSaleDao::unavailable,
+                quantity, maxQuantity, timeout);
+        return Long.valueOf(1).equals(loaded);
+    }
+
+    /**
+     * OnSale 已经预留、还没有写回数据库的数量
+     */
+    private long pendingStock(Long id) {
+        return redisUtil.executeScriptOrElse(PENDING_STOCK_SCRIPT, List.of(buildPendingKey(id)), OnSaleDao::unavailable, id);
+    }
+
+    /**
+     * Redis 出错或熔断时库存无法预留，也不能退回数据库
+     */
+    private static Long unavailable() {
+        throw new BusinessException(ReturnNo.SERVICE_UNAVAILABLE, JacksonUtil.toJson(new String[] {}));
+    }
+
+    /**
+     * 以 consumer 的身份从分区的预留流水中读取一批，按 OnSale 合计预留数量。
+     * 读取顺序：
+     *  1. 本消费者已读取但没有确认的流水（上次写库或确认失败）。每个消费者确认之前不会读新流水，
+     *     未确认的只有一批，重新读出的仍是同一批，批次id不变；
+     *  2. 其他消费者超过 reclaimIdle 未确认的流水（该实例已经宕机），整批转给本消费者；
+     *  3. 新的流水。
+     *
+     * @param count 一批最多读取的流水数，修改后重新读出的未确认批次会与原来不同，应在流水全部写回后修改
+     * @return 没有流水时返回null
+     */
+    public ReservationBatch readReservations(int partition, String consumer, int count, Duration reclaimIdle) {
+        String key = buildReservationStreamKey(partition);
+        List<MapRecord<String, Object, Object>> records;
+        try {
+            if (this.streamGroups.add(partition)) {
+                redisUtil.createStreamGroup(key, RESERVATION_GROUP);
+            }
+            records = redisUtil.readStreamGroup(key, RESERVATION_GROUP, consumer, count, true);
+            if (records.isEmpty()) {
+                records = claimIdleReservations(key, consumer, count, reclaimIdle);
+            }
+            if (records.isEmpty()) {
+                records = redisUtil.readStreamGroup(key, RESERVATION_GROUP, consumer, count, false);
+            }
+        } catch (DataAccessException e) {
+            // 流或消费组可能随 Redis 重启丢失，下次重新创建
+            this.streamGroups.remove(partition);
+            throw e;
+        }
+        if (records.isEmpty()) {
+            return null;
+        }
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        List<String> recordIds = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            quantities.merge(((Number) value.get("onsale")).longValue(), ((Number) value.get("quantity")).intValue(), Integer::sum);
+            recordIds.add(record.getId().getValue());
+        }
+        String batchId = String.format("%s:%s:%s", key, recordIds.get(0), recordIds.get(recordIds.size() - 1));
+        return new ReservationBatch(partition, batchId, recordIds, quantities);
+    }
+
+    /**
+     * 把一批预留写回数据库，每个 OnSale 一次UPDATE。须在事务中调用，批次记录与库存的扣减一起提交
+     *
+     * @return false 表示该批次已经写回过（确认之前宕机后重新投递），本次没有扣减
+     */
+    public boolean applyReservations(ReservationBatch batch) {
+        if (onSaleBatchPoMapper.existsById(batch.id())) {
+            log.info("applyReservations: batch {} has been applied", batch.id());
+            return false;
+        }
+        onSaleBatchPoMapper.save(new OnSaleBatchPo(batch.id(), LocalDateTime.now()));
+        batch.quantities().forEach(onSalePoMapper::decreaseQuantity);
+        log.debug("applyReservations: batch = {}, records = {}, onsales = {}", batch.id(), batch.recordIds().size(), batch.quantities().size());
+        return true;
+    }
+
+    /**
+     * 删除写回时间早于before的批次记录。须在事务中调用
+     * 只要批次中还有流水没有确认，就可能被重新投递，before应早于流中最早一条流水的时间
+     *
+     * @return 删除的批次数
+     */
+    public int purgeAppliedBatches(LocalDateTime before) {
+        return onSaleBatchPoMapper.deleteByGmtCreateBefore(before);
+    }
+
+    /**
+     * 确认并删除已经写回数据库的流水，同时减去其中的OnSale未写回的预留数量，见lua/ack_reservations.lua
+     */
+    public void ackReservations(ReservationBatch batch) {
+        if (batch.recordIds().isEmpty()) {
+            return;
+        }
+        List<Object> values = new ArrayList<>(batch.recordIds().size() + 1);
+        values.add(RESERVATION_GROUP);
+        values.addAll(batch.recordIds());
+        redisUtil.executeScript(ACK_RESERVATIONS_SCRIPT, List.of(buildReservationStreamKey(batch.partition()), buildPendingKey(batch.partition())),
+                values.toArray());
+    }
+
+    /**
+     * 库存写回数据库后，用数据库中的新值刷新 OnSale 详情缓存，
+     * 并删除商品的 OnSale 列表和版本，下次读取时重建列表并写入新的版本
+     */
+    public void refreshOnSaleCache(Collection<Long> ids) {
+        onSalePoMapper.findAllById(ids).forEach(po -> {
+            redisUtil.set(buildOnSaleKeyPrefix(po.getProductId()) + po.getId(),
+                    CloneFactory.copy(new OnSale(), po), getDynamicTimeout(po.getEndTime()));
+            redisUtil.del(buildProductOnSaleKey(po.getProductId()), buildOnSaleVersionKey(po.getProductId()));
+        });
+    }
+
+    /**
+     * 分区中还没有写回数据库的流水数（写回后的流水会被删除）
+     */
+    public long reservationBacklog(int partition) {
+        return redisUtil.sizeStream(buildReservationStreamKey(partition));
+    }
+
+    /**
+     * 分区中最早一条没有写回数据库的流水的时间（毫秒），没有时返回null
+     */
+    public Long oldestReservationTime(int partition) {
+        RecordId id = redisUtil.firstStreamId(buildReservationStreamKey(partition));
+        return id == null ? null : id.getTimestamp();
+    }
+
+    /**
+     * 接管其他消费者超过 reclaimIdle 未确认的流水，一次接管一个消费者的全部未确认流水，
+     * 与它原来读取的是同一批，批次id不变
+     */
+    private List<MapRecord<String, Object, Object>> claimIdleReservations(String key, String consumer, int count, Duration reclaimIdle) {
+        for (PendingMessage message : redisUtil.pendingStream(key, RESERVATION_GROUP, null, count)) {
+            if (!consumer.equals(message.getConsumerName()) && message.getElapsedTimeSinceLastDelivery().compareTo(reclaimIdle) >= 0) {
+                String idle = message.getConsumerName();
+                List<String> ids = redisUtil.pendingStream(key, RESERVATION_GROUP, idle, count).stream()
+                        .map(PendingMessage::getIdAsString).toList();
+                List<MapRecord<String, Object, Object>> claimed = redisUtil.claimStream(key, RESERVATION_GROUP, consumer, reclaimIdle, ids);
+                log.warn("claimIdleReservations: {} records of consumer {} are claimed by {}", claimed.size(), idle, consumer);
+                if (claimed.size() == ids.size()) {
+                    redisUtil.deleteStreamConsumer(key, RESERVATION_GROUP, idle);
+                }
+                return claimed;
+            }
+        }
+        return List.of();
     }
 
     /**
@@ -83,22 +396,43 @@ public class OnSaleDao {
 
     /**
      * 同时缓存：
-     *  1. 该商品对应的 OnSale-ID 列表（product:onsale:list:<productId>）；
+     *  1. 该商品对应的 OnSale-ID 列表（product:onsale:list:<productId>），用紧凑编码（见 IdListCodec）；
      *  2. 每条 OnSale 的详情（product:onsale:<onSaleId>）。
      * 缓存列表时只保留 ID，避免重复写入大量对象；每条数据独立缓存，方便其他地方复用。
      * 
      * 优化：根据 OnSale 的 endTime 动态计算过期时间，确保缓存不会超过 OnSale 的实际有效期。
+     * 在读了副本的事务中不缓存，副本上的可能是旧值
      */
     private void cacheRelation(Long productId, List<OnSale> onSales) {
+        if (ReadWriteRoutingDataSource.isReplicaRead()) {
+            return;
+        }
         // 缓存商品与 OnSale 的关系（ID 列表）
-        List<Long> ids = onSales.stream().map(OnSale::getId).filter(id -> id != null).collect(Collectors.toList());
-        redisUtil.set(buildProductOnSaleKey(productId), (Serializable) new ArrayList<>(ids), PRODUCT_ONSALE_REL_TIMEOUT);
+        long[] ids = onSales.stream().map(OnSale::getId).filter(id -> id != null).mapToLong(Long::longValue).toArray();
+        redisUtil.setIds(buildProductOnSaleKey(productId), ids, PRODUCT_ONSALE_REL_TIMEOUT);
         
         // 缓存每条 OnSale 的详情，使用动态过期时间
-        onSales.forEach(onSale -> {
+        long minTimeout = PRODUCT_ONSALE_REL_TIMEOUT;
+        for (OnSale onSale : onSales) {
             long timeout = getDynamicTimeout(onSale.getEndTime());
-            redisUtil.set(buildOnSaleKey(onSale.getId()), onSale, timeout);
-        });
+            redisUtil.set(buildOnSaleKeyPrefix(productId) + onSale.getId(), onSale, timeout);
+            minTimeout = Math.min(minTimeout, timeout);
+        }
+
+        // 版本的过期时间加上随机化之后也不超过列表和详情中最早的过期时间
+        long versionTimeout = versionTimeoutOf(minTimeout);
+        if (versionTimeout > 0) {
+            redisUtil.set(buildOnSaleVersionKey(productId), versionOf(onSales), versionTimeout);
+        }
+    }
+
+    /**
+     * RedisUtil.set会把过期时间随机延长至多1/5，取5/6后随机延长也不超过原来的过期时间
+     * @param timeout 版本所描述的缓存中最早的过期时间（秒）
+     * @return 版本的过期时间（秒）
+     */
+    static long versionTimeoutOf(long timeout) {
+        return timeout * 5 / 6;
     }
 
     /**
@@ -121,42 +455,36 @@ public class OnSaleDao {
         return Math.min(ONSALE_CACHE_TIMEOUT, diff);
     }
 
-    @SuppressWarnings("unchecked")
-    /**
-     * 获取某商品的 OnSale-ID 列表缓存；若缓存不存在返回 null，以便上层逻辑决定是否回源。
-     */
-    private List<Long> getCachedRelation(Long productId) {
-        Object cache = redisUtil.get(buildProductOnSaleKey(productId));
-        if (cache == null) {
-            return null;
-        }
-        return (List<Long>) cache;
+    private static int partitionOf(Long id) {
+        return (int) Math.floorMod(id, (long) STOCK_PARTITIONS);
     }
 
-    /**
-     * 根据 ID 列表批量读取 OnSale 缓存。
-     * 任何一个 OnSale 未命中即视为整体缓存失效，返回 null 让上层重新落库。
-     */
-    private List<OnSale> getCachedOnSales(List<Long> ids) {
-        if (ids == null) {
-            return null;
-        }
-        if (ids.isEmpty()) {
-            return Collections.emptyList();
-        }
-        List<OnSale> result = new ArrayList<>();
-        for (Long id : ids) {
-            OnSale cached = (OnSale) redisUtil.get(buildOnSaleKey(id));
-            if (cached == null) {
-                return null;
-            }
-            result.add(cached);
-        }
-        return result;
+    private String buildStockKey(Long id) {
+        return String.format(STOCK_KEY_TEMPLATE, partitionOf(id), id);
+    }
+
+    private String buildBoughtKey(Long id) {
+        return String.format(BOUGHT_KEY_TEMPLATE, partitionOf(id), id);
+    }
+
+    private String buildReservationStreamKey(int partition) {
+        return String.format(RESERVATION_STREAM_TEMPLATE, partition);
+    }
+
+    private String buildPendingKey(Long id) {
+        return buildPendingKey(partitionOf(id));
+    }
+
+    private String buildPendingKey(int partition) {
+        return String.format(PENDING_KEY_TEMPLATE, partition);
+    }
+
+    private String buildOnSaleKeyPrefix(Long productId) {
+        return String.format(ONSALE_KEY_PREFIX_TEMPLATE, productId);
     }
 
-    private String buildOnSaleKey(Long onSaleId) {
-        return String.format(ONSALE_KEY_TEMPLATE, onSaleId);
+    String buildOnSaleVersionKey(Long productId) {
+        return String.format(ONSALE_VERSION_KEY_TEMPLATE, productId);
     }
 
     private String buildProductOnSaleKey(Long productId) {
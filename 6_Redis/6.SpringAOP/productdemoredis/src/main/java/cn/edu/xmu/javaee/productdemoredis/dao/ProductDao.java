@@ -5,28 +5,40 @@ package cn.edu.xmu.javaee.productdemoredis.dao;
 import cn.edu.xmu.javaee.core.bean.RequestVariables;
 import cn.edu.xmu.javaee.core.exception.BusinessException;
 import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.model.CursorPage;
 import cn.edu.xmu.javaee.core.model.ReturnNo;
 import cn.edu.xmu.javaee.core.model.UserToken;
 import cn.edu.xmu.javaee.core.util.JacksonUtil;
 import cn.edu.xmu.javaee.core.util.CloneFactory;
+import cn.edu.xmu.javaee.productdemoredis.config.ReadWriteRoutingDataSource;
 import cn.edu.xmu.javaee.productdemoredis.dao.bo.OnSale;
 import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
 import cn.edu.xmu.javaee.productdemoredis.mapper.GoodsPoMapper;
 import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductExportPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductNamePo;
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductSnapshotPo;
 
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataAccessException;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.Serializable;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -45,9 +57,22 @@ public class ProductDao{
     private final GoodsPoMapper goodsPoMapper;
     private final RequestVariables requestVariables;
     private final RedisUtil redisUtil;
+    private final ProductNameIndex productNameIndex;
+    private final ProductRelationGraph productRelationGraph;
+    private final PlatformTransactionManager transactionManager;
 
-    private static final String PRODUCT_KEY_TEMPLATE = "product:obj:%d";
-    private static final String PRODUCT_RELATION_KEY_TEMPLATE = "product:relation:%d";
+    /**
+     * 键中的{productId}是分片用的hash tag，同一商品的product:obj、product:relation和product:onsale:list在同一个Redis分片上
+     */
+    private static final String PRODUCT_KEY_TEMPLATE = "product:obj:{%d}";
+    private static final String PRODUCT_KEY_PREFIX = "product:obj:{";
+    private static final String PRODUCT_KEY_SUFFIX = "}";
+    private static final String PRODUCT_RELATION_KEY_TEMPLATE = "product:relation:{%d}";
+    /**
+     * 关联商品ID列表的版本，与ID列表一起写入、一起删除，不晚于ID列表过期。
+     * 只反映关联了哪些商品，关联商品本身的修改在ID列表过期重建之前不改变版本
+     */
+    private static final String PRODUCT_RELATION_VERSION_KEY_TEMPLATE = "product:version:relation:{%d}";
     private static final long PRODUCT_CACHE_TIMEOUT = 600;
     private static final long PRODUCT_RELATION_TIMEOUT = 300;
 
@@ -60,23 +85,75 @@ public class ProductDao{
     /**
      * 仅查“商品基本信息”，不加载 onSale / otherProduct。
      * 用于后台/列表场景，先查 DB 同时写入缓存，方便下次直接命中缓存。
+     *
+     * @param afterId 上一页最后一个商品的id，第一页为0
+     * @param pageSize 每页数目
+     * @return 按id升序的一页商品
      */
-    public List<Product> retrieveSimpleProductByName(Long shopId, String name) throws BusinessException {
-        List<Product> productList = new ArrayList<>();
-        List<ProductPo> productPoList;
-        Pageable pageable = PageRequest.of(1, 100);
-        if (PLATFORM.equals(shopId)){
-            productPoList = this.productPoMapper.findByName(name, pageable);
-        } else {
-            productPoList = this.productPoMapper.findByShopIdAndName(shopId, name, pageable);
-        }
-        for (ProductPo po : productPoList) {
+    public CursorPage<Product> retrieveSimpleProductByName(Long shopId, String name, long afterId, int pageSize) throws BusinessException {
+        CursorPage<Product> page = this.findPageByName(shopId, name, afterId, pageSize).map(po -> {
             Product product = CloneFactory.copy(new Product(), po);
             cacheProduct(product);
-            productList.add(product);
+            return product;
+        });
+        log.debug("retrieveSimpleProductByName: next = {}", page.next());
+        return page;
+    }
+
+    /**
+     * 按游标查出一页商品的基本信息
+     * 多查一个商品，查到时才有下一页，最后一页满页时也不会让客户端多请求一个空页
+     */
+    private CursorPage<ProductSnapshotPo> findPageByName(Long shopId, String name, long afterId, int pageSize) {
+        assert pageSize > 0;
+        Limit limit = Limit.of(pageSize + 1);
+        List<ProductSnapshotPo> productPoList;
+        if (PLATFORM.equals(shopId)) {
+            productPoList = this.productPoMapper.findByNameAndIdGreaterThanOrderByIdAsc(name, afterId, limit);
+        } else {
+            productPoList = this.productPoMapper.findByShopIdAndNameAndIdGreaterThanOrderByIdAsc(shopId, name, afterId, limit);
+        }
+        String next = null;
+        if (productPoList.size() > pageSize) {
+            productPoList = productPoList.subList(0, pageSize);
+            next = CursorPage.encode(productPoList.get(pageSize - 1).getId());
+        }
+        return new CursorPage<>(productPoList.stream(), next);
+    }
+
+    /**
+     * 用名称片段搜索商品
+     * 在内存中的名称索引中找出商品id，再逐个从缓存取商品（缓存没有时落库），
+     * 与streamByName相同，商品在流被消费时才逐个取出
+     *
+     * @param shopId 商铺id 为PLATFROM则在全系统寻找，否则在商铺内寻找
+     * @param keyword 名称片段
+     * @param limit 最多返回的个数
+     * @param full 是否补全 onSale / 关联商品
+     * @return 按相关度排序的Product的流
+     */
+    public Stream<Product> streamByKeyword(Long shopId, String keyword, int limit, boolean full) {
+        List<Long> ids = this.productNameIndex.search(shopId, keyword, limit);
+        log.debug("streamByKeyword: shopId = {}, keyword = {}, ids = {}", shopId, keyword, ids);
+        return ids.stream().map(id -> this.findIndexedProduct(shopId, id, full)).filter(Objects::nonNull);
+    }
+
+    /**
+     * 取名称索引搜到的商品
+     * 索引可能落后于数据库，商品已被删除或不再属于该商铺时返回null
+     */
+    private Product findIndexedProduct(Long shopId, Long productId, boolean full) {
+        Product baseProduct;
+        try {
+            baseProduct = this.getProductSnapshot(shopId, productId);
+        } catch (BusinessException e) {
+            if (ReturnNo.RESOURCE_ID_NOTEXIST == e.getErrno() || ReturnNo.RESOURCE_ID_OUTSCOPE == e.getErrno()) {
+                log.debug("findIndexedProduct: stale index entry, productId = {}", productId);
+                return null;
+            }
+            throw e;
         }
-        log.debug("retrieveSimpleProductByName: productList = {}", productList);
-        return productList;
+        return full ? this.getFullProduct(baseProduct) : baseProduct;
     }
 
     /**
@@ -95,6 +172,38 @@ public class ProductDao{
         return product;
     }
 
+    /**
+     * 只用缓存查询商品的版本，用于HTTP条件请求，不访问数据库，也不组装完整的商品
+     * 版本由商品快照的内容（含gmtModified）的摘要组成，完整的商品再加上OnSale列表和关联商品列表的版本，
+     * 商品、OnSale或关联关系修改后版本随之改变。
+     * 各部分都取自Redis、用VersionDigest算出，各节点对同一个商品给出同样的版本
+     *
+     * @param shopId 商铺id
+     * @param productId 商品id
+     * @param full 是否是完整的商品（含OnSale和关联商品）
+     * @return 版本，快照或版本不在缓存中、商品不属于该商铺时返回null
+     */
+    public String findVersionById(Long shopId, Long productId, boolean full) {
+        List<String> keys = !full ? List.of(buildProductKey(productId))
+                : List.of(buildProductKey(productId), this.onSaleDao.buildOnSaleVersionKey(productId), buildProductRelationVersionKey(productId));
+        // 返回值依次是每个键的exists和get的结果
+        List<Object> values = redisUtil.getByList(keys);
+        if (!(values.get(1) instanceof Product snapshot)
+                || (!Objects.equals(shopId, snapshot.getShopId()) && !PLATFORM.equals(shopId))) {
+            return null;
+        }
+        StringBuilder version = new StringBuilder(VersionDigest.of(snapshotOf(snapshot).toString()));
+        for (int i = 1; i < keys.size(); i++) {
+            Object part = values.get(i * 2 + 1);
+            if (part == null) {
+                return null;
+            }
+            version.append('-').append(part);
+        }
+        log.debug("findVersionById: productId = {}, version = {}", productId, version);
+        return version.toString();
+    }
+
     /**
      * 创建Product对象
      *
@@ -111,9 +220,79 @@ public class ProductDao{
         ProductPo ret = this.productPoMapper.save(po);
         Product newProduct = CloneFactory.copy(new Product(), ret);
         cacheProduct(newProduct);
+        this.productNameIndex.put(ret.getId(), ret.getShopId(), ret.getName());
         return newProduct;
     }
 
+    /**
+     * 批量创建的结果
+     * @param created 创建了的商品，带id，按products中的顺序
+     * @param rejected 没有创建的商品在products中的下标及原因
+     */
+    public record InsertResult(List<Product> created, Map<Integer, String> rejected) {
+    }
+
+    /**
+     * 批量创建商品，用于批量导入
+     * 商品用一个JDBC批次插入，不经过持久化上下文，批次在自己的事务中，失败时整批回滚；
+     * 因违反约束（如超长、重复）失败时再逐个在各自的事务中插入，找出出错的商品，其余商品照常创建。
+     * 重试在本方法中进行，DaoAspect会把抛出的异常都转换为INTERNAL_SERVER_ERR，调用方无法区分出错的原因。
+     * 数据库不可用等其他错误不重试，直接抛出。
+     * 新商品的快照按分片用pipeline一次写入缓存，名称索引也在提交后更新
+     *
+     * @param products 新商品
+     * @return 创建了的商品和没有创建的商品
+     */
+    public InsertResult insertAll(List<Product> products) throws BusinessException {
+        UserToken userToken = this.requestVariables.getUser();
+        List<ProductPo> pos = products.stream().map(product -> {
+            product.setCreatorId(userToken.getId());
+            product.setCreatorName(userToken.getName());
+            ProductPo po = CloneFactory.copy(new ProductPo(), product);
+            po.setCreator(userToken.getName());
+            return po;
+        }).collect(Collectors.toList());
+        Map<Integer, String> rejected = new TreeMap<>();
+        String error = this.insertInNewTransaction(pos);
+        if (error != null && pos.size() == 1) {
+            rejected.put(0, error);
+        } else if (error != null) {
+            log.info("insertAll: batch of {} failed, retry one by one, e = {}", pos.size(), error);
+            for (int i = 0; i < pos.size(); i++) {
+                String rowError = this.insertInNewTransaction(List.of(pos.get(i)));
+                if (rowError != null) {
+                    rejected.put(i, rowError);
+                }
+            }
+        }
+        log.debug("insertAll: {} products, {} rejected", pos.size(), rejected.size());
+        List<Product> newProducts = new ArrayList<>(pos.size() - rejected.size());
+        for (int i = 0; i < pos.size(); i++) {
+            if (!rejected.containsKey(i)) {
+                ProductPo po = pos.get(i);
+                this.productNameIndex.put(po.getId(), po.getShopId(), po.getName());
+                newProducts.add(CloneFactory.copy(new Product(), po));
+            }
+        }
+        afterCommit(() -> cacheProducts(newProducts));
+        return new InsertResult(newProducts, rejected);
+    }
+
+    /**
+     * 在新的事务中插入一批商品
+     * @return 因违反约束失败时返回原因，成功时返回null
+     */
+    private String insertInNewTransaction(List<ProductPo> pos) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(this.transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            transactionTemplate.executeWithoutResult(status -> this.productPoMapper.insertAll(pos));
+            return null;
+        } catch (DataIntegrityViolationException e) {
+            return e.getMostSpecificCause().getMessage();
+        }
+    }
+
     /**
      * 修改商品信息
      *
@@ -131,6 +310,7 @@ public class ProductDao{
         log.debug("update: newPo = {}", newPo);
         this.productPoMapper.save(newPo);
         evictProductCache(product.getId());
+        this.productNameIndex.put(newPo.getId(), newPo.getShopId(), newPo.getName());
     }
 
     /**
@@ -144,6 +324,58 @@ public class ProductDao{
         this.findPoById(userToken.getDepartId(), id);
         this.productPoMapper.deleteById(id);
         evictProductCache(id);
+        this.productNameIndex.remove(id);
+    }
+
+    /**
+     * 批量修改商品，用一条UPDATE修改ids中属于商铺的商品
+     * product中为null的属性不修改；事务提交后这些商品的缓存按分片用UNLINK一次删除
+     *
+     * @param shopId 商铺id，PLATFORM可以修改所有商铺的商品，只有平台管理员可以用PLATFORM和其他商铺的id
+     * @param ids 商品id
+     * @param product 修改的属性
+     * @return 修改了的商品id，不存在或不属于商铺的id不在其中
+     * @throws BusinessException AUTH_NEED_LOGIN 没有登录；RESOURCE_ID_OUTSCOPE 用户不是平台管理员，也不是该商铺的管理员
+     */
+    public List<Long> updateAll(Long shopId, Collection<Long> ids, Product product) throws BusinessException {
+        UserToken userToken = this.requestVariables.getUser();
+        List<ProductNamePo> targets = this.productPoMapper.findNameByShopIdAndIdIn(bulkScope(userToken, shopId), ids);
+        if (targets.isEmpty()) {
+            return List.of();
+        }
+        List<Long> targetIds = targets.stream().map(ProductNamePo::getId).collect(Collectors.toList());
+        ProductPo po = CloneFactory.copy(new ProductPo(), product);
+        po.setModifier(userToken.getName());
+        po.setGmtModified(LocalDateTime.now());
+        int updated = this.productPoMapper.updateAllByIdIn(po, targetIds);
+        log.debug("updateAll: shopId = {}, {} of {} products updated", shopId, updated, ids.size());
+        if (product.getName() != null) {
+            targets.forEach(target -> this.productNameIndex.put(target.getId(), target.getShopId(), product.getName()));
+        }
+        afterCommit(() -> evictProductCaches(targetIds));
+        return targetIds;
+    }
+
+    /**
+     * 批量删除商品，用一条DELETE删除ids中属于商铺的商品
+     * 事务提交后这些商品的缓存按分片用UNLINK一次删除
+     *
+     * @param shopId 商铺id，PLATFORM可以删除所有商铺的商品，只有平台管理员可以用PLATFORM和其他商铺的id
+     * @param ids 商品id
+     * @return 删除了的商品id，不存在或不属于商铺的id不在其中
+     * @throws BusinessException AUTH_NEED_LOGIN 没有登录；RESOURCE_ID_OUTSCOPE 用户不是平台管理员，也不是该商铺的管理员
+     */
+    public List<Long> deleteAll(Long shopId, Collection<Long> ids) throws BusinessException {
+        List<Long> targetIds = this.productPoMapper.findNameByShopIdAndIdIn(bulkScope(this.requestVariables.getUser(), shopId), ids)
+                .stream().map(ProductNamePo::getId).collect(Collectors.toList());
+        if (targetIds.isEmpty()) {
+            return List.of();
+        }
+        int deleted = this.productPoMapper.deleteAllByIdIn(targetIds);
+        log.debug("deleteAll: shopId = {}, {} of {} products deleted", shopId, deleted, ids.size());
+        targetIds.forEach(this.productNameIndex::remove);
+        afterCommit(() -> evictProductCaches(targetIds));
+        return targetIds;
     }
 
     /**
@@ -165,32 +397,68 @@ public class ProductDao{
     }
 
     /**
+     * 查询“商品全量信息列表”，用于前台搜索。
+     * 逻辑：先查 DB → 缓存基础信息 → 填充 onSale / 关联商品。
+     * 商品在流被消费时才逐个补全 onSale / 关联商品，
+     * 消费者处理完一个再组装下一个，同时在内存中的完整商品只有一个。
+     * 商品的基本信息在返回之前就已经查出，查询出错在这里抛出；补全时出错在消费流时抛出
      *
      * @param shopId 商铺id 为PLATFROM则在全系统寻找，否则在商铺内寻找
      * @param name 名称
-     * @return Product对象列表，带关联的Product返回
+     * @param afterId 上一页最后一个商品的id，第一页为0
+     * @param pageSize 每页数目
+     * @return 按id升序的一页带关联的Product
      */
-    /**
-     * 查询“商品全量信息列表”，用于前台搜索。
-     * 逻辑：先查 DB → 缓存基础信息 → 填充 onSale / 关联商品。
-     */
-    public List<Product> retrieveByName(Long shopId, String name) throws BusinessException {
-        List<Product> productList = new ArrayList<>();
-        Pageable pageable = PageRequest.of(0, 100);
-        List<ProductPo> productPoList;
-        if (PLATFORM.equals(shopId)) {
-            productPoList = this.productPoMapper.findByName(name, pageable);
-        }else{
-            productPoList = this.productPoMapper.findByShopIdAndName(shopId, name, pageable);
-        }
-        for (ProductPo po : productPoList) {
+    public CursorPage<Product> streamByName(Long shopId, String name, long afterId, int pageSize) throws BusinessException {
+        return this.findPageByName(shopId, name, afterId, pageSize).map(po -> {
             Product baseProduct = CloneFactory.copy(new Product(), po);
             cacheProduct(baseProduct);
-            Product product = this.getFullProduct(baseProduct);
-            productList.add(product);
-        }
-        log.debug("retrieveByName: productList = {}", productList);
-        return productList;
+            return this.getFullProduct(baseProduct);
+        });
+    }
+
+    /**
+     * 按id顺序逐个读出商铺的全部商品及其当前有效的OnSale，用于导出商品目录
+     * 商品和OnSale用一个左连接查询从只进的游标中逐行读出，同一商品的相邻各行合并成一个商品，
+     * 读出的行不进入持久化上下文，内存中只有当前的一个商品，与商铺的商品数无关。
+     * 不读写缓存，关联商品不导出。
+     * 查询使用导出的连接池，不在调用者的事务中，返回的流持有一个连接，用完后必须关闭
+     *
+     * @param shopId 商铺id
+     * @return 带OnSale列表的Product的流
+     */
+    public Stream<Product> streamByShop(Long shopId) {
+        Stream<ProductExportPo> rows = this.productPoMapper.streamByShopId(shopId, LocalDateTime.now());
+        Iterator<ProductExportPo> iterator = rows.iterator();
+        Iterator<Product> products = new Iterator<>() {
+            private ProductExportPo row = iterator.hasNext() ? iterator.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return this.row != null;
+            }
+
+            @Override
+            public Product next() {
+                if (this.row == null) {
+                    throw new NoSuchElementException();
+                }
+                Product product = CloneFactory.copy(new Product(), (ProductSnapshotPo) this.row);
+                List<OnSale> onSales = new ArrayList<>();
+                do {
+                    if (this.row.getOnsaleId() != null) {
+                        onSales.add(OnSale.builder().id(this.row.getOnsaleId()).price(this.row.getPrice())
+                                .beginTime(this.row.getBeginTime()).endTime(this.row.getEndTime())
+                                .quantity(this.row.getQuantity()).maxQuantity(this.row.getMaxQuantity()).build());
+                    }
+                    this.row = iterator.hasNext() ? iterator.next() : null;
+                } while (this.row != null && product.getId().equals(this.row.getId()));
+                product.setOnSaleList(onSales);
+                return product;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(products, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(rows::close);
     }
 
     /**
@@ -223,24 +491,35 @@ public class ProductDao{
      */
     /**
      * 查询与当前商品相关的其他商品：
-     *  1. 优先命中缓存（商品 -> 关联商品 ID 列表）；
-     *  2. 未命中则通过 Goods 表查出关联关系，再批量查 ProductPo；
+     *  0. 关联图已经建立时，关联商品的 ID 取自本节点的关联图，再按 ID 取各关联商品，
+     *     Redis中还没有关联商品的版本时写入，已有的不覆盖，各节点共用先写入的版本；
+     *  1. 否则优先命中缓存（商品 -> 关联商品 ID 列表 -> 各关联商品，一次读出）；
+     *  2. 未命中则通过 Goods 表查出关联关系（Redis熔断时才读本节点的查询缓存），再批量查 ProductPo；
      *  3. 新结果写回缓存。
      */
     private List<Product> retrieveOtherProduct(Long productId) throws DataAccessException {
-        List<Long> cachedRelationIds = getCachedRelationIds(productId);
-        List<Product> cachedProducts = buildProductsFromCache(cachedRelationIds);
-        if (cachedProducts != null) {
+        if (this.productRelationGraph.isReady()) {
+            long[] relationIds = this.productRelationGraph.neighbours(productId);
+            if (!ReadWriteRoutingDataSource.isReplicaRead()) {
+                redisUtil.setIfAbsent(buildProductRelationVersionKey(productId), relationVersionOf(relationIds),
+                        OnSaleDao.versionTimeoutOf(PRODUCT_RELATION_TIMEOUT));
+            }
+            return this.retrieveProductsByIds(relationIds);
+        }
+        RedisUtil.ListMembers cached = redisUtil.getListMembers(buildProductRelationKey(productId), PRODUCT_KEY_PREFIX, PRODUCT_KEY_SUFFIX);
+        if (cached != null && cached.isComplete()) {
             log.debug("retrieveOtherProduct: hit cache for productId = {}", productId);
-            return cachedProducts;
+            // 成员是刚从Redis反序列化出来的新对象，不需要再深拷贝
+            return cached.members().stream().map(Product.class::cast).collect(Collectors.toList());
         }
-        List<GoodsPo> goodsPos = this.goodsPoMapper.findByProductId(productId);
+        List<GoodsPo> goodsPos = redisUtil.isAvailable() ? this.goodsPoMapper.findFreshByProductId(productId)
+                : this.goodsPoMapper.findByProductId(productId);
         if (goodsPos.isEmpty()) {
             cacheRelation(productId, Collections.emptyList());
             return Collections.emptyList();
         }
         List<Long> productIds = goodsPos.stream().map(GoodsPo::getRelateProductId).collect(Collectors.toList());
-        List<ProductPo> productPoList = this.productPoMapper.findByIdIn(productIds);
+        List<ProductSnapshotPo> productPoList = this.productPoMapper.findByIdIn(productIds);
         List<Product> relatedProducts = productPoList.stream().map(po -> {
             Product related = CloneFactory.copy(new Product(), po);
             cacheProduct(related);
@@ -250,6 +529,52 @@ public class ProductDao{
         return relatedProducts;
     }
 
+    /**
+     * 关联商品的关联商品（两跳），按经过的关联商品个数从多到少排列
+     * 关联图还没有建立时返回空列表
+     *
+     * @param productId 商品id
+     * @param limit 最多返回的个数
+     * @return 商品基本信息，不含 onSale / otherProduct
+     */
+    public List<Product> retrieveAlsoRelatedProduct(Long productId, int limit) throws DataAccessException {
+        if (!this.productRelationGraph.isReady()) {
+            return new ArrayList<>();
+        }
+        return this.retrieveProductsByIds(this.productRelationGraph.alsoRelated(productId, limit));
+    }
+
+    /**
+     * 按id取商品基本信息，保持ids的顺序
+     * 先按分片批量读缓存，未命中的一次查库并批量写回缓存；已删除的商品不返回
+     */
+    private List<Product> retrieveProductsByIds(long[] ids) throws DataAccessException {
+        if (ids.length == 0) {
+            return new ArrayList<>();
+        }
+        List<String> keys = Arrays.stream(ids).mapToObj(this::buildProductKey).collect(Collectors.toList());
+        // 返回值依次是每个键的exists和get的结果，读出的是新对象，不需要再深拷贝
+        List<Object> values = redisUtil.getByList(keys);
+        Map<Long, Product> products = new HashMap<>(ids.length * 2);
+        List<Long> misses = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (values.get(i * 2 + 1) instanceof Product product) {
+                products.put(ids[i], product);
+            } else {
+                misses.add(ids[i]);
+            }
+        }
+        if (!misses.isEmpty()) {
+            List<Product> loaded = this.productPoMapper.findByIdIn(misses).stream()
+                    .map(po -> CloneFactory.copy(new Product(), po)).collect(Collectors.toList());
+            if (!loaded.isEmpty()) {
+                loaded.forEach(product -> products.put(product.getId(), product));
+                cacheProducts(loaded);
+            }
+        }
+        return Arrays.stream(ids).mapToObj(products::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
     /**
      * 找到po对象，判断对象是否存在以及是否属于本商铺
      * @param shopId 商铺id
@@ -258,7 +583,18 @@ public class ProductDao{
      */
 
     private ProductPo findPoById(Long shopId, Long productId){
-        ProductPo productPo = this.productPoMapper.findById(productId).orElseThrow(() ->
+        return this.findPoById(shopId, productId, false);
+    }
+
+    /**
+     * 找到po对象，判断对象是否存在以及是否属于本商铺
+     * @param secondLevelCache 是否可以读本节点的二级缓存。二级缓存中可能是其他节点修改之前的旧值，
+     *                         读出的对象要写入共享的Redis缓存，或者要修改时不可以
+     * @return RESOURCE_ID_OUTSCOPE, RESOURCE_ID_NOTEXIST
+     */
+    private ProductPo findPoById(Long shopId, Long productId, boolean secondLevelCache){
+        Optional<ProductPo> po = secondLevelCache ? this.productPoMapper.findById(productId) : this.productPoMapper.findFreshById(productId);
+        ProductPo productPo = po.orElseThrow(() ->
                 new BusinessException(ReturnNo.RESOURCE_ID_NOTEXIST, JacksonUtil.toJson(new String[] {"${product}", productId.toString()})));
         log.debug("findPoById: shopId = {}, productPo = {}", shopId, productPo);
         if (!Objects.equals(shopId, productPo.getShopId()) && !PLATFORM.equals(shopId)){
@@ -277,7 +613,8 @@ public class ProductDao{
             validateScope(shopId, cached.getShopId(), productId);
             return cached;
         }
-        ProductPo productPo = this.findPoById(shopId, productId);
+        // Redis熔断时读出的商品不会写入Redis，才可以读本节点的二级缓存
+        ProductPo productPo = this.findPoById(shopId, productId, !redisUtil.isAvailable());
         Product product = CloneFactory.copy(new Product(), productPo);
         cacheProduct(product);
         return product;
@@ -287,13 +624,34 @@ public class ProductDao{
      * 缓存商品基础信息（不包含关联对象）。
      * 参考最佳实践：直接使用 CloneFactory 复制对象，避免手动 Builder 的繁琐。
      * 注意：不缓存 onSaleList 和 otherProduct，避免缓存过大和一致性问题。
+     * 在读了副本的事务中不缓存，副本上的可能是旧值
      */
     private void cacheProduct(Product product){
-        if (product == null || product.getId() == null){
+        if (product == null || product.getId() == null || ReadWriteRoutingDataSource.isReplicaRead()){
+            return;
+        }
+        Product snapshot = snapshotOf(product);
+        redisUtil.set(buildProductKey(product.getId()), snapshot, PRODUCT_CACHE_TIMEOUT);
+    }
+
+    /**
+     * 批量缓存商品基础信息，每个分片一次往返
+     */
+    private void cacheProducts(List<Product> products){
+        if (ReadWriteRoutingDataSource.isReplicaRead()) {
             return;
         }
-        // 使用 builder 复制对象字段（浅拷贝）
-        Product snapshot = Product.builder()
+        Map<String, Product> snapshots = new LinkedHashMap<>(products.size() * 2);
+        products.forEach(product -> snapshots.put(buildProductKey(product.getId()), snapshotOf(product)));
+        redisUtil.setByList(snapshots, PRODUCT_CACHE_TIMEOUT);
+    }
+
+    /**
+     * 用 builder 复制商品的基础字段（浅拷贝），不包含 onSaleList 和 otherProduct，
+     * 避免缓存过大和一致性问题
+     */
+    static Product snapshotOf(Product product) {
+        return Product.builder()
                 .id(product.getId())
                 .shopId(product.getShopId())
                 .name(product.getName())
@@ -312,13 +670,9 @@ public class ProductDao{
                 .gmtCreate(product.getGmtCreate())
                 .gmtModified(product.getGmtModified())
                 .build();
-        // 确保不缓存关联对象，避免缓存过大和一致性问题
-        snapshot.setOnSaleList(null);
-        snapshot.setOtherProduct(null);
-        redisUtil.set(buildProductKey(product.getId()), snapshot, PRODUCT_CACHE_TIMEOUT);
     }
 
-    private Product deepCopyProduct(Product source) {
+    static Product deepCopyProduct(Product source) {
         if (source == null) {
             return null;
         }
@@ -360,9 +714,55 @@ public class ProductDao{
     }
 
     private void evictProductCache(Long productId){
-        redisUtil.del(buildProductKey(productId));
-        redisUtil.del(buildProductRelationKey(productId));
-        this.onSaleDao.evictProductOnSaleCache(productId);
+        evictProductCaches(List.of(productId));
+    }
+
+    /**
+     * 删除商品的基础信息、关联商品和OnSale列表的缓存，所有键每个分片一条UNLINK
+     */
+    private void evictProductCaches(Collection<Long> productIds){
+        List<String> keys = new ArrayList<>(productIds.size() * 5);
+        for (Long productId : productIds) {
+            keys.add(buildProductKey(productId));
+            keys.add(buildProductRelationKey(productId));
+            keys.add(buildProductRelationVersionKey(productId));
+            keys.addAll(this.onSaleDao.productOnSaleCacheKeys(productId));
+        }
+        redisUtil.unlink(keys);
+    }
+
+    /**
+     * 在当前事务提交之后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action){
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 批量操作的商铺范围，路径中的shopId由用户填写，要与令牌中用户所属的商铺核对
+     * @param user 当前用户
+     * @param shopId 路径中的商铺id
+     * @return 商品所属的商铺id，null表示所有商铺
+     * @throws BusinessException AUTH_NEED_LOGIN 没有令牌；RESOURCE_ID_OUTSCOPE 商铺管理员操作其他商铺或所有商铺，或者令牌中没有所属的商铺
+     */
+    private static Long bulkScope(UserToken user, Long shopId) {
+        if (Objects.isNull(user)) {
+            throw new BusinessException(ReturnNo.AUTH_NEED_LOGIN, JacksonUtil.toJson(new String[] {}));
+        }
+        if (Objects.isNull(user.getDepartId()) || (!PLATFORM.equals(user.getDepartId()) && !Objects.equals(shopId, user.getDepartId()))) {
+            String[] objects = new String[] {"${shop}", shopId.toString(), String.valueOf(user.getDepartId())};
+            throw new BusinessException(ReturnNo.RESOURCE_ID_OUTSCOPE, JacksonUtil.toJson(objects));
+        }
+        return PLATFORM.equals(shopId) ? null : shopId;
     }
 
     private void validateScope(Long shopId, Long ownerShopId, Long productId){
@@ -372,42 +772,24 @@ public class ProductDao{
         }
     }
 
-    @SuppressWarnings("unchecked")
     /**
-     * 读取“商品 -> 关联商品 ID 列表”缓存；null 代表缓存缺失。
+     * 缓存关联商品的ID列表（紧凑编码）及其版本
      */
-    private List<Long> getCachedRelationIds(Long productId){
-        Object cache = redisUtil.get(buildProductRelationKey(productId));
-        if (cache == null){
-            return null;
-        }
-        return (List<Long>) cache;
-    }
-
     private void cacheRelation(Long productId, List<Product> relatedProducts){
-        List<Long> relationIds = relatedProducts.stream().map(Product::getId).filter(Objects::nonNull).collect(Collectors.toList());
-        redisUtil.set(buildProductRelationKey(productId), (Serializable) new ArrayList<>(relationIds), PRODUCT_RELATION_TIMEOUT);
+        if (ReadWriteRoutingDataSource.isReplicaRead()) {
+            return;
+        }
+        long[] relationIds = relatedProducts.stream().map(Product::getId).filter(Objects::nonNull).mapToLong(Long::longValue).toArray();
+        redisUtil.setIds(buildProductRelationKey(productId), relationIds, PRODUCT_RELATION_TIMEOUT);
+        redisUtil.set(buildProductRelationVersionKey(productId), relationVersionOf(relationIds),
+                OnSaleDao.versionTimeoutOf(PRODUCT_RELATION_TIMEOUT));
     }
 
     /**
-     * 根据 ID 列表构造关联商品列表：全部命中缓存才返回；任一缺失则返回 null。
+     * 关联商品的版本，关联商品ID列表的摘要
      */
-    private List<Product> buildProductsFromCache(List<Long> ids){
-        if (ids == null){
-            return null;
-        }
-        if (ids.isEmpty()){
-            return Collections.emptyList();
-        }
-        List<Product> products = new ArrayList<>();
-        for (Long id : ids){
-            Product cached = getCachedProduct(id);
-            if (cached == null){
-                return null;
-            }
-            products.add(deepCopyProduct(cached));
-        }
-        return products;
+    private static String relationVersionOf(long[] relationIds){
+        return VersionDigest.of(Arrays.toString(relationIds));
     }
 
     private String buildProductKey(Long productId){
@@ -417,4 +799,8 @@ public class ProductDao{
     private String buildProductRelationKey(Long productId){
         return String.format(PRODUCT_RELATION_KEY_TEMPLATE, productId);
     }
+
+    private String buildProductRelationVersionKey(Long productId){
+        return String.format(PRODUCT_RELATION_VERSION_KEY_TEMPLATE, productId);
+    }
 }
@@ -0,0 +1,419 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.dao;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductNamePo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static cn.edu.xmu.javaee.core.model.Constants.PLATFORM;
+
+/**
+ * 商品名称的n-gram倒排索引，用于按名称片段搜索商品
+ * 名称规范化（NFKC、小写）之后按码点切成单字和相邻两字，每个片段对应包含它的商品的有序序号表（int数组）；
+ * 查询时求查询词各片段的序号表的交集，再用子串匹配去掉误中的商品。
+ * 索引按商铺分区，另有一个包含所有商品的平台分区，商铺内搜索只访问本商铺的分区。
+ * 启动后从数据库全量建立，商品增删改在事务提交后增量更新；
+ * 其他节点的修改和绕过ProductDao的修改由定期重建补上，期间搜到的已删除商品在取商品时跳过
+ */
+@Component
+@Slf4j
+public class ProductNameIndex {
+
+    private static final long BIGRAM = 1L << 42;
+
+    /**
+     * 分区中删除的商品超过该数目且超过一半时整理分区
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final ProductPoMapper productPoMapper;
+    private final int batchSize;
+
+    private volatile Map<Long, Partition> partitions = new ConcurrentHashMap<>();
+    private volatile boolean ready = false;
+
+    /**
+     * 修改索引的锁，重建期间的修改记入replay，重建完成后在新索引上重放
+     */
+    private final Object writeLock = new Object();
+    private List<Change> replay;
+
+    /**
+     * 商品名称的修改，name为null表示删除
+     */
+    private record Change(long id, long shopId, String name) {
+    }
+
+    public ProductNameIndex(ProductPoMapper productPoMapper,
+                            @Value("${javaee.productdemoredis.name-index.batch-size:1000}") int batchSize) {
+        this.productPoMapper = productPoMapper;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 索引是否已经建立，建立之前搜索的结果为空
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * 搜索名称包含keyword的商品
+     * 完全相同的排在最前，其次是以keyword开头的，再按匹配位置、名称长度和加入索引的先后排序
+     *
+     * @param shopId 商铺id，为PLATFORM时在所有商品中搜索
+     * @param keyword 名称片段
+     * @param limit 最多返回的个数
+     * @return 按相关度排序的商品id
+     */
+    public List<Long> search(Long shopId, String keyword, int limit) {
+        assert shopId != null && limit > 0;
+        String query = normalize(keyword);
+        if (query.isEmpty()) {
+            return List.of();
+        }
+        Partition partition = this.partitions.get(shopId);
+        if (partition == null) {
+            return List.of();
+        }
+        return partition.search(query, limit);
+    }
+
+    /**
+     * 加入或修改商品，在当前事务提交之后生效
+     */
+    public void put(Long id, Long shopId, String name) {
+        if (id == null || shopId == null || name == null) {
+            return;
+        }
+        afterCommit(new Change(id, shopId, normalize(name)));
+    }
+
+    /**
+     * 删除商品，在当前事务提交之后生效
+     */
+    public void remove(Long id) {
+        if (id == null) {
+            return;
+        }
+        afterCommit(new Change(id, 0, null));
+    }
+
+    private void afterCommit(Change change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(change);
+                }
+            });
+        } else {
+            apply(change);
+        }
+    }
+
+    private void apply(Change change) {
+        synchronized (this.writeLock) {
+            apply(this.partitions, change);
+            if (this.replay != null) {
+                this.replay.add(change);
+            }
+        }
+    }
+
+    private static void apply(Map<Long, Partition> partitions, Change change) {
+        Partition platform = partitions.computeIfAbsent(PLATFORM, k -> new Partition());
+        long oldShop = platform.shopOf(change.id());
+        if (oldShop >= 0 && (change.name() == null || oldShop != change.shopId())) {
+            Optional.ofNullable(partitions.get(oldShop)).ifPresent(partition -> partition.remove(change.id()));
+        }
+        if (change.name() == null) {
+            platform.remove(change.id());
+        } else {
+            platform.add(change.id(), change.shopId(), change.name());
+            partitions.computeIfAbsent(change.shopId(), k -> new Partition()).add(change.id(), change.shopId(), change.name());
+        }
+    }
+
+    /**
+     * 从数据库重建索引，启动时执行一次，之后定期执行
+     * 新索引在旧索引之外建立，建好之后替换，期间的搜索仍使用旧索引
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.name-index.rebuild-interval:600000}")
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (this.writeLock) {
+            this.replay = new ArrayList<>();
+        }
+        Map<Long, Partition> rebuilt = new ConcurrentHashMap<>();
+        long count = 0;
+        try {
+            long lastId = 0;
+            List<ProductNamePo> batch;
+            do {
+                batch = this.productPoMapper.findByIdGreaterThanOrderByIdAsc(lastId, Limit.of(this.batchSize));
+                for (ProductNamePo po : batch) {
+                    if (po.getShopId() != null && po.getName() != null) {
+                        apply(rebuilt, new Change(po.getId(), po.getShopId(), normalize(po.getName())));
+                        count++;
+                    }
+                    lastId = po.getId();
+                }
+            } while (batch.size() == this.batchSize);
+        } catch (RuntimeException e) {
+            synchronized (this.writeLock) {
+                this.replay = null;
+            }
+            log.error("rebuild: failed, e = {}", e.getMessage());
+            return;
+        }
+        synchronized (this.writeLock) {
+            this.replay.forEach(change -> apply(rebuilt, change));
+            this.replay = null;
+            this.partitions = rebuilt;
+            this.ready = true;
+        }
+        log.info("rebuild: {} products in {} partitions, {} ms", count, rebuilt.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 规范化名称：全角转半角、大写转小写，去掉首尾空白
+     */
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        return Normalizer.normalize(name, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).strip();
+    }
+
+    /**
+     * 查询词用到的片段：单个字符的查询用单字，否则用所有相邻两字
+     */
+    private static long[] queryGrams(int[] codePoints) {
+        if (codePoints.length == 1) {
+            return new long[]{codePoints[0]};
+        }
+        long[] grams = new long[codePoints.length - 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = bigram(codePoints[i], codePoints[i + 1]);
+        }
+        return grams;
+    }
+
+    private static long bigram(int first, int second) {
+        return BIGRAM | ((long) first << 21) | second;
+    }
+
+    /**
+     * 一个分区的索引
+     * 商品按加入的先后编号，序号表按编号递增追加，始终有序；
+     * 删除只做标记，删除的商品多了之后重新编号整理
+     */
+    static final class Partition {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, IntList> postings = new HashMap<>();
+        private final Map<Long, Integer> ordinals = new HashMap<>();
+        private long[] ids = new long[16];
+        private long[] shopIds = new long[16];
+        /**
+         * 规范化的名称，已删除的为null
+         */
+        private String[] names = new String[16];
+        private int size;
+        private int deleted;
+
+        long shopOf(long id) {
+            this.lock.readLock().lock();
+            try {
+                Integer ordinal = this.ordinals.get(id);
+                return ordinal == null ? -1 : this.shopIds[ordinal];
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        void add(long id, long shopId, String name) {
+            this.lock.writeLock().lock();
+            try {
+                Integer old = this.ordinals.get(id);
+                if (old != null && name.equals(this.names[old])) {
+                    this.shopIds[old] = shopId;
+                    return;
+                }
+                this.removeLocked(id);
+                this.append(id, shopId, name);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long id) {
+            this.lock.writeLock().lock();
+            try {
+                this.removeLocked(id);
+                if (this.deleted > COMPACT_THRESHOLD && this.deleted * 2 > this.size) {
+                    this.compact();
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        private void removeLocked(long id) {
+            Integer ordinal = this.ordinals.remove(id);
+            if (ordinal != null) {
+                this.names[ordinal] = null;
+                this.deleted++;
+            }
+        }
+
+        private void append(long id, long shopId, String name) {
+            if (this.size == this.ids.length) {
+                int capacity = this.size * 2;
+                this.ids = Arrays.copyOf(this.ids, capacity);
+                this.shopIds = Arrays.copyOf(this.shopIds, capacity);
+                this.names = Arrays.copyOf(this.names, capacity);
+            }
+            int ordinal = this.size++;
+            this.ids[ordinal] = id;
+            this.shopIds[ordinal] = shopId;
+            this.names[ordinal] = name;
+            this.ordinals.put(id, ordinal);
+            int[] codePoints = name.codePoints().toArray();
+            for (int i = 0; i < codePoints.length; i++) {
+                this.post(codePoints[i], ordinal);
+                if (i + 1 < codePoints.length) {
+                    this.post(bigram(codePoints[i], codePoints[i + 1]), ordinal);
+                }
+            }
+        }
+
+        private void post(long gram, int ordinal) {
+            this.postings.computeIfAbsent(gram, k -> new IntList()).addIfAbsent(ordinal);
+        }
+
+        /**
+         * 去掉已删除的商品，重新编号
+         */
+        private void compact() {
+            long[] oldIds = this.ids;
+            long[] oldShopIds = this.shopIds;
+            String[] oldNames = this.names;
+            int oldSize = this.size;
+            this.postings.clear();
+            this.ordinals.clear();
+            this.ids = new long[Math.max(16, oldSize - this.deleted)];
+            this.shopIds = new long[this.ids.length];
+            this.names = new String[this.ids.length];
+            this.size = 0;
+            this.deleted = 0;
+            for (int i = 0; i < oldSize; i++) {
+                if (oldNames[i] != null) {
+                    this.append(oldIds[i], oldShopIds[i], oldNames[i]);
+                }
+            }
+        }
+
+        List<Long> search(String query, int limit) {
+            int[] codePoints = query.codePoints().toArray();
+            long[] grams = queryGrams(codePoints);
+            this.lock.readLock().lock();
+            try {
+                IntList[] lists = new IntList[grams.length];
+                for (int i = 0; i < grams.length; i++) {
+                    lists[i] = this.postings.get(grams[i]);
+                    if (lists[i] == null) {
+                        return List.of();
+                    }
+                }
+                // 从最短的序号表开始求交集
+                Arrays.sort(lists, Comparator.comparingInt(IntList::size));
+                int[] candidates = Arrays.copyOf(lists[0].values, lists[0].size);
+                int count = candidates.length;
+                for (int i = 1; i < lists.length && count > 0; i++) {
+                    count = lists[i].retain(candidates, count);
+                }
+                // 相关度和序号合成一个long排序：类别(2位)、匹配位置(10位)、名称长度(10位)、序号(32位)
+                long[] matches = new long[count];
+                int found = 0;
+                for (int i = 0; i < count; i++) {
+                    int ordinal = candidates[i];
+                    String name = this.names[ordinal];
+                    int position = name == null ? -1 : name.indexOf(query);
+                    if (position < 0) {
+                        continue;
+                    }
+                    long rank = position > 0 ? 2 : (name.length() == query.length() ? 0 : 1);
+                    matches[found++] = rank << 52 | (long) Math.min(position, 1023) << 42
+                            | (long) Math.min(name.length(), 1023) << 32 | ordinal;
+                }
+                Arrays.sort(matches, 0, found);
+                int n = Math.min(found, limit);
+                List<Long> result = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    result.add(this.ids[(int) (matches[i] & 0xFFFFFFFFL)]);
+                }
+                return result;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 递增的int序号表
+     */
+    static final class IntList {
+
+        private int[] values = new int[4];
+        private int size;
+
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * 追加序号，与最后一个相同时忽略（同一名称中重复的片段）
+         */
+        void addIfAbsent(int value) {
+            if (this.size > 0 && this.values[this.size - 1] == value) {
+                return;
+            }
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        /**
+         * 只保留candidates前count个中也在本表中的序号
+         * @return 保留的个数
+         */
+        int retain(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count && from < this.size; i++) {
+                int position = Arrays.binarySearch(this.values, from, this.size, candidates[i]);
+                if (position >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = position + 1;
+                } else {
+                    from = -position - 1;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.dao;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.GoodsPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsRelationPo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 商品关联图（goods_goods），查询关联商品的id时不访问数据库和Redis
+ * 图是不可变的压缩稀疏行（CSR）结构：有关联的商品id升序排列，offsets[i]到offsets[i + 1]是第i个商品
+ * 在targets中的关联商品，全部是基本类型数组，每条关联16字节，每个有关联的商品另占12字节。
+ * 启动时和每rebuild-interval毫秒全量重建；其间每refresh-interval毫秒按时间水位增量刷新，
+ * 取gmt_create或gmt_modified不早于水位的关联，合并后整体替换，查询不加锁。
+ * 水位是读到的最晚时间和上次开始读取的时间中较晚的一个，往前多取overlap毫秒，
+ * 补上时间早于水位、提交晚于上次读取的修改以及本节点与数据库的时钟偏差；重复取到的关联按id覆盖，不会重复。
+ * 删除的关联在增量刷新中看不到，要到下次全量重建才去掉
+ */
+@Component
+@Slf4j
+public class ProductRelationGraph {
+
+    private static final long[] NONE = new long[0];
+
+    private final GoodsPoMapper goodsPoMapper;
+    private final int batchSize;
+    private final long overlap;
+
+    private volatile Csr graph = Csr.EMPTY;
+    private volatile boolean ready = false;
+
+    /**
+     * 水位，只在持有updateLock时读写
+     */
+    private LocalDateTime watermark;
+
+    /**
+     * rebuild和refresh互斥。其间要查询数据库，不用synchronized，以免虚拟线程在等待JDBC时钉住载体线程
+     */
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    public ProductRelationGraph(GoodsPoMapper goodsPoMapper,
+                                @Value("${javaee.productdemoredis.relation-graph.batch-size:1000}") int batchSize,
+                                @Value("${javaee.productdemoredis.relation-graph.overlap:5000}") long overlap,
+                                MeterRegistry meterRegistry) {
+        this.goodsPoMapper = goodsPoMapper;
+        this.batchSize = batchSize;
+        this.overlap = overlap;
+        Gauge.builder("product.relation.products", this, graph -> graph.graph.products.length).register(meterRegistry);
+        Gauge.builder("product.relation.edges", this, graph -> graph.graph.targets.length).register(meterRegistry);
+        Gauge.builder("product.relation.memory", this, graph -> graph.graph.memoryBytes())
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * 关联图是否已经建立，建立之前应从数据库查询关联
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * 商品关联的商品
+     * @param productId 商品id
+     * @return 关联商品的id，按关联的id（goods_goods.id）排列，与findByProductId的顺序相同，没有时为空数组
+     */
+    public long[] neighbours(long productId) {
+        Csr csr = this.graph;
+        int index = csr.indexOf(productId);
+        return index < 0 ? NONE : Arrays.copyOfRange(csr.targets, csr.offsets[index], csr.offsets[index + 1]);
+    }
+
+    /**
+     * 关联商品的关联商品（两跳），不含商品本身和直接关联的商品
+     * 按经过的直接关联商品的个数从多到少排列，个数相同的按id升序
+     * @param productId 商品id
+     * @param limit 最多返回的个数
+     * @return 商品id
+     */
+    public long[] alsoRelated(long productId, int limit) {
+        assert limit > 0;
+        Csr csr = this.graph;
+        int index = csr.indexOf(productId);
+        if (index < 0) {
+            return NONE;
+        }
+        long[] direct = Arrays.copyOfRange(csr.targets, csr.offsets[index], csr.offsets[index + 1]);
+        Arrays.sort(direct);
+        long[] candidates = new long[16];
+        int count = 0;
+        for (int i = 0; i < direct.length; i++) {
+            if (i > 0 && direct[i] == direct[i - 1]) {
+                continue;
+            }
+            int neighbour = csr.indexOf(direct[i]);
+            if (neighbour < 0) {
+                continue;
+            }
+            for (int j = csr.offsets[neighbour]; j < csr.offsets[neighbour + 1]; j++) {
+                long target = csr.targets[j];
+                if (target == productId || Arrays.binarySearch(direct, target) >= 0) {
+                    continue;
+                }
+                if (count == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, count * 2);
+                }
+                candidates[count++] = target;
+            }
+        }
+        Arrays.sort(candidates, 0, count);
+        // 去重计数，次数和下标合成一个long排序：次数取反（高32位）、去重后的下标（低32位）
+        long[] ids = new long[count];
+        long[] ranks = new long[count];
+        int found = 0;
+        for (int i = 0; i < count; ) {
+            int j = i;
+            while (j < count && candidates[j] == candidates[i]) {
+                j++;
+            }
+            ids[found] = candidates[i];
+            ranks[found] = (long) (Integer.MAX_VALUE - (j - i)) << 32 | found;
+            found++;
+            i = j;
+        }
+        Arrays.sort(ranks, 0, found);
+        long[] result = new long[Math.min(found, limit)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids[(int) ranks[i]];
+        }
+        return result;
+    }
+
+    /**
+     * 从数据库全量重建关联图，启动时执行一次，之后定期执行
+     * 新图在旧图之外建立，建好之后替换，期间的查询仍使用旧图；正在增量刷新时等刷新结束
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.relation-graph.rebuild-interval:600000}")
+    public void rebuild() {
+        this.updateLock.lock();
+        try {
+            this.rebuildGraph();
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    private void rebuildGraph() {
+        long start = System.currentTimeMillis();
+        EdgeList edges = new EdgeList();
+        LocalDateTime latest = LocalDateTime.now();
+        try {
+            long lastId = 0;
+            List<GoodsRelationPo> batch;
+            do {
+                batch = this.goodsPoMapper.findByIdGreaterThanOrderByIdAsc(lastId, Limit.of(this.batchSize));
+                for (GoodsRelationPo po : batch) {
+                    edges.add(po);
+                    latest = later(latest, po);
+                    lastId = po.getId();
+                }
+            } while (batch.size() == this.batchSize);
+        } catch (RuntimeException e) {
+            log.error("rebuild: failed, e = {}", e.getMessage());
+            return;
+        }
+        this.graph = Csr.of(edges);
+        this.watermark = latest;
+        this.ready = true;
+        log.info("rebuild: {} relations of {} products, {} bytes, {} ms", this.graph.targets.length, this.graph.products.length,
+                this.graph.memoryBytes(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按水位增量刷新关联图，还没有建立时全量重建；正在重建或刷新时跳过这一次
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.relation-graph.refresh-interval:10000}",
+            initialDelayString = "${javaee.productdemoredis.relation-graph.refresh-interval:10000}")
+    public void refresh() {
+        if (!this.updateLock.tryLock()) {
+            log.debug("refresh: skipped, graph is being updated");
+            return;
+        }
+        try {
+            if (this.ready) {
+                this.refreshGraph();
+            } else {
+                this.rebuildGraph();
+            }
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    private void refreshGraph() {
+        LocalDateTime since = this.watermark.minusNanos(this.overlap * 1000000L);
+        EdgeList changes = new EdgeList();
+        LocalDateTime latest = LocalDateTime.now();
+        if (this.watermark.isAfter(latest)) {
+            latest = this.watermark;
+        }
+        try {
+            long lastId = 0;
+            List<GoodsRelationPo> batch;
+            do {
+                batch = this.goodsPoMapper.findModifiedSince(since, lastId, Limit.of(this.batchSize));
+                for (GoodsRelationPo po : batch) {
+                    changes.add(po);
+                    latest = later(latest, po);
+                    lastId = po.getId();
+                }
+            } while (batch.size() == this.batchSize);
+        } catch (RuntimeException e) {
+            log.error("refresh: failed, e = {}", e.getMessage());
+            return;
+        }
+        if (changes.size > 0) {
+            this.graph = this.graph.merge(changes);
+        }
+        this.watermark = latest;
+        log.debug("refresh: since = {}, {} relations changed, watermark = {}", since, changes.size, latest);
+    }
+
+    private static LocalDateTime later(LocalDateTime latest, GoodsRelationPo po) {
+        if (po.getGmtCreate() != null && po.getGmtCreate().isAfter(latest)) {
+            latest = po.getGmtCreate();
+        }
+        if (po.getGmtModified() != null && po.getGmtModified().isAfter(latest)) {
+            latest = po.getGmtModified();
+        }
+        return latest;
+    }
+
+    /**
+     * 建图用的关联列表，三个数组一一对应
+     */
+    static final class EdgeList {
+
+        private long[] ids = new long[16];
+        private long[] sources = new long[16];
+        private long[] targets = new long[16];
+        private int size;
+
+        /**
+         * 加入一条关联，两端商品不全的忽略
+         */
+        void add(GoodsRelationPo po) {
+            if (po.getId() != null && po.getProductId() != null && po.getRelateProductId() != null) {
+                this.add(po.getId(), po.getProductId(), po.getRelateProductId());
+            }
+        }
+
+        void add(long id, long source, long target) {
+            if (this.size == this.ids.length) {
+                int capacity = this.size * 2;
+                this.ids = Arrays.copyOf(this.ids, capacity);
+                this.sources = Arrays.copyOf(this.sources, capacity);
+                this.targets = Arrays.copyOf(this.targets, capacity);
+            }
+            this.ids[this.size] = id;
+            this.sources[this.size] = source;
+            this.targets[this.size] = target;
+            this.size++;
+        }
+    }
+
+    /**
+     * 压缩稀疏行结构的关联图
+     * products升序，第i个商品的关联商品是targets[offsets[i]]到targets[offsets[i + 1] - 1]，
+     * ids是对应的goods_goods.id，增量合并时按id替换修改过的关联
+     */
+    static final class Csr {
+
+        static final Csr EMPTY = new Csr(new long[0], new int[1], new long[0], new long[0]);
+
+        private final long[] products;
+        private final int[] offsets;
+        private final long[] targets;
+        private final long[] ids;
+
+        private Csr(long[] products, int[] offsets, long[] targets, long[] ids) {
+            this.products = products;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.ids = ids;
+        }
+
+        int indexOf(long productId) {
+            return Arrays.binarySearch(this.products, productId);
+        }
+
+        long memoryBytes() {
+            return 8L * this.products.length + 4L * this.offsets.length + 16L * this.targets.length;
+        }
+
+        /**
+         * 按edges建图，同一商品的关联按id排列
+         */
+        static Csr of(EdgeList edges) {
+            long[] products = Arrays.copyOf(edges.sources, edges.size);
+            Arrays.sort(products);
+            int n = 0;
+            for (int i = 0; i < products.length; i++) {
+                if (n == 0 || products[i] != products[n - 1]) {
+                    products[n++] = products[i];
+                }
+            }
+            products = Arrays.copyOf(products, n);
+            int[] offsets = new int[n + 1];
+            int[] rows = new int[edges.size];
+            for (int i = 0; i < edges.size; i++) {
+                rows[i] = Arrays.binarySearch(products, edges.sources[i]);
+                offsets[rows[i] + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] next = Arrays.copyOf(offsets, n);
+            long[] targets = new long[edges.size];
+            long[] ids = new long[edges.size];
+            for (int i = 0; i < edges.size; i++) {
+                int position = next[rows[i]]++;
+                targets[position] = edges.targets[i];
+                ids[position] = edges.ids[i];
+            }
+            // 每个商品的关联通常很少且大多已经有序，用插入排序
+            for (int i = 0; i < n; i++) {
+                for (int j = offsets[i] + 1; j < offsets[i + 1]; j++) {
+                    long id = ids[j];
+                    long target = targets[j];
+                    int k = j - 1;
+                    while (k >= offsets[i] && ids[k] > id) {
+                        ids[k + 1] = ids[k];
+                        targets[k + 1] = targets[k];
+                        k--;
+                    }
+                    ids[k + 1] = id;
+                    targets[k + 1] = target;
+                }
+            }
+            return new Csr(products, offsets, targets, ids);
+        }
+
+        /**
+         * 合并新增或修改的关联，返回新图
+         * 修改过的关联（id在changes中）以changes中的为准
+         */
+        Csr merge(EdgeList changes) {
+            long[] changed = Arrays.copyOf(changes.ids, changes.size);
+            Arrays.sort(changed);
+            EdgeList edges = new EdgeList();
+            for (int i = 0; i < this.products.length; i++) {
+                for (int j = this.offsets[i]; j < this.offsets[i + 1]; j++) {
+                    if (Arrays.binarySearch(changed, this.ids[j]) < 0) {
+                        edges.add(this.ids[j], this.products[i], this.targets[j]);
+                    }
+                }
+            }
+            for (int i = 0; i < changes.size; i++) {
+                edges.add(changes.ids[i], changes.sources[i], changes.targets[i]);
+            }
+            return of(edges);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.dao;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductNamePo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品名称的前缀联想
+ * 联想词来自不可变的字典树，只在本节点内存中查询，不访问数据库和Redis。
+ * 字典树在后台定期从数据库重建，建好之后整体替换，查询不加锁。
+ * 同名的商品合并为一个联想词，权重为这些商品的热度之和，
+ * 热度是本节点上商品详情被浏览的次数，每次重建时减半，反映近期的热度
+ */
+@Component
+@Slf4j
+public class ProductSuggester {
+
+    /**
+     * 权重的上限，与联想词编号一起放进一个long
+     */
+    private static final int MAX_WEIGHT = (1 << 30) - 1;
+
+    private final ProductPoMapper productPoMapper;
+    private final int batchSize;
+
+    private final Map<Long, LongAdder> views = new ConcurrentHashMap<>();
+    private volatile Trie trie = Trie.EMPTY;
+
+    public ProductSuggester(ProductPoMapper productPoMapper,
+                            @Value("${javaee.productdemoredis.suggest.batch-size:1000}") int batchSize,
+                            MeterRegistry meterRegistry) {
+        this.productPoMapper = productPoMapper;
+        this.batchSize = batchSize;
+        Gauge.builder("product.suggest.names", this, suggester -> suggester.trie.size()).register(meterRegistry);
+        Gauge.builder("product.suggest.memory", this, suggester -> suggester.trie.memoryBytes())
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * 记录一次商品浏览
+     */
+    public void recordView(Long productId) {
+        if (productId != null) {
+            this.views.computeIfAbsent(productId, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 以prefix开头的商品名称，按热度从高到低
+     * @param prefix 前缀，大小写和全角半角不敏感
+     * @param limit 最多返回的个数
+     * @return 商品名称
+     */
+    public List<String> suggest(String prefix, int limit) {
+        assert limit > 0;
+        String normalized = ProductNameIndex.normalize(prefix);
+        if (normalized.isEmpty()) {
+            return List.of();
+        }
+        return this.trie.suggest(normalized, limit);
+    }
+
+    /**
+     * 联想词的个数
+     */
+    public int size() {
+        return this.trie.size();
+    }
+
+    /**
+     * 字典树占用内存的估计值（字节）
+     */
+    public long memoryBytes() {
+        return this.trie.memoryBytes();
+    }
+
+    /**
+     * 从数据库重建字典树，启动时执行一次，之后定期执行
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.suggest.rebuild-interval:300000}")
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        Map<Long, Long> weights = this.decayViews();
+        TreeMap<String, Suggestion> names = new TreeMap<>();
+        try {
+            long lastId = 0;
+            List<ProductNamePo> batch;
+            do {
+                batch = this.productPoMapper.findByIdGreaterThanOrderByIdAsc(lastId, Limit.of(this.batchSize));
+                for (ProductNamePo po : batch) {
+                    lastId = po.getId();
+                    String normalized = ProductNameIndex.normalize(po.getName());
+                    if (normalized.isEmpty()) {
+                        continue;
+                    }
+                    names.computeIfAbsent(normalized, k -> new Suggestion())
+                            .add(po.getName().strip(), weights.getOrDefault(po.getId(), 0L));
+                }
+            } while (batch.size() == this.batchSize);
+        } catch (RuntimeException e) {
+            log.error("rebuild: failed, e = {}", e.getMessage());
+            return;
+        }
+        Trie rebuilt = Trie.build(names);
+        this.trie = rebuilt;
+        double perMillion = rebuilt.size() == 0 ? 0 : rebuilt.memoryBytes() * 1e6 / rebuilt.size() / (1 << 20);
+        log.info("rebuild: {} names, {} nodes, {} bytes ({} MB per million names), {} ms",
+                rebuilt.size(), rebuilt.nodes(), rebuilt.memoryBytes(), String.format("%.1f", perMillion),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 同一规范化名称的商品合并成的联想词，显示其中热度最高的商品的名称
+     */
+    static final class Suggestion {
+        private String name;
+        private long weight;
+        private long top = -1;
+
+        void add(String name, long weight) {
+            if (weight > this.top) {
+                this.name = name;
+                this.top = weight;
+            }
+            this.weight += weight;
+        }
+    }
+
+    /**
+     * 取出浏览次数作为权重，并把计数减半
+     */
+    private Map<Long, Long> decayViews() {
+        Map<Long, Long> weights = new HashMap<>(this.views.size());
+        Iterator<Map.Entry<Long, LongAdder>> iterator = this.views.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, LongAdder> entry = iterator.next();
+            long count = entry.getValue().sum();
+            weights.put(entry.getKey(), count);
+            if (count <= 1) {
+                iterator.remove();
+            } else {
+                entry.getValue().add(-(count - count / 2));
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * 不可变的字典树
+     * 节点按层次编号，同一节点的子节点编号连续、按字符排序，只需记录第一个子节点的编号，
+     * 每个节点只占一个char和三个int：边上的字符、第一个子节点、联想词编号（不是词尾为-1）、子树中最好的联想词编号。
+     * 联想词按字典序编号，子树中最好的联想词是权重最大的，同权重时是字典序最前的；
+     * 前k个联想词按优先队列展开，每个子树以其中最好的联想词排序，只沿着通向结果的路径展开
+     */
+    static final class Trie {
+
+        static final Trie EMPTY = build(new TreeMap<>());
+
+        private final char[] labels;
+        /**
+         * 节点i的子节点为[firstChild[i], firstChild[i + 1])
+         */
+        private final int[] firstChild;
+        private final int[] outputs;
+        private final int[] best;
+        private final String[] names;
+        /**
+         * 联想词的权重，上限为MAX_WEIGHT
+         */
+        private final int[] weights;
+        private final long memoryBytes;
+
+        private Trie(char[] labels, int[] firstChild, int[] outputs, int[] best, String[] names, int[] weights) {
+            this.labels = labels;
+            this.firstChild = firstChild;
+            this.outputs = outputs;
+            this.best = best;
+            this.names = names;
+            this.weights = weights;
+            this.memoryBytes = estimateMemory();
+        }
+
+        /**
+         * 临时的树节点，按字典序插入时子节点总是追加在最后
+         */
+        private static final class Node {
+            private final char label;
+            private final List<Node> children = new ArrayList<>(2);
+            private int output = -1;
+            private int best = -1;
+
+            Node(char label) {
+                this.label = label;
+            }
+        }
+
+        /**
+         * @param entries 按规范化名称排序的联想词
+         */
+        static Trie build(SortedMap<String, Suggestion> entries) {
+            Node root = new Node('\0');
+            String[] names = new String[entries.size()];
+            int[] weights = new int[entries.size()];
+            int count = 0;
+            int nodes = 1;
+            for (Map.Entry<String, Suggestion> entry : entries.entrySet()) {
+                int weight = (int) Math.min(MAX_WEIGHT, entry.getValue().weight);
+                Node node = root;
+                node.best = better(node.best, count, weights, weight);
+                for (char c : entry.getKey().toCharArray()) {
+                    Node last = node.children.isEmpty() ? null : node.children.get(node.children.size() - 1);
+                    if (last == null || last.label != c) {
+                        last = new Node(c);
+                        node.children.add(last);
+                        nodes++;
+                    }
+                    node = last;
+                    node.best = better(node.best, count, weights, weight);
+                }
+                names[count] = entry.getValue().name;
+                weights[count] = weight;
+                node.output = count++;
+            }
+            char[] labels = new char[nodes];
+            int[] firstChild = new int[nodes + 1];
+            int[] outputs = new int[nodes];
+            int[] best = new int[nodes];
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(root);
+            int index = 0;
+            int next = 1;
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                labels[index] = node.label;
+                outputs[index] = node.output;
+                best[index] = node.best;
+                firstChild[index] = next;
+                next += node.children.size();
+                queue.addAll(node.children);
+                index++;
+            }
+            firstChild[nodes] = next;
+            return new Trie(labels, firstChild, outputs, best, names, weights);
+        }
+
+        /**
+         * 子树中原有最好的联想词best与新加入的联想词output（编号更大，字典序更后）比较，权重更大的为新的最好的
+         */
+        private static int better(int best, int output, int[] weights, int weight) {
+            return best < 0 || weight > weights[best] ? output : best;
+        }
+
+        int size() {
+            return this.names.length;
+        }
+
+        int nodes() {
+            return this.labels.length;
+        }
+
+        /**
+         * 估计占用的内存：节点数组，加上联想词的字符串（对象头、数组头和内容）
+         */
+        long memoryBytes() {
+            return this.memoryBytes;
+        }
+
+        private long estimateMemory() {
+            long bytes = 2L * this.labels.length + 4L * (this.firstChild.length + this.outputs.length + this.best.length)
+                    + 8L * this.names.length + 4L * this.weights.length;
+            for (String name : this.names) {
+                boolean latin1 = name.chars().allMatch(c -> c < 256);
+                bytes += 24 + 16 + (long) name.length() * (latin1 ? 1 : 2);
+            }
+            return bytes;
+        }
+
+        List<String> suggest(String prefix, int limit) {
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = this.child(node, prefix.charAt(i));
+                if (node < 0) {
+                    return List.of();
+                }
+            }
+            if (this.best[node] < 0) {
+                return List.of();
+            }
+            // 队列中的元素：联想词权重越大越靠前，同权重时字典序靠前的靠前，最低位为1的是联想词本身，为0的是以它为最好的子树
+            PriorityQueue<Long> queue = new PriorityQueue<>();
+            Map<Integer, Integer> subtrees = new HashMap<>();
+            this.push(queue, subtrees, node);
+            List<String> result = new ArrayList<>(limit);
+            while (!queue.isEmpty() && result.size() < limit) {
+                long head = queue.poll();
+                int output = (int) ((head >>> 1) & 0x7FFFFFFFL);
+                if ((head & 1) == 1) {
+                    result.add(this.names[output]);
+                    continue;
+                }
+                int current = subtrees.remove(output);
+                if (this.outputs[current] == output) {
+                    result.add(this.names[output]);
+                } else if (this.outputs[current] >= 0) {
+                    queue.add(entry(this.outputs[current], true));
+                }
+                for (int c = this.firstChild[current]; c < this.firstChild[current + 1]; c++) {
+                    this.push(queue, subtrees, c);
+                }
+            }
+            return result;
+        }
+
+        private void push(PriorityQueue<Long> queue, Map<Integer, Integer> subtrees, int node) {
+            queue.add(entry(this.best[node], false));
+            subtrees.put(this.best[node], node);
+        }
+
+        private long entry(int output, boolean self) {
+            return ((long) (MAX_WEIGHT - this.weights[output]) << 32) | ((long) output << 1) | (self ? 1 : 0);
+        }
+
+        /**
+         * 在子节点中二分查找字符
+         * @return 子节点编号，没有时返回-1
+         */
+        private int child(int node, char c) {
+            int low = this.firstChild[node];
+            int high = this.firstChild[node + 1] - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (this.labels[mid] < c) {
+                    low = mid + 1;
+                } else if (this.labels[mid] > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+}
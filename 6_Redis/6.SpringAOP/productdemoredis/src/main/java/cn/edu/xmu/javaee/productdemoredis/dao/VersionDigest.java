@@ -0,0 +1,35 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * 缓存内容的版本，用于ETag
+ * 取内容的SHA-256的前8个字节（16位十六进制），与JVM无关，各节点对同样的内容算出同样的版本；
+ * 64位的摘要在一个商品先后的版本之间发生碰撞的概率可以忽略，不像32位的hashCode
+ */
+final class VersionDigest {
+
+    private static final int LENGTH = 8;
+
+    private VersionDigest() {
+    }
+
+    /**
+     * @param content 内容，用bo的toString()，Lombok生成的toString()只由字段的值组成
+     * @return 16位十六进制的版本
+     */
+    static String of(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(Arrays.copyOf(digest, LENGTH));
+        } catch (NoSuchAlgorithmException e) {
+            // 每个Java平台都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import cn.edu.xmu.javaee.core.clonefactory.CopyFrom;
 import cn.edu.xmu.javaee.core.clonefactory.CopyNotNullTo;
 import cn.edu.xmu.javaee.core.clonefactory.CopyTo;
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductSnapshotPo;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -21,7 +22,7 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-@CopyFrom({ProductPo.class})
+@CopyFrom({ProductPo.class, ProductSnapshotPo.class})
 @CopyNotNullTo({ProductPo.class})
 @CopyTo({ProductPo.class})
 public class Product implements Serializable {
@@ -1,11 +1,48 @@
 package cn.edu.xmu.javaee.productdemoredis.mapper;
 
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsRelationPo;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.HibernateHints.HINT_CACHE_MODE;
+import static org.hibernate.jpa.HibernateHints.HINT_CACHE_REGION;
+
 public interface GoodsPoMapper extends JpaRepository<GoodsPo, Long> {
-    List<GoodsPo> findByProductId(Long productId);
+    /**
+     * 结果（关联的GoodsPo的id）放在查询缓存中，goods_goods表有修改时失效
+     */
+    @QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"), @QueryHint(name = HINT_CACHE_REGION, value = "goods_goods.byProduct")})
+    @Query("SELECT g FROM GoodsPo g WHERE g.productId = :productId")
+    List<GoodsPo> findByProductId(@Param("productId") Long productId);
+
+    /**
+     * 与findByProductId是同一个查询，但不读查询缓存和二级缓存，读出后刷新缓存。结果要写入共享的Redis缓存时使用
+     */
+    @QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"), @QueryHint(name = HINT_CACHE_REGION, value = "goods_goods.byProduct"),
+            @QueryHint(name = HINT_CACHE_MODE, value = "REFRESH")})
+    @Query("SELECT g FROM GoodsPo g WHERE g.productId = :productId")
+    List<GoodsPo> findFreshByProductId(@Param("productId") Long productId);
+
+    /**
+     * 按id分批扫描全部关联关系
+     */
+    List<GoodsRelationPo> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    /**
+     * 按id分批扫描since之后新增或修改的关联关系
+     */
+    @Query("SELECT g.id AS id, g.productId AS productId, g.relateProductId AS relateProductId, g.gmtCreate AS gmtCreate, "
+            + "g.gmtModified AS gmtModified FROM GoodsPo g "
+            + "WHERE (g.gmtModified >= :since OR g.gmtCreate >= :since) AND g.id > :id ORDER BY g.id")
+    List<GoodsRelationPo> findModifiedSince(@Param("since") LocalDateTime since, @Param("id") Long id, Limit limit);
 
 }
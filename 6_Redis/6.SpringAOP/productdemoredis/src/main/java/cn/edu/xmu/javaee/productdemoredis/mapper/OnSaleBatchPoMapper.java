@@ -0,0 +1,20 @@
+package cn.edu.xmu.javaee.productdemoredis.mapper;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.OnSaleBatchPo;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface OnSaleBatchPoMapper extends JpaRepository<OnSaleBatchPo, String> {
+
+    /**
+     * 删除写回时间早于before的批次记录
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM OnSaleBatchPo b WHERE b.gmtCreate < :before")
+    int deleteByGmtCreateBefore(@Param("before") LocalDateTime before);
+}
@@ -3,6 +3,9 @@ package cn.edu.xmu.javaee.productdemoredis.mapper;
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.OnSalePo;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -11,4 +14,13 @@ public interface OnSalePoMapper extends JpaRepository<OnSalePo, Long> {
 
     List<OnSalePo> findByProductIdEqualsAndBeginTimeBeforeAndEndTimeAfter(Long productId, LocalDateTime beginTime, LocalDateTime endTime, Pageable pageable);
 
+    List<OnSalePo> findByBeginTimeBetween(LocalDateTime from, LocalDateTime to, Pageable pageable);
+
+    /**
+     * 扣减库存，一个批次中同一OnSale的多次预留合并为一次UPDATE
+     */
+    @Modifying
+    @Query("UPDATE OnSalePo o SET o.quantity = o.quantity - :quantity WHERE o.id = :id")
+    int decreaseQuantity(@Param("id") Long id, @Param("quantity") int quantity);
+
 }
@@ -0,0 +1,18 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+
+import java.util.List;
+
+/**
+ * 商品的批量写入，是ProductPoMapper的一部分，实现见ProductPoBatchMapperImpl
+ */
+public interface ProductPoBatchMapper {
+    /**
+     * 用一个JDBC批次插入商品，插入后把生成的id写回每个po
+     * 只写入shopId、名称、价格等基本信息和creator，其余列取数据库的默认值
+     * @param pos 新商品
+     */
+    void insertAll(List<ProductPo> pos);
+}
@@ -0,0 +1,73 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 商品的批量写入
+ * 主键是自增列，Hibernate必须逐条执行INSERT才能取回id，不能合并成批次，
+ * 因此绕过持久化上下文直接用JDBC批量插入，由驱动一次取回全部生成的id。
+ * MySQL需要在url中加上rewriteBatchedStatements=true，驱动才会把一个批次改写成一条多值INSERT
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class ProductPoBatchMapperImpl implements ProductPoBatchMapper {
+
+    private static final String INSERT_SQL = "INSERT INTO goods_product (shop_id, name, original_price, weight, barcode, unit, "
+            + "origin_place, creator, gmt_create) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAll(List<ProductPo> pos) {
+        if (pos.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        this.jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_SQL, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ProductPo po = pos.get(i);
+                        ps.setObject(1, po.getShopId(), Types.BIGINT);
+                        ps.setString(2, po.getName());
+                        ps.setObject(3, po.getOriginalPrice(), Types.BIGINT);
+                        ps.setObject(4, po.getWeight(), Types.BIGINT);
+                        ps.setString(5, po.getBarcode());
+                        ps.setString(6, po.getUnit());
+                        ps.setString(7, po.getOriginPlace());
+                        ps.setString(8, po.getCreator());
+                        ps.setTimestamp(9, now);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return pos.size();
+                    }
+                }, keyHolder);
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        if (keys.size() != pos.size()) {
+            throw new IllegalStateException(String.format("insertAll: %d rows inserted but %d keys returned", pos.size(), keys.size()));
+        }
+        for (int i = 0; i < pos.size(); i++) {
+            pos.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+            pos.get(i).setGmtCreate(now.toLocalDateTime());
+        }
+        log.debug("insertAll: {} products inserted", pos.size());
+    }
+}
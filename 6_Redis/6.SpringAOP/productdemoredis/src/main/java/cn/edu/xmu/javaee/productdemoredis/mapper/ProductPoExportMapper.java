@@ -0,0 +1,21 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductExportPo;
+
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * 导出商品目录的查询，是ProductPoMapper的一部分，实现见ProductPoExportMapperImpl
+ */
+public interface ProductPoExportMapper {
+    /**
+     * 商铺的全部商品左连接当前有效的OnSale，按商品id排序，同一商品的行相邻
+     * 返回的流持有一个数据库连接，用完必须关闭
+     * @param shopId 商铺id
+     * @param now 当前时间
+     * @return 商品和OnSale的行
+     */
+    Stream<ProductExportPo> streamByShopId(Long shopId, LocalDateTime now);
+}
@@ -0,0 +1,90 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper;
+
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductExportPo;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * 导出商品目录的查询
+ * 使用DataSourceConfig中的exportDataSource，不占用主库连接池的连接。
+ * 语句设置了fetch size，MySQL需要在导出连接池的url中加上useCursorFetch=true，驱动才用服务端游标分批读取，
+ * 这个参数会让驱动对所有语句使用服务端预编译，因此只加在导出连接池上
+ */
+public class ProductPoExportMapperImpl implements ProductPoExportMapper {
+
+    private static final String EXPORT_SQL = "SELECT p.id, p.shop_id, p.name, p.original_price, p.weight, p.barcode, p.unit, "
+            + "p.origin_place, p.status, p.commission_ratio, p.free_threshold, p.gmt_create, p.gmt_modified, "
+            + "o.id AS onsale_id, o.price, o.begin_time, o.end_time, o.quantity, o.max_quantity "
+            + "FROM goods_product p LEFT JOIN goods_onsale o ON o.product_id = p.id AND o.begin_time < ? AND o.end_time > ? "
+            + "WHERE p.shop_id = ? ORDER BY p.id, o.end_time DESC";
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ProductPoExportMapperImpl(@Qualifier("exportDataSource") DataSource exportDataSource) {
+        this.jdbcTemplate = new JdbcTemplate(exportDataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    @Override
+    public Stream<ProductExportPo> streamByShopId(Long shopId, LocalDateTime now) {
+        return this.jdbcTemplate.queryForStream(EXPORT_SQL, (rs, rowNum) -> new ExportRow(rs), now, now, shopId);
+    }
+
+    /**
+     * 导出的一行，构造时从ResultSet的当前行读出全部列
+     */
+    @Getter
+    private static class ExportRow implements ProductExportPo {
+        private final Long id;
+        private final Long shopId;
+        private final String name;
+        private final Long originalPrice;
+        private final Long weight;
+        private final String barcode;
+        private final String unit;
+        private final String originPlace;
+        private final Byte status;
+        private final Integer commissionRatio;
+        private final Long freeThreshold;
+        private final LocalDateTime gmtCreate;
+        private final LocalDateTime gmtModified;
+        private final Long onsaleId;
+        private final Long price;
+        private final LocalDateTime beginTime;
+        private final LocalDateTime endTime;
+        private final Integer quantity;
+        private final Integer maxQuantity;
+
+        ExportRow(ResultSet rs) throws SQLException {
+            this.id = rs.getObject("id", Long.class);
+            this.shopId = rs.getObject("shop_id", Long.class);
+            this.name = rs.getString("name");
+            this.originalPrice = rs.getObject("original_price", Long.class);
+            this.weight = rs.getObject("weight", Long.class);
+            this.barcode = rs.getString("barcode");
+            this.unit = rs.getString("unit");
+            this.originPlace = rs.getString("origin_place");
+            this.status = rs.getObject("status", Byte.class);
+            this.commissionRatio = rs.getObject("commission_ratio", Integer.class);
+            this.freeThreshold = rs.getObject("free_threshold", Long.class);
+            this.gmtCreate = rs.getObject("gmt_create", LocalDateTime.class);
+            this.gmtModified = rs.getObject("gmt_modified", LocalDateTime.class);
+            this.onsaleId = rs.getObject("onsale_id", Long.class);
+            this.price = rs.getObject("price", Long.class);
+            this.beginTime = rs.getObject("begin_time", LocalDateTime.class);
+            this.endTime = rs.getObject("end_time", LocalDateTime.class);
+            this.quantity = rs.getObject("quantity", Integer.class);
+            this.maxQuantity = rs.getObject("max_quantity", Integer.class);
+        }
+    }
+}
@@ -1,14 +1,71 @@
 package cn.edu.xmu.javaee.productdemoredis.mapper;
 
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductNamePo;
 import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
-import org.springframework.data.domain.Pageable;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductSnapshotPo;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
-public interface ProductPoMapper extends JpaRepository<ProductPo, Long> {
-    List<ProductPo> findByName(String name, Pageable pageable);
-    List<ProductPo> findByShopIdAndName(Long shopId, String name, Pageable pageable);
-    List<ProductPo> findByIdIn(List<Long> ids);
+import static org.hibernate.jpa.HibernateHints.HINT_CACHE_MODE;
+
+public interface ProductPoMapper extends JpaRepository<ProductPo, Long>, ProductPoBatchMapper, ProductPoExportMapper {
+    /**
+     * 从数据库读商品，不读二级缓存，读出后刷新二级缓存
+     * 读出的商品要写入共享的Redis缓存时使用，findById可能读到本节点二级缓存中其他节点修改之前的旧值
+     */
+    @QueryHints(@QueryHint(name = HINT_CACHE_MODE, value = "REFRESH"))
+    @Query("SELECT p FROM ProductPo p WHERE p.id = :id")
+    Optional<ProductPo> findFreshById(@Param("id") Long id);
+
+    /**
+     * 按游标分页：取id大于游标的前limit个，用(name, id)索引直接定位，不扫描前面的页
+     */
+    List<ProductSnapshotPo> findByNameAndIdGreaterThanOrderByIdAsc(String name, Long id, Limit limit);
+    /**
+     * 按游标分页：取id大于游标的前limit个，用(shop_id, name, id)索引直接定位，不扫描前面的页
+     */
+    List<ProductSnapshotPo> findByShopIdAndNameAndIdGreaterThanOrderByIdAsc(Long shopId, String name, Long id, Limit limit);
+    List<ProductSnapshotPo> findByIdIn(List<Long> ids);
+    /**
+     * 按id顺序分批读出所有商品的名称，用于建立名称索引
+     */
+    List<ProductNamePo> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    /**
+     * ids中属于商铺的商品，shopId为null时不限商铺，用于批量修改和删除前确定范围
+     */
+    @Query("SELECT p.id AS id, p.shopId AS shopId, p.name AS name FROM ProductPo p "
+            + "WHERE (:shopId IS NULL OR p.shopId = :shopId) AND p.id IN :ids ORDER BY p.id")
+    List<ProductNamePo> findNameByShopIdAndIdIn(@Param("shopId") Long shopId, @Param("ids") Collection<Long> ids);
+
+    /**
+     * 一条UPDATE批量修改商品，参数为null的列不修改
+     * 不经过持久化上下文，不触发审计，modifier和gmtModified由调用者给出
+     * @return 修改的行数
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE ProductPo p SET p.name = COALESCE(:#{#po.name}, p.name), "
+            + "p.originalPrice = COALESCE(:#{#po.originalPrice}, p.originalPrice), p.weight = COALESCE(:#{#po.weight}, p.weight), "
+            + "p.barcode = COALESCE(:#{#po.barcode}, p.barcode), p.unit = COALESCE(:#{#po.unit}, p.unit), "
+            + "p.originPlace = COALESCE(:#{#po.originPlace}, p.originPlace), "
+            + "p.modifier = :#{#po.modifier}, p.gmtModified = :#{#po.gmtModified} WHERE p.id IN :ids")
+    int updateAllByIdIn(@Param("po") ProductPo po, @Param("ids") Collection<Long> ids);
+
+    /**
+     * 一条DELETE批量删除商品
+     * @return 删除的行数
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM ProductPo p WHERE p.id IN :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Long> ids);
 
 }
@@ -0,0 +1,21 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper.po;
+
+import java.time.LocalDateTime;
+
+/**
+ * 商品关联关系的投影，只查询goods_goods的id、两端的商品id和时间
+ * 投影不是实体，不进入持久化上下文和二级缓存，用于全表按批扫描关联关系（关联图）
+ */
+public interface GoodsRelationPo {
+
+    Long getId();
+
+    Long getProductId();
+
+    Long getRelateProductId();
+
+    LocalDateTime getGmtCreate();
+
+    LocalDateTime getGmtModified();
+}
@@ -0,0 +1,31 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper.po;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * 已经写回goods_onsale的库存预留批次
+ * 与库存的UPDATE在同一个事务中写入，同一批次重复投递时据此跳过，保证每批只扣减一次
+ * CREATE TABLE goods_onsale_batch (batch_id VARCHAR(128) PRIMARY KEY, gmt_create DATETIME NOT NULL)
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@Table(name = "goods_onsale_batch")
+public class OnSaleBatchPo {
+
+    @Id
+    private String batchId;
+
+    private LocalDateTime gmtCreate;
+}
@@ -15,12 +15,16 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import java.time.LocalDateTime;
 
+/**
+ * 不放在二级缓存中：Redis中的库存被淘汰后按数据库中的库存重建，OnSale详情的缓存在写回库存后也从数据库刷新，
+ * 本节点的旧值会使库存多出其他节点已经写回的部分
+ */
 @Entity
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @ToString
-@Table(name="goods_onsale")
+@Table(name="goods_onsale", indexes = @Index(name = "idx_onsale_product_end", columnList = "product_id, end_time"))
 @DynamicInsert
 @DynamicUpdate
 @EntityListeners(AuditingEntityListener.class)
@@ -0,0 +1,23 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper.po;
+
+import java.time.LocalDateTime;
+
+/**
+ * 导出商品目录的一行：商品快照的列，加上一个当前有效的OnSale的列
+ * 商品左连接OnSale，有多个当前有效的OnSale的商品有多行，没有的商品只有一行，OnSale的列为null
+ */
+public interface ProductExportPo extends ProductSnapshotPo {
+
+    Long getOnsaleId();
+
+    Long getPrice();
+
+    LocalDateTime getBeginTime();
+
+    LocalDateTime getEndTime();
+
+    Integer getQuantity();
+
+    Integer getMaxQuantity();
+}
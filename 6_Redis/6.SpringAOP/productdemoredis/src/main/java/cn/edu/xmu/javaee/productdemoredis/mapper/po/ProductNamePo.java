@@ -0,0 +1,15 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper.po;
+
+/**
+ * 商品名称的投影，只查询id、shop_id和name三列
+ * 投影不是实体，不进入持久化上下文，用于全表按批扫描名称（名称索引、联想词）
+ */
+public interface ProductNamePo {
+
+    Long getId();
+
+    Long getShopId();
+
+    String getName();
+}
@@ -0,0 +1,32 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.mapper.po;
+
+import java.time.LocalDateTime;
+
+/**
+ * 商品快照的投影，只查询缓存的商品快照（Product的基本信息）需要的列，
+ * 不查询category_id、template_id、shop_logistic_id和creator、modifier等后台字段。
+ * 投影不是实体，不进入持久化上下文，也不为脏检查保存一份副本，用于只读的列表和关联商品查询
+ */
+public interface ProductSnapshotPo extends ProductNamePo {
+
+    Long getOriginalPrice();
+
+    Long getWeight();
+
+    String getBarcode();
+
+    String getUnit();
+
+    String getOriginPlace();
+
+    Byte getStatus();
+
+    Integer getCommissionRatio();
+
+    Long getFreeThreshold();
+
+    LocalDateTime getGmtCreate();
+
+    LocalDateTime getGmtModified();
+}
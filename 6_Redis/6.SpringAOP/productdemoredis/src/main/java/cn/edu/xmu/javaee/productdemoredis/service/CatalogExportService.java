@@ -0,0 +1,86 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service;
+
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.CatalogExportVo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * 导出商品目录到文件，供合作方每晚取用
+ * 先写到同一目录下的临时文件，写完之后再改名，合作方不会读到写了一半的文件
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class CatalogExportService {
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    @Value("${javaee.productdemoredis.export.dir:export}")
+    private String dir;
+
+    @Value("${javaee.productdemoredis.export.shops:}")
+    private List<Long> nightlyShops;
+
+    @Value("${javaee.productdemoredis.export.format:ndjson}")
+    private String nightlyFormat;
+
+    private final ProductService productService;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 导出商铺的全部商品及其当前有效的OnSale
+     * @param shopId 商铺id
+     * @param format ndjson或csv
+     * @return 导出的文件
+     * @throws BusinessException 格式不支持时抛出FIELD_NOTVALID
+     */
+    public CatalogExportVo exportCatalog(Long shopId, String format) throws IOException {
+        ProductExportWriter.checkFormat(format);
+        Path directory = Files.createDirectories(Path.of(this.dir));
+        String name = String.format("shop-%d-%s.%s", shopId, LocalDateTime.now().format(FILE_TIME), format);
+        Path temp = Files.createTempFile(directory, name, ".tmp");
+        ProductExportWriter exportWriter;
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            exportWriter = ProductExportWriter.of(format, writer, this.objectMapper);
+            this.productService.exportProducts(shopId, exportWriter);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Path file = Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        CatalogExportVo vo = CatalogExportVo.builder().file(name).format(format).products(exportWriter.getProducts())
+                .onsales(exportWriter.getOnsales()).bytes(Files.size(file)).build();
+        log.info("exportCatalog: shopId = {}, export = {}", shopId, vo);
+        return vo;
+    }
+
+    /**
+     * 每晚导出javaee.productdemoredis.export.shops中各商铺的商品目录，没有配置cron时不执行
+     */
+    @Scheduled(cron = "${javaee.productdemoredis.export.cron:-}")
+    public void exportNightly() {
+        for (Long shopId : this.nightlyShops) {
+            try {
+                this.exportCatalog(shopId, this.nightlyFormat);
+            } catch (IOException | RuntimeException e) {
+                log.error("exportNightly: shopId = {}, e = {}", shopId, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service;
+
+import cn.edu.xmu.javaee.core.bean.RequestVariables;
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.model.UserToken;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.ReservationVo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * 秒杀库存服务
+ * 预留只访问Redis，不开启数据库事务，避免每个请求占用一个数据库连接
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OnSaleService {
+
+    /**
+     * 预加载开始时间在当前时间前后preload-ahead秒内的OnSale，应大于预加载的间隔
+     */
+    @Value("${javaee.productdemoredis.stock.preload-ahead:120}")
+    private long preloadAhead;
+
+    private final OnSaleDao onSaleDao;
+    private final RequestVariables requestVariables;
+
+    /**
+     * 预留秒杀库存
+     * @param id OnSale id
+     * @param quantity 购买数量
+     * @return 预留结果
+     */
+    public ReservationVo reserve(Long id, Integer quantity) throws BusinessException {
+        assert id != null && quantity != null && quantity > 0;
+        UserToken user = this.requestVariables.getUser();
+        if (Objects.isNull(user) || Objects.isNull(user.getId())) {
+            throw new BusinessException(ReturnNo.AUTH_NEED_LOGIN, JacksonUtil.toJson(new String[] {}));
+        }
+        long stock = this.onSaleDao.reserve(id, user.getId(), quantity);
+        return ReservationVo.builder().onsaleId(id).quantity(quantity).stock(stock).build();
+    }
+
+    /**
+     * 定时把即将开始的OnSale的库存加载到Redis，开始时的第一批请求不必回源数据库
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.stock.preload-interval:30000}")
+    public void preloadStock() {
+        LocalDateTime now = LocalDateTime.now();
+        int loaded = this.onSaleDao.preloadStock(now.minusSeconds(this.preloadAhead), now.plusSeconds(this.preloadAhead));
+        if (loaded > 0) {
+            log.info("preloadStock: {} onsales loaded", loaded);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service;
+
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把Redis中预留的库存异步写回goods_onsale.quantity
+ * 每个实例是消费组中的一个消费者，各分区的预留流水按批读取，同一OnSale的多次预留合并为一次UPDATE。
+ * 数据库事务提交之后才确认流水，至少写回一次；批次id与扣减在同一个事务中记录，重复投递的批次不会重复扣减。
+ * 批次记录只在批次可能被重新投递时有用，定期删除早于流中最早一条未确认流水batch-retention毫秒的记录
+ */
+@Slf4j
+@Service
+public class OnSaleStockWriter {
+
+    /**
+     * 一次调度中每个分区最多写回的批数，避免一个分区的积压占满整次调度
+     */
+    private static final int MAX_BATCHES_PER_RUN = 10;
+
+    private final OnSaleDao onSaleDao;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration reclaimIdle;
+    private final Duration batchRetention;
+    /**
+     * 消费者名称，每个进程一个
+     */
+    private final String consumer;
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter appliedBatches;
+    private final Counter duplicateBatches;
+    private final Counter appliedReservations;
+
+    public OnSaleStockWriter(OnSaleDao onSaleDao, PlatformTransactionManager transactionManager,
+                             @Value("${javaee.productdemoredis.stock.write-behind.enabled:true}") boolean enabled,
+                             @Value("${javaee.productdemoredis.stock.write-behind.batch-size:500}") int batchSize,
+                             @Value("${javaee.productdemoredis.stock.write-behind.reclaim-idle:60000}") long reclaimIdleMillis,
+                             @Value("${javaee.productdemoredis.stock.write-behind.batch-retention:3600000}") long batchRetentionMillis,
+                             MeterRegistry meterRegistry) {
+        this.onSaleDao = onSaleDao;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.reclaimIdle = Duration.ofMillis(reclaimIdleMillis);
+        this.batchRetention = Duration.ofMillis(batchRetentionMillis);
+        this.consumer = ManagementFactory.getRuntimeMXBean().getName();
+        Gauge.builder("onsale.stock.stream.backlog", this.backlog, AtomicLong::get).register(meterRegistry);
+        TimeGauge.builder("onsale.stock.stream.lag", this.lagMillis, TimeUnit.MILLISECONDS, AtomicLong::get).register(meterRegistry);
+        this.appliedBatches = meterRegistry.counter("onsale.stock.flush.batches", "result", "applied");
+        this.duplicateBatches = meterRegistry.counter("onsale.stock.flush.batches", "result", "duplicate");
+        this.appliedReservations = meterRegistry.counter("onsale.stock.flush.reservations");
+    }
+
+    /**
+     * 写回各分区的预留流水，并更新积压的流水数和最早一条流水的延迟
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.stock.write-behind.interval:1000}")
+    public void flush() {
+        if (!this.enabled) {
+            return;
+        }
+        long totalBacklog = 0;
+        long oldest = Long.MAX_VALUE;
+        for (int partition = 0; partition < OnSaleDao.STOCK_PARTITIONS; partition++) {
+            try {
+                this.flush(partition);
+                totalBacklog += this.onSaleDao.reservationBacklog(partition);
+                Long time = this.onSaleDao.oldestReservationTime(partition);
+                if (time != null) {
+                    oldest = Math.min(oldest, time);
+                }
+            } catch (RuntimeException e) {
+                // 没有确认的流水留在流中，下次调度重新写回
+                log.error("flush: partition = {}, e = {}", partition, e.getMessage());
+            }
+        }
+        this.backlog.set(totalBacklog);
+        this.lagMillis.set(oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest));
+    }
+
+    /**
+     * 删除不会再被重新投递的批次记录
+     * 可能重新投递的批次中的流水都还在流中，批次的写回时间不早于其中最早的流水，
+     * 以当前时间和流中最早一条流水的时间中较早的一个为准，再往前留出batch-retention，补上Redis与本节点的时钟偏差
+     */
+    @Scheduled(fixedDelayString = "${javaee.productdemoredis.stock.write-behind.purge-interval:600000}",
+            initialDelayString = "${javaee.productdemoredis.stock.write-behind.purge-interval:600000}")
+    public void purgeBatches() {
+        if (!this.enabled) {
+            return;
+        }
+        try {
+            long oldest = System.currentTimeMillis();
+            for (int partition = 0; partition < OnSaleDao.STOCK_PARTITIONS; partition++) {
+                Long time = this.onSaleDao.oldestReservationTime(partition);
+                if (time != null) {
+                    oldest = Math.min(oldest, time);
+                }
+            }
+            LocalDateTime before = LocalDateTime.ofInstant(Instant.ofEpochMilli(oldest).minus(this.batchRetention), ZoneId.systemDefault());
+            Integer deleted = this.transactionTemplate.execute(status -> this.onSaleDao.purgeAppliedBatches(before));
+            log.debug("purgeBatches: before = {}, deleted = {}", before, deleted);
+        } catch (RuntimeException e) {
+            // 读不到流时不删除，下次调度重试
+            log.error("purgeBatches: e = {}", e.getMessage());
+        }
+    }
+
+    private void flush(int partition) {
+        for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+            OnSaleDao.ReservationBatch batch = this.onSaleDao.readReservations(partition, this.consumer, this.batchSize, this.reclaimIdle);
+            if (batch == null) {
+                return;
+            }
+            boolean applied = Boolean.TRUE.equals(this.transactionTemplate.execute(status -> this.onSaleDao.applyReservations(batch)));
+            // 事务提交之后才确认，确认之前宕机的批次会被重新投递，由批次id去重
+            this.onSaleDao.ackReservations(batch);
+            if (applied) {
+                this.appliedBatches.increment();
+                this.appliedReservations.increment(batch.recordIds().size());
+                this.onSaleDao.refreshOnSaleCache(batch.quantities().keySet());
+            } else {
+                this.duplicateBatches.increment();
+            }
+            if (batch.recordIds().size() < this.batchSize) {
+                return;
+            }
+        }
+    }
+}
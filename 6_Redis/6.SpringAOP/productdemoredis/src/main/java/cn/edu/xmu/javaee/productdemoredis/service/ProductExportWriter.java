@@ -0,0 +1,101 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service;
+
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.OnSaleVo;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.ProductVo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 把导出的商品逐个写成NDJSON或CSV，不缓存已写出的商品
+ * NDJSON每行一个商品，带当前有效的OnSale列表；
+ * CSV每个OnSale一行，重复商品的列，没有OnSale的商品只有一行，OnSale的列为空
+ */
+public class ProductExportWriter {
+
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+
+    private static final String CSV_HEADER = "id,shopId,name,originalPrice,weight,barcode,unit,originPlace,"
+            + "onsaleId,price,beginTime,endTime,quantity,maxQuantity";
+
+    private final Writer writer;
+    /**
+     * NDJSON时不为null
+     */
+    private final ObjectMapper objectMapper;
+
+    @Getter
+    private long products;
+    @Getter
+    private long onsales;
+
+    private ProductExportWriter(Writer writer, ObjectMapper objectMapper) {
+        this.writer = writer;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param format NDJSON或CSV
+     * @throws BusinessException 其他格式时抛出FIELD_NOTVALID
+     */
+    public static ProductExportWriter of(String format, Writer writer, ObjectMapper objectMapper) throws IOException {
+        checkFormat(format);
+        if (NDJSON.equals(format)) {
+            return new ProductExportWriter(writer, objectMapper);
+        }
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        return new ProductExportWriter(writer, null);
+    }
+
+    public static void checkFormat(String format) {
+        if (!NDJSON.equals(format) && !CSV.equals(format)) {
+            throw new BusinessException(ReturnNo.FIELD_NOTVALID, JacksonUtil.toJson(new String[]{"format"}));
+        }
+    }
+
+    public void write(ProductVo product) throws IOException {
+        this.products++;
+        List<OnSaleVo> onsaleList = product.getOnsaleList();
+        this.onsales += onsaleList.size();
+        if (this.objectMapper != null) {
+            this.writer.write(this.objectMapper.writeValueAsString(product));
+            this.writer.write('\n');
+            return;
+        }
+        String columns = String.join(",", escape(product.getId()), escape(product.getShopId()), escape(product.getName()),
+                escape(product.getOriginalPrice()), escape(product.getWeight()), escape(product.getBarcode()),
+                escape(product.getUnit()), escape(product.getOriginPlace()));
+        if (onsaleList.isEmpty()) {
+            this.writer.write(columns);
+            this.writer.write(",,,,,,\n");
+        }
+        for (OnSaleVo onsale : onsaleList) {
+            this.writer.write(columns);
+            this.writer.write(',');
+            this.writer.write(String.join(",", escape(onsale.getId()), escape(onsale.getPrice()), escape(onsale.getBeginTime()),
+                    escape(onsale.getEndTime()), escape(onsale.getQuantity()), escape(onsale.getMaxQuantity())));
+            this.writer.write('\n');
+        }
+    }
+
+    /**
+     * 含逗号、引号或换行的值加上引号，其中的引号写两次
+     */
+    static String escape(Object value) {
+        String text = Objects.toString(value, "");
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
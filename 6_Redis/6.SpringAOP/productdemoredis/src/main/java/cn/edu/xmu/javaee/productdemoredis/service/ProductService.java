@@ -1,20 +1,33 @@
 package cn.edu.xmu.javaee.productdemoredis.service;
 
 import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.model.CursorPage;
 import cn.edu.xmu.javaee.core.util.CloneFactory;
 import cn.edu.xmu.javaee.productdemoredis.dao.ProductDao;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductSuggester;
 import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
 import cn.edu.xmu.javaee.productdemoredis.service.vo.CustomerProductVo;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.OnSaleVo;
 import cn.edu.xmu.javaee.productdemoredis.service.vo.ProductVo;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * 商品服务
+ * 类上的@Transactional是读写事务；只查询的方法标为readOnly，配置了读副本时读副本，见DataSourceConfig。
+ * 读副本可能落后于主库，只读事务中查出的数据不写入共享的Redis缓存（见ReadWriteRoutingDataSource.isReplicaRead），
+ * 因此按id查询、缓存未命中时要回源并写入缓存的方法不在事务中执行，读主库；只有按名称分页查询读副本
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
@@ -22,6 +35,7 @@ import java.util.stream.Collectors;
 public class ProductService {
 
     private final ProductDao productDao;
+    private final ProductSuggester productSuggester;
 
     /**
      * 获取某个商品信息，仅展示相关内容
@@ -29,16 +43,19 @@ public class ProductService {
      * @param id 商品id
      * @return 商品对象
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public CustomerProductVo retrieveProductByID(Long shopId, Long id) throws BusinessException {
         assert shopId != null && id != null;
         log.debug("findProductById: shopId = {}, id = {}",shopId, id);
         Product product =  this.productDao.findById(shopId, id);
+        this.productSuggester.recordView(id);
         CustomerProductVo customerProductVo = getCustomerProductVo(product);
         customerProductVo.setOtherProduct(getOtherProduct(product));
         return customerProductVo;
     }
 
 
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public ProductVo retrieveSimpleProductByID(Long shopId, Long id) throws BusinessException {
         assert shopId != null && id != null;
         log.debug("retrieveSimpleProductByID: shopId = {}, id = {}",shopId, id);
@@ -47,35 +64,122 @@ public class ProductService {
     }
 
     /**
-     * 用商品名称搜索商品
+     * 只用缓存获取商品的版本，用于ETag
+     * 不需要数据库连接，不开启事务
+     *
+     * @param shopId 商铺id
+     * @param id 商品id
+     * @param full 是否是完整的商品（含OnSale和关联商品），即retrieveProductByID返回的商品
+     * @return 版本，缓存中没有时返回null
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public String retrieveProductVersion(Long shopId, Long id, boolean full) {
+        assert shopId != null && id != null;
+        return this.productDao.findVersionById(shopId, id, full);
+    }
+
+    /**
+     * 用商品名称搜索商品，逐个组装
+     * 返回的流在写出响应时才被消费，每个商品在写出之前才组装，写出之后即可回收，
+     * 组装在本方法返回之后进行，不在本方法的事务中，每次查询使用各自的事务
      * @param shopId 商铺id
      * @param name 商品名称
+     * @param cursor 上一页返回的游标，第一页为null
+     * @param pageSize 每页数目
      *
-     * @return 商品对象
+     * @return 一页商品对象的流和下一页的游标
      */
-    public List<CustomerProductVo> retrieveCustomerProductByName(Long shopId, String name) throws BusinessException{
-        assert shopId != null && name != null;
-        List<Product> productList =  this.productDao.retrieveByName(shopId, name);
-        List<CustomerProductVo> data = productList.stream().map(o->{
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public CursorPage<CustomerProductVo> streamCustomerProductByName(Long shopId, String name, String cursor, Integer pageSize) throws BusinessException{
+        assert shopId != null && name != null && pageSize != null;
+        return this.productDao.streamByName(shopId, name, CursorPage.decode(cursor), pageSize).map(o->{
             CustomerProductVo vo = getCustomerProductVo(o);
             vo.setOtherProduct(getOtherProduct(o));
             return vo;
-        }).collect(Collectors.toList());
-        return data;
+        });
     }
 
     /**
      * 用商品名称搜索商品
      * @param shopId 商铺id
      * @param name 商品名称
+     * @param cursor 上一页返回的游标，第一页为null
+     * @param pageSize 每页数目
+     *
+     * @return 一页商品对象和下一页的游标
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<ProductVo> retrieveProductByName(Long shopId, String name, String cursor, Integer pageSize) throws BusinessException{
+        assert shopId != null && name != null && pageSize != null;
+        CursorPage<Product> page = this.productDao.retrieveSimpleProductByName(shopId, name, CursorPage.decode(cursor), pageSize);
+        // 在事务内拷贝，返回的流不再访问数据库
+        List<ProductVo> data = page.items().map(o->CloneFactory.copy(new ProductVo(), o)).collect(Collectors.toList());
+        return new CursorPage<>(data.stream(), page.next());
+    }
+
+    /**
+     * 用名称片段搜索商品，按相关度排序，逐个组装
+     * 与streamCustomerProductByName相同，商品在写出响应时才组装
+     * @param shopId 商铺id
+     * @param keyword 名称片段
+     * @param pageSize 最多返回的个数
+     *
+     * @return 商品对象的流
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Stream<CustomerProductVo> streamCustomerProductByKeyword(Long shopId, String keyword, Integer pageSize) throws BusinessException{
+        assert shopId != null && keyword != null && pageSize != null;
+        return this.productDao.streamByKeyword(shopId, keyword, pageSize, true).map(o->{
+            CustomerProductVo vo = getCustomerProductVo(o);
+            vo.setOtherProduct(getOtherProduct(o));
+            return vo;
+        });
+    }
+
+    /**
+     * 关联商品的关联商品（两跳），按经过的关联商品个数从多到少排列
+     * 关联商品的id取自本节点的关联图，商品基本信息优先取自缓存
+     * @param shopId 商铺id
+     * @param id 商品id
+     * @param pageSize 最多返回的个数
+     *
+     * @return 商品对象，不含 onSale / 关联商品
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<CustomerProductVo> retrieveAlsoRelatedProduct(Long shopId, Long id, Integer pageSize) throws BusinessException {
+        assert shopId != null && id != null && pageSize != null;
+        // 商品不存在或不属于该商铺时抛出异常
+        this.productDao.findSimpleProductById(shopId, id);
+        return this.productDao.retrieveAlsoRelatedProduct(id, pageSize).stream()
+                .map(this::getCustomerProductVo).collect(Collectors.toList());
+    }
+
+    /**
+     * 用名称片段搜索商铺的商品，按相关度排序
+     * @param shopId 商铺id
+     * @param keyword 名称片段
+     * @param pageSize 最多返回的个数
      *
      * @return 商品对象
      */
-    public List<ProductVo> retrieveProductByName(Long shopId, String name) throws BusinessException{
-        assert shopId != null && name != null;
-        List<Product> productList =  this.productDao.retrieveByName(shopId, name);
-        List<ProductVo> data = productList.stream().map(o->CloneFactory.copy(new ProductVo(), o)).collect(Collectors.toList());
-        return data;
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<ProductVo> retrieveProductByKeyword(Long shopId, String keyword, Integer pageSize) throws BusinessException{
+        assert shopId != null && keyword != null && pageSize != null;
+        return this.productDao.streamByKeyword(shopId, keyword, pageSize, false)
+                .map(o->CloneFactory.copy(new ProductVo(), o)).collect(Collectors.toList());
+    }
+
+    /**
+     * 商品名称的联想词，只访问本节点内存中的字典树
+     * @param prefix 用户已输入的前缀
+     * @param pageSize 最多返回的个数
+     *
+     * @return 按热度排序的商品名称
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<String> suggestProductName(String prefix, Integer pageSize) {
+        assert prefix != null && pageSize != null;
+        return this.productSuggester.suggest(prefix, pageSize);
     }
 
     /**
@@ -92,6 +196,45 @@ public class ProductService {
     }
 
 
+    /**
+     * 批量导入一批商品，用一个JDBC批次插入，有商品违反约束时整批回滚，再逐个插入其余的商品
+     * 每次插入在ProductDao中使用各自的事务，不在本方法的事务中
+     * @param shopId 商铺id
+     * @param products 一批新商品
+     * @return 创建了的商品和没有创建的商品在products中的下标
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ProductDao.InsertResult importProducts(Long shopId, List<Product> products) throws BusinessException{
+        assert shopId != null && products != null;
+        products.forEach(product -> product.setShopId(shopId));
+        return this.productDao.insertAll(products);
+    }
+
+
+    /**
+     * 导出商铺的全部商品及其当前有效的OnSale
+     * 从数据库游标逐个读出，逐个写出，内存中只有当前的一个商品
+     * 游标使用导出的连接池（见DataSourceConfig），不在事务中执行
+     * @param shopId 商铺id
+     * @param writer 写出商品
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void exportProducts(Long shopId, ProductExportWriter writer) throws IOException {
+        assert shopId != null && writer != null;
+        try (Stream<Product> products = this.productDao.streamByShop(shopId)) {
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                ProductVo vo = CloneFactory.copy(new ProductVo(), product);
+                vo.setOnsaleList(product.getOnSaleList().stream().map(o -> OnSaleVo.builder().id(o.getId()).price(o.getPrice())
+                        .beginTime(o.getBeginTime()).endTime(o.getEndTime()).quantity(o.getQuantity()).maxQuantity(o.getMaxQuantity())
+                        .build()).collect(Collectors.toList()));
+                writer.write(vo);
+            }
+        }
+    }
+
+
     /**
      * 修改商品
      * @param product 修改商品信息
@@ -110,6 +253,29 @@ public class ProductService {
         this.productDao.delete(id);
     }
 
+    /**
+     * 批量修改商品，在一个事务中用一条UPDATE修改
+     * @param shopId 商铺id
+     * @param ids 商品id
+     * @param product 修改的属性，为null的不修改
+     * @return 修改了的商品id
+     */
+    public List<Long> modifyProducts(Long shopId, List<Long> ids, Product product) throws BusinessException {
+        assert shopId != null && ids != null && product != null;
+        return this.productDao.updateAll(shopId, ids, product);
+    }
+
+    /**
+     * 批量删除商品，在一个事务中用一条DELETE删除
+     * @param shopId 商铺id
+     * @param ids 商品id
+     * @return 删除了的商品id
+     */
+    public List<Long> deleteProducts(Long shopId, List<Long> ids) throws BusinessException {
+        assert shopId != null && ids != null;
+        return this.productDao.deleteAll(shopId, ids);
+    }
+
     /**
      * 从Product拷贝到CustomerProductVo
      * @param o product
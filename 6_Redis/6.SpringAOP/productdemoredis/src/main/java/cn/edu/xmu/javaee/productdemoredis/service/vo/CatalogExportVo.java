@@ -0,0 +1,30 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service.vo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+/**
+ * 导出商品目录的结果
+ */
+@Data
+@AllArgsConstructor
+@Builder
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@ToString
+public class CatalogExportVo {
+
+    /**
+     * 导出文件的名称，在javaee.productdemoredis.export.dir目录下
+     */
+    private String file;
+
+    private String format;
+
+    private Long products;
+
+    private Long onsales;
+
+    private Long bytes;
+}
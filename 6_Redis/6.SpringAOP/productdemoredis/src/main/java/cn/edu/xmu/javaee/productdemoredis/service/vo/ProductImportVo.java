@@ -0,0 +1,46 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service.vo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量导入商品的结果
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@ToString
+public class ProductImportVo {
+
+    /**
+     * 读到的行数，不含CSV的表头和空行
+     */
+    private int total;
+
+    private int created;
+
+    private int failed;
+
+    /**
+     * 出错的行，最多列出前面的一部分，总数见failed
+     */
+    private List<RowError> errors = new ArrayList<>();
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class RowError {
+        /**
+         * 行号，从1开始，含CSV的表头
+         */
+        private Integer line;
+
+        private Integer errno;
+
+        private String message;
+    }
+}
@@ -0,0 +1,26 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.service.vo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+/**
+ * 库存预留结果
+ */
+@Data
+@AllArgsConstructor
+@Builder
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@ToString
+public class ReservationVo {
+
+    private Long onsaleId;
+
+    private Integer quantity;
+
+    /**
+     * 预留后的剩余库存
+     */
+    private Long stock;
+}
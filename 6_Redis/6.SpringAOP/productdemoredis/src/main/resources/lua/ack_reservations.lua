@@ -0,0 +1,34 @@
+-- 确认并删除已经写回数据库的预留流水，同时减去其中的OnSale还没有写回数据库的预留数量
+-- 只减去本次确认成功的流水，重复确认的流水（已经确认过）不会重复减去
+-- KEYS[1]  预留流水（stream），见reserve_stock.lua
+-- KEYS[2]  还没有写回数据库的预留数量的hash，见reserve_stock.lua
+-- ARGV[1]  消费组
+-- ARGV[2..] 流水的id
+-- 返回值：本次确认的流水数
+-- 字符串参数经JSON序列化，两端带引号，先去掉
+local function text(arg)
+    return (string.gsub(arg, '^"(.*)"$', '%1'))
+end
+local group = text(ARGV[1])
+local acked = 0
+for i = 2, #ARGV do
+    local id = text(ARGV[i])
+    local entry = redis.call('XRANGE', KEYS[1], id, id)[1]
+    if redis.call('XACK', KEYS[1], group, id) == 1 and entry then
+        acked = acked + 1
+        local onsale, quantity
+        local fields = entry[2]
+        for j = 1, #fields, 2 do
+            if fields[j] == 'onsale' then
+                onsale = fields[j + 1]
+            elseif fields[j] == 'quantity' then
+                quantity = tonumber(fields[j + 1])
+            end
+        end
+        if onsale and quantity and redis.call('HINCRBY', KEYS[2], onsale, -quantity) <= 0 then
+            redis.call('HDEL', KEYS[2], onsale)
+        end
+    end
+    redis.call('XDEL', KEYS[1], id)
+end
+return acked
@@ -0,0 +1,12 @@
+-- 加载秒杀库存，库存已经加载时不覆盖（其中的剩余库存已经被扣减过）
+-- KEYS[1]  库存hash，见reserve_stock.lua
+-- ARGV[1]  库存数量
+-- ARGV[2]  每人限购数量（0为不限购）
+-- ARGV[3]  过期时间（秒），即到OnSale结束的时间
+-- 返回值：1 本次加载，0 已经加载过
+if redis.call('HSETNX', KEYS[1], 'stock', ARGV[1]) == 0 then
+    return 0
+end
+redis.call('HSET', KEYS[1], 'max', ARGV[2])
+redis.call('EXPIRE', KEYS[1], ARGV[3])
+return 1
@@ -0,0 +1,5 @@
+-- 读取OnSale还没有写回数据库的预留数量，重新加载库存时从数据库的库存中减去
+-- KEYS[1]  还没有写回数据库的预留数量的hash，见reserve_stock.lua
+-- ARGV[1]  OnSale id
+-- 返回值：预留数量，没有时为0
+return tonumber(redis.call('HGET', KEYS[1], ARGV[1])) or 0
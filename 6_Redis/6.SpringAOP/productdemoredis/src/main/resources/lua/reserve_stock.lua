@@ -0,0 +1,36 @@
+-- 预留（扣减）秒杀库存，检查、扣减和写入流水在一个脚本中原子执行
+-- KEYS[1]  库存hash：stock 剩余库存，max 每人限购数量（0为不限购）
+-- KEYS[2]  每个用户已购数量的hash：field为用户id
+-- KEYS[3]  预留流水（stream），每条记录为 onsale OnSale id, quantity 购买数量
+-- KEYS[4]  还没有写回数据库的预留数量的hash：field为OnSale id，见ack_reservations.lua
+-- ARGV[1]  用户id
+-- ARGV[2]  购买数量
+-- ARGV[3]  OnSale id
+-- 返回值：成功时返回扣减后的剩余库存（>=0）；-1 库存未加载，-2 库存不足，-3 超过每人限购数量
+local stock = redis.call('HMGET', KEYS[1], 'stock', 'max')
+local remain = tonumber(stock[1])
+if not remain then
+    return -1
+end
+local quantity = tonumber(ARGV[2])
+if remain < quantity then
+    return -2
+end
+local max = tonumber(stock[2]) or 0
+if max > 0 then
+    local bought = tonumber(redis.call('HGET', KEYS[2], ARGV[1])) or 0
+    if bought + quantity > max then
+        return -3
+    end
+end
+if redis.call('HINCRBY', KEYS[2], ARGV[1], quantity) == quantity then
+    -- 用户第一次购买，已购记录与库存同时过期
+    local ttl = redis.call('TTL', KEYS[1])
+    if ttl > 0 then
+        redis.call('EXPIRE', KEYS[2], ttl)
+    end
+end
+remain = redis.call('HINCRBY', KEYS[1], 'stock', -quantity)
+redis.call('XADD', KEYS[3], '*', 'onsale', ARGV[3], 'quantity', ARGV[2])
+redis.call('HINCRBY', KEYS[4], ARGV[3], quantity)
+return remain
@@ -0,0 +1,189 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.model.UserToken;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 商铺的批量操作，使用离线压测的配置：内嵌H2数据库 + 本地Redis替身
+ */
+@SpringBootTest(classes = ProductDemoRedisApplication.class)
+@AutoConfigureMockMvc
+@ActiveProfiles("loadtest")
+public class AdminProductBulkTest {
+
+    private static final RedisServer REDIS = startRedis();
+
+    private static final String IMPORT = "/shops/{shopId}/products/import";
+
+    private static final String PRODUCTS = "/shops/{shopId}/products";
+
+    private static final String EXPORT = "/shops/{shopId}/products/export";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", REDIS::getHost);
+        registry.add("spring.data.redis.port", REDIS::getBindPort);
+    }
+
+    private static RedisServer startRedis() {
+        try {
+            return RedisServer.newRedisServer().start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        REDIS.stop();
+    }
+
+    private static String admin(long shopId) {
+        return JacksonUtil.toJson(UserToken.builder().id(100 + shopId).name("admin" + shopId).departId(shopId).build());
+    }
+
+    private List<String> namesOf(long shopId) {
+        return this.jdbcTemplate.queryForList("SELECT name FROM goods_product WHERE shop_id = ? ORDER BY id", String.class, shopId);
+    }
+
+    private String idsOf(long shopId) {
+        return this.jdbcTemplate.queryForList("SELECT id FROM goods_product WHERE shop_id = ? ORDER BY id", Long.class, shopId)
+                .stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private void importProducts(long shopId, String... names) throws Exception {
+        String body = Arrays.stream(names).map(name -> "{\"name\":\"" + name + "\",\"originalPrice\":100}")
+                .collect(Collectors.joining("\n"));
+        this.mockMvc.perform(MockMvcRequestBuilders.post(IMPORT, shopId).contentType("application/x-ndjson").content(body)
+                        .header("Authorization", admin(shopId)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.created", is(names.length)));
+    }
+
+    @Test
+    public void importRejectsOnlyTheInvalidRow() throws Exception {
+        // 名称超过列的长度，通过了新建商品的校验，插入时才出错
+        String body = String.join("\n",
+                "{\"name\":\"import-1\",\"originalPrice\":100}",
+                "{\"name\":\"" + "x".repeat(300) + "\",\"originalPrice\":100}",
+                "{\"name\":\"import-3\",\"originalPrice\":100}");
+        this.mockMvc.perform(MockMvcRequestBuilders.post(IMPORT, 31).contentType("application/x-ndjson").content(body)
+                        .header("Authorization", admin(31)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.OK.getErrNo())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.total", is(3)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.created", is(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.failed", is(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.errors[0].line", is(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.errors[0].errno", is(ReturnNo.FIELD_NOTVALID.getErrNo())));
+        assertEquals(List.of("import-1", "import-3"), namesOf(31));
+    }
+
+    @Test
+    public void bulkRejectsOtherShopAdmin() throws Exception {
+        importProducts(41, "bulk-41-a", "bulk-41-b");
+        String ids = idsOf(41);
+        // 路径中填写其他商铺或PLATFORM
+        this.mockMvc.perform(MockMvcRequestBuilders.put(PRODUCTS, 41).param("ids", ids)
+                        .contentType("application/json").content("{\"name\":\"hacked\"}")
+                        .header("Authorization", admin(42)))
+                .andExpect(MockMvcResultMatchers.status().isForbidden())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.RESOURCE_ID_OUTSCOPE.getErrNo())));
+        this.mockMvc.perform(MockMvcRequestBuilders.put(PRODUCTS, 0).param("ids", ids)
+                        .contentType("application/json").content("{\"name\":\"hacked\"}")
+                        .header("Authorization", admin(42)))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(PRODUCTS, 41).param("ids", ids)
+                        .header("Authorization", admin(42)))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(PRODUCTS, 0).param("ids", ids)
+                        .header("Authorization", admin(42)))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        // 路径中是自己的商铺，其他商铺的商品不在范围内
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(PRODUCTS, 42).param("ids", ids)
+                        .header("Authorization", admin(42)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data", hasSize(0)));
+        assertEquals(List.of("bulk-41-a", "bulk-41-b"), namesOf(41));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(PRODUCTS, 41).param("ids", ids)
+                        .header("Authorization", admin(41)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data", hasSize(2)));
+        assertEquals(List.of(), namesOf(41));
+    }
+
+    @Test
+    public void bulkRejectsMissingOrShoplessToken() throws Exception {
+        importProducts(43, "bulk-43-a");
+        String ids = idsOf(43);
+        // 没有令牌
+        this.mockMvc.perform(MockMvcRequestBuilders.put(PRODUCTS, 43).param("ids", ids)
+                        .contentType("application/json").content("{\"name\":\"hacked\"}"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.AUTH_NEED_LOGIN.getErrNo())));
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(PRODUCTS, 43).param("ids", ids))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.AUTH_NEED_LOGIN.getErrNo())));
+        // 令牌中没有所属的商铺
+        String shopless = JacksonUtil.toJson(UserToken.builder().id(999L).name("customer").build());
+        this.mockMvc.perform(MockMvcRequestBuilders.put(PRODUCTS, 43).param("ids", ids)
+                        .contentType("application/json").content("{\"name\":\"hacked\"}")
+                        .header("Authorization", shopless))
+                .andExpect(MockMvcResultMatchers.status().isForbidden())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.RESOURCE_ID_OUTSCOPE.getErrNo())));
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(PRODUCTS, 43).param("ids", ids)
+                        .header("Authorization", shopless))
+                .andExpect(MockMvcResultMatchers.status().isForbidden())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.RESOURCE_ID_OUTSCOPE.getErrNo())));
+        assertEquals(List.of("bulk-43-a"), namesOf(43));
+    }
+
+    @Test
+    public void exportReadsEveryProductWithCurrentOnSales() throws Exception {
+        importProducts(51, "export-51-a", "export-51-b");
+        List<Long> ids = this.jdbcTemplate.queryForList("SELECT id FROM goods_product WHERE shop_id = 51 ORDER BY id", Long.class);
+        LocalDateTime now = LocalDateTime.now();
+        String onsale = "INSERT INTO goods_onsale (shop_id, product_id, price, begin_time, end_time, quantity, max_quantity) VALUES (51, ?, ?, ?, ?, 10, 5)";
+        this.jdbcTemplate.update(onsale, ids.get(0), 90, now.minusHours(1), now.plusHours(1));
+        this.jdbcTemplate.update(onsale, ids.get(0), 80, now.minusHours(1), now.plusHours(2));
+        // 已经结束的不导出
+        this.jdbcTemplate.update(onsale, ids.get(1), 70, now.minusHours(2), now.minusHours(1));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post(EXPORT, 51).param("format", "ndjson")
+                        .header("Authorization", admin(51)))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.products", is(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.onsales", is(2)));
+    }
+}
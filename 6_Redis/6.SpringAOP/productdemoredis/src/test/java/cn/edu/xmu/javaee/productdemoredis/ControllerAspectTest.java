@@ -0,0 +1,163 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.model.UserToken;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.CustomerProductVo;
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import static cn.edu.xmu.javaee.core.model.Constants.PLATFORM;
+import static org.hamcrest.CoreMatchers.is;
+
+/**
+ * 启用ControllerAspect和DaoAspect后，ProductControllerTest和AdminProductControllerTest期望的状态码和errno。
+ * 那两个测试需要远程的MySQL，这里用离线压测的配置（内嵌H2数据库 + 本地Redis替身）和自己插入的商品重复同样的检查
+ */
+@SpringBootTest(classes = ProductDemoRedisApplication.class)
+@AutoConfigureMockMvc
+@ActiveProfiles("loadtest")
+public class ControllerAspectTest {
+
+    private static final RedisServer REDIS = startRedis();
+
+    private static final String PRODUCTID = "/products/{id}";
+    private static final String PRODUCT = "/products";
+    private static final String SHOP_PRODUCTID = "/shops/{shopId}/products/{id}";
+    private static final String SHOP_PRODUCT = "/shops/{shopId}/products";
+
+    private static final String ADMIN = JacksonUtil.toJson(UserToken.builder().id(2L).name("admin2").departId(PLATFORM).build());
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", REDIS::getHost);
+        registry.add("spring.data.redis.port", REDIS::getBindPort);
+    }
+
+    private static RedisServer startRedis() {
+        try {
+            return RedisServer.newRedisServer().start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        REDIS.stop();
+    }
+
+    @BeforeEach
+    void seed() {
+        if (this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM goods_product WHERE id = 8001", Integer.class) == 0) {
+            LocalDateTime now = LocalDateTime.now();
+            this.jdbcTemplate.update("INSERT INTO goods_product (id, shop_id, name, original_price) VALUES (8001, 1, '欢乐家久宝桃罐头', 100)");
+            this.jdbcTemplate.update("INSERT INTO goods_product (id, shop_id, name, original_price) VALUES (8002, 1, '瓜果刨', 100)");
+            this.jdbcTemplate.update("INSERT INTO goods_onsale (id, shop_id, product_id, price, begin_time, end_time, quantity, max_quantity) "
+                    + "VALUES (8001, 1, 8001, 53295, ?, ?, 2000, 50)", now.minusDays(1), now.plusDays(1));
+        }
+    }
+
+    @Test
+    public void getProduct() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.get(PRODUCTID, 8001))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/json;charset=UTF-8"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.OK.getErrNo())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.name", is("欢乐家久宝桃罐头")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.price", is(53295)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.quantity", is(2000)));
+    }
+
+    @Test
+    public void getProductGivenNonExistId() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.get(PRODUCTID, 8001122))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    @Test
+    public void searchProductByNameGivenNonExistName() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.get(PRODUCT).contentType("application/json;charset=UTF-8")
+                        .param("name", "欢"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/json;charset=UTF-8"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.OK.getErrNo())));
+    }
+
+    @Test
+    public void createProduct() throws Exception {
+        String body = "{\"name\":\"水果糖\",\"originalPrice\":100,\"weight\":807,\"barcode\":\"1234455\",\"unit\":\"盒\",\"originPlace\":\"长沙\"}";
+        String ret = this.mockMvc.perform(MockMvcRequestBuilders.post(SHOP_PRODUCT, 2)
+                        .content(body.getBytes("utf-8"))
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .header("Authorization", ADMIN))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/json;charset=UTF-8"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.CREATED.getErrNo())))
+                .andReturn().getResponse().getContentAsString();
+
+        CustomerProductVo retObj = JacksonUtil.parseObject(ret, "data", CustomerProductVo.class);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(SHOP_PRODUCTID, 2, retObj.getId()).header("Authorization", ADMIN))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.OK.getErrNo())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.name", is("水果糖")));
+    }
+
+    @Test
+    public void modiProduct() throws Exception {
+        String body = "{\"name\":\"奶糖\",\"originalPrice\":200}";
+        this.mockMvc.perform(MockMvcRequestBuilders.put(SHOP_PRODUCTID, 1, 8002)
+                        .content(body.getBytes("utf-8"))
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .header("Authorization", ADMIN))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/json;charset=UTF-8"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.errno", is(ReturnNo.OK.getErrNo())));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(SHOP_PRODUCTID, 1, 8002).header("Authorization", ADMIN))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.name", is("奶糖")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.data.originalPrice", is(200)));
+    }
+
+    @Test
+    public void modiProductGivenNonExistId() throws Exception {
+        String body = "{\"name\":\"奶糖\",\"originalPrice\":200}";
+        this.mockMvc.perform(MockMvcRequestBuilders.put(SHOP_PRODUCTID, 2, 8001122)
+                        .content(body.getBytes("utf-8"))
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .header("Authorization", ADMIN))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    @Test
+    public void delProductGivenNonExistId() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.delete(SHOP_PRODUCTID, 2, 8001122)
+                        .header("Authorization", ADMIN))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+}
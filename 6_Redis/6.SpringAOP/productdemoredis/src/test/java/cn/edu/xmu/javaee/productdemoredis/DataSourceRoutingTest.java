@@ -0,0 +1,109 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.productdemoredis.config.ReadWriteRoutingDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 数据库读写分离：用两个H2内存数据库分别充当主库和读副本。
+ * 两个库不会复制数据，各有一行不同的标记，可以从读到的标记判断连接取自哪个库
+ */
+public class DataSourceRoutingTest {
+
+    private static JdbcTemplate jdbcTemplate;
+    private static TransactionTemplate readWrite;
+    private static TransactionTemplate readOnly;
+
+    @BeforeAll
+    static void start() {
+        DriverManagerDataSource primary = database("primary");
+        DriverManagerDataSource replica = database("replica");
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, List.of(replica), new SimpleMeterRegistry());
+        routing.afterPropertiesSet();
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    private static DriverManagerDataSource database(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:routing-" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("CREATE TABLE marker (name VARCHAR(16))");
+        template.update("INSERT INTO marker VALUES (?)", name);
+        return dataSource;
+    }
+
+    private static String marker() {
+        return jdbcTemplate.queryForObject("SELECT name FROM marker", String.class);
+    }
+
+    @AfterEach
+    void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void readOnlyTransactionGoesToReplica() {
+        assertEquals("replica", readOnly.execute(status -> marker()));
+        assertEquals("primary", readWrite.execute(status -> marker()));
+        // 事务之外
+        assertEquals("primary", marker());
+    }
+
+    @Test
+    public void readAfterWriteSticksToPrimary() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        assertEquals("replica", readOnly.execute(status -> marker()));
+        readWrite.execute(status -> marker());
+        assertEquals("primary", readOnly.execute(status -> marker()));
+
+        // 下一个请求
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        assertEquals("replica", readOnly.execute(status -> marker()));
+    }
+
+    @Test
+    public void replicaReadIsMarkedUntilTransactionEnds() {
+        Boolean onReplica = readOnly.execute(status -> {
+            marker();
+            return ReadWriteRoutingDataSource.isReplicaRead();
+        });
+        assertTrue(onReplica);
+        Boolean onPrimary = readWrite.execute(status -> {
+            marker();
+            return ReadWriteRoutingDataSource.isReplicaRead();
+        });
+        assertFalse(onPrimary);
+        // 事务结束后标记被清除
+        assertFalse(ReadWriteRoutingDataSource.isReplicaRead());
+
+        // 写过之后只读事务读主库，也不标记
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        readWrite.execute(status -> marker());
+        Boolean sticky = readOnly.execute(status -> {
+            marker();
+            return ReadWriteRoutingDataSource.isReplicaRead();
+        });
+        assertFalse(sticky);
+    }
+}
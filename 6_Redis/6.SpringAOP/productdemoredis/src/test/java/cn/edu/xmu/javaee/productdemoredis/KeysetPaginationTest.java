@@ -0,0 +1,89 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.bean.RequestVariables;
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.model.CursorPage;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductDao;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductNameIndex;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductRelationGraph;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import cn.edu.xmu.javaee.productdemoredis.mapper.GoodsPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductSnapshotPo;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 按游标分页：每一页都从游标处查询，数据库用Mock代替
+ */
+public class KeysetPaginationTest {
+
+    private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+
+    @Test
+    public void pagesFollowCursor() {
+        // 商铺10中名为"milk"的商品，id为奇数1..49，共25个
+        List<ProductPo> products = LongStream.rangeClosed(1, 49).filter(id -> id % 2 == 1).mapToObj(id -> {
+            ProductPo po = new ProductPo();
+            po.setId(id);
+            po.setShopId(10L);
+            po.setName("milk");
+            return po;
+        }).collect(Collectors.toList());
+        ProductPoMapper mapper = mock(ProductPoMapper.class);
+        when(mapper.findByShopIdAndNameAndIdGreaterThanOrderByIdAsc(eq(10L), eq("milk"), anyLong(), any(Limit.class)))
+                .thenAnswer(invocation -> {
+                    long after = invocation.getArgument(2);
+                    Limit limit = invocation.getArgument(3);
+                    return products.stream().filter(po -> po.getId() > after).limit(limit.max())
+                            .map(po -> PROJECTIONS.createProjection(ProductSnapshotPo.class, po)).collect(Collectors.toList());
+                });
+        ProductDao productDao = new ProductDao(mapper, mock(OnSaleDao.class), mock(GoodsPoMapper.class),
+                new RequestVariables(), mock(RedisUtil.class), mock(ProductNameIndex.class),
+                mock(ProductRelationGraph.class), mock(PlatformTransactionManager.class));
+
+        List<Long> ids = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPage<Product> page = productDao.retrieveSimpleProductByName(10L, "milk", CursorPage.decode(cursor), 10);
+            List<Long> pageIds = page.items().map(Product::getId).collect(Collectors.toList());
+            ids.addAll(pageIds);
+            sizes.add(pageIds.size());
+            cursor = page.next();
+        } while (cursor != null);
+
+        assertEquals(List.of(10, 10, 5), sizes);
+        assertEquals(products.stream().map(ProductPo::getId).collect(Collectors.toList()), ids);
+        // 每页只查询pageSize + 1个商品
+        verify(mapper, times(3)).findByShopIdAndNameAndIdGreaterThanOrderByIdAsc(eq(10L), eq("milk"), anyLong(), eq(Limit.of(11)));
+    }
+
+    @Test
+    public void cursorIsOpaque() {
+        assertEquals(0, CursorPage.decode(null));
+        assertEquals(0, CursorPage.decode(""));
+        assertEquals(12345L, CursorPage.decode(CursorPage.encode(12345L)));
+        assertFalse(CursorPage.encode(12345L).contains("12345"));
+        for (String cursor : new String[]{"12345", "not base64!", CursorPage.encode(-1L)}) {
+            BusinessException e = assertThrows(BusinessException.class, () -> CursorPage.decode(cursor));
+            assertEquals(ReturnNo.FIELD_NOTVALID, e.getErrno());
+        }
+    }
+}
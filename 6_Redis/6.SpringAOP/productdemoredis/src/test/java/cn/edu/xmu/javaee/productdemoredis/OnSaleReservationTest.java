@@ -0,0 +1,203 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.core.exception.BusinessException;
+import cn.edu.xmu.javaee.core.infrastructure.RedisCircuitBreaker;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import cn.edu.xmu.javaee.productdemoredis.mapper.OnSaleBatchPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.OnSalePoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.OnSalePo;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 秒杀库存预留：库存和限购检查在Redis替身上用脚本原子执行，数据库用Mock代替
+ */
+public class OnSaleReservationTest {
+
+    private static RedisServer server;
+    private static RedisNode node;
+    private static OnSalePoMapper mapper;
+    private static OnSaleDao onSaleDao;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        String name = server.getHost() + ":" + server.getBindPort();
+        LettuceConnectionFactory factory = RedisConfig.connect(name, new RedisProperties());
+        node = new RedisNode(name, RedisConfig.createTemplate(factory), List.of(), List.of(factory));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        mapper = mock(OnSalePoMapper.class);
+        onSaleDao = new OnSaleDao(mapper, mock(OnSaleBatchPoMapper.class), new RedisUtil(node, registry, breaker));
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        node.destroy();
+        server.stop();
+    }
+
+    private static OnSalePo onSale(long id, int quantity, int maxQuantity, LocalDateTime begin, LocalDateTime end) {
+        OnSalePo po = new OnSalePo();
+        po.setId(id);
+        po.setQuantity(quantity);
+        po.setMaxQuantity(maxQuantity);
+        po.setBeginTime(begin);
+        po.setEndTime(end);
+        when(mapper.findById(id)).thenReturn(Optional.of(po));
+        return po;
+    }
+
+    @Test
+    public void concurrentReservationsNeverOversell() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        onSale(1L, 100, 0, now.minusMinutes(1), now.plusHours(1));
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        AtomicInteger shortage = new AtomicInteger();
+        List<Future<Long>> futures = new ArrayList<>();
+        for (long userId = 1; userId <= 300; userId++) {
+            long user = userId;
+            futures.add(executor.submit(() -> {
+                try {
+                    return onSaleDao.reserve(1L, user, 1);
+                } catch (BusinessException e) {
+                    assertEquals(ReturnNo.GOODS_STOCK_SHORTAGE, e.getErrno());
+                    shortage.incrementAndGet();
+                    return -1L;
+                }
+            }));
+        }
+        List<Long> remains = new ArrayList<>();
+        for (Future<Long> future : futures) {
+            long remain = future.get();
+            if (remain >= 0) {
+                remains.add(remain);
+            }
+        }
+        executor.shutdown();
+        assertEquals(100, remains.size());
+        assertEquals(200, shortage.get());
+        // 每次扣减后的剩余库存各不相同，恰好是0到99
+        assertEquals(100, remains.stream().distinct().count());
+        assertEquals(0L, remains.stream().mapToLong(Long::longValue).min().orElseThrow());
+        // 库存只从数据库加载了一次
+        verify(mapper, atMost(16)).findById(1L);
+    }
+
+    @Test
+    public void maxQuantityPerUser() {
+        LocalDateTime now = LocalDateTime.now();
+        onSale(2L, 100, 3, now.minusMinutes(1), now.plusHours(1));
+        assertEquals(98L, onSaleDao.reserve(2L, 10L, 2));
+        BusinessException e = assertThrows(BusinessException.class, () -> onSaleDao.reserve(2L, 10L, 2));
+        assertEquals(ReturnNo.GOODS_ONSALE_EXCEED_MAXQUANTITY, e.getErrno());
+        assertEquals(97L, onSaleDao.reserve(2L, 10L, 1));
+        assertEquals(94L, onSaleDao.reserve(2L, 11L, 3));
+    }
+
+    @Test
+    public void inactiveOnSale() {
+        LocalDateTime now = LocalDateTime.now();
+        onSale(3L, 100, 0, now.plusHours(1), now.plusHours(2));
+        BusinessException e = assertThrows(BusinessException.class, () -> onSaleDao.reserve(3L, 10L, 1));
+        assertEquals(ReturnNo.STATENOTALLOW, e.getErrno());
+
+        when(mapper.findById(4L)).thenReturn(Optional.empty());
+        e = assertThrows(BusinessException.class, () -> onSaleDao.reserve(4L, 10L, 1));
+        assertEquals(ReturnNo.RESOURCE_ID_NOTEXIST, e.getErrno());
+    }
+
+    @Test
+    public void preloadDoesNotOverwriteReservedStock() {
+        LocalDateTime now = LocalDateTime.now();
+        OnSalePo po = onSale(5L, 10, 0, now.plusSeconds(30), now.plusHours(1));
+        when(mapper.findByBeginTimeBetween(any(), any(), any())).thenReturn(List.of(po));
+        assertEquals(1, onSaleDao.preloadStock(now, now.plusMinutes(2)));
+        assertEquals(0, onSaleDao.preloadStock(now, now.plusMinutes(2)));
+
+        po.setBeginTime(now.minusSeconds(1));
+        assertEquals(5L, onSaleDao.reserve(5L, 10L, 5));
+        assertEquals(0, onSaleDao.preloadStock(now, now.plusMinutes(2)));
+        assertEquals(4L, onSaleDao.reserve(5L, 11L, 1));
+    }
+
+    @Test
+    public void reservationsAreAppendedToStream() {
+        LocalDateTime now = LocalDateTime.now();
+        // 与上面的OnSale不在同一个分区
+        long id = OnSaleDao.STOCK_PARTITIONS * 10L + 15;
+        onSale(id, 100, 0, now.minusMinutes(1), now.plusHours(1));
+        int partition = (int) (id % OnSaleDao.STOCK_PARTITIONS);
+        assertEquals(0, onSaleDao.reservationBacklog(partition));
+        assertNull(onSaleDao.oldestReservationTime(partition));
+        onSaleDao.reserve(id, 10L, 2);
+        onSaleDao.reserve(id, 11L, 3);
+        assertThrows(BusinessException.class, () -> onSaleDao.reserve(id, 12L, 1000));
+        // 失败的预留不写入流水
+        assertEquals(2, onSaleDao.reservationBacklog(partition));
+        assertNotNull(onSaleDao.oldestReservationTime(partition));
+    }
+
+    @Test
+    public void reloadSubtractsUnflushedReservations() {
+        LocalDateTime now = LocalDateTime.now();
+        long id = OnSaleDao.STOCK_PARTITIONS * 20L + 9;
+        String stockKey = String.format("onsale:stock:{p%d}:%d", id % OnSaleDao.STOCK_PARTITIONS, id);
+        OnSalePo po = onSale(id, 10, 0, now.minusMinutes(1), now.plusHours(1));
+        assertEquals(7L, onSaleDao.reserve(id, 10L, 3));
+
+        // 库存键被淘汰，数据库中仍是10，未写回的3个要减去
+        node.writer().delete(stockKey);
+        assertEquals(6L, onSaleDao.reserve(id, 11L, 1));
+        // 预加载也一样
+        node.writer().delete(stockKey);
+        when(mapper.findByBeginTimeBetween(any(), any(), any())).thenReturn(List.of(po));
+        assertEquals(1, onSaleDao.preloadStock(now.minusMinutes(2), now));
+        assertEquals(5L, onSaleDao.reserve(id, 12L, 1));
+    }
+
+    @Test
+    public void redisDownIsUnavailable() throws IOException {
+        RedisServer down = RedisServer.newRedisServer().start();
+        String name = down.getHost() + ":" + down.getBindPort();
+        down.stop();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        LettuceConnectionFactory factory = RedisConfig.connect(name, new RedisProperties());
+        RedisNode downNode = new RedisNode(name, RedisConfig.createTemplate(factory), List.of(), List.of(factory));
+        OnSalePoMapper downMapper = mock(OnSalePoMapper.class);
+        OnSaleDao downDao = new OnSaleDao(downMapper, mock(OnSaleBatchPoMapper.class), new RedisUtil(downNode, registry, breaker));
+        try {
+            BusinessException e = assertThrows(BusinessException.class, () -> downDao.reserve(1L, 10L, 1));
+            assertEquals(ReturnNo.SERVICE_UNAVAILABLE, e.getErrno());
+            // 不退回数据库
+            verify(downMapper, never()).findById(any());
+        } finally {
+            downNode.destroy();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import cn.edu.xmu.javaee.productdemoredis.service.OnSaleStockWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 库存写回的顺序：事务提交之后才确认流水，写库失败的批次不确认，重复的批次只确认不刷新缓存；
+ * 批次记录保留到流中最早的流水之前
+ */
+public class OnSaleStockWriterTest {
+
+    private static final OnSaleDao.ReservationBatch BATCH = new OnSaleDao.ReservationBatch(0, "onsale:reservations:{p0}:1-0:3-0",
+            List.of("1-0", "2-0", "3-0"), Map.of(16L, 3, 32L, 1));
+
+    private OnSaleDao onSaleDao;
+    private PlatformTransactionManager transactionManager;
+    private SimpleMeterRegistry registry;
+    private OnSaleStockWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        onSaleDao = mock(OnSaleDao.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        registry = new SimpleMeterRegistry();
+        writer = new OnSaleStockWriter(onSaleDao, transactionManager, true, 500, 60000, 3600000, registry);
+        when(onSaleDao.readReservations(anyInt(), anyString(), anyInt(), any())).thenReturn(null);
+    }
+
+    @Test
+    public void ackAfterCommit() {
+        when(onSaleDao.readReservations(eq(0), anyString(), anyInt(), any())).thenReturn(BATCH, (OnSaleDao.ReservationBatch) null);
+        when(onSaleDao.applyReservations(BATCH)).thenReturn(true);
+        writer.flush();
+        InOrder inOrder = inOrder(onSaleDao, transactionManager);
+        inOrder.verify(onSaleDao).applyReservations(BATCH);
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(onSaleDao).ackReservations(BATCH);
+        inOrder.verify(onSaleDao).refreshOnSaleCache(Set.of(16L, 32L));
+        assertEquals(3, registry.counter("onsale.stock.flush.reservations").count());
+    }
+
+    @Test
+    public void failedBatchIsNotAcked() {
+        when(onSaleDao.readReservations(eq(0), anyString(), anyInt(), any())).thenReturn(BATCH);
+        when(onSaleDao.applyReservations(BATCH)).thenThrow(new IllegalStateException("database is down"));
+        writer.flush();
+        verify(transactionManager).rollback(any());
+        verify(onSaleDao, never()).ackReservations(any());
+        verify(onSaleDao, never()).refreshOnSaleCache(any());
+    }
+
+    @Test
+    public void duplicateBatchIsAckedOnly() {
+        when(onSaleDao.readReservations(eq(0), anyString(), anyInt(), any())).thenReturn(BATCH, (OnSaleDao.ReservationBatch) null);
+        when(onSaleDao.applyReservations(BATCH)).thenReturn(false);
+        writer.flush();
+        verify(onSaleDao).ackReservations(BATCH);
+        verify(onSaleDao, never()).refreshOnSaleCache(any());
+        assertEquals(1, registry.counter("onsale.stock.flush.batches", "result", "duplicate").count());
+    }
+
+    @Test
+    public void purgeKeepsBatchesOfUnackedRecords() {
+        long oldest = System.currentTimeMillis() - Duration.ofHours(2).toMillis();
+        when(onSaleDao.oldestReservationTime(anyInt())).thenReturn(null);
+        when(onSaleDao.oldestReservationTime(3)).thenReturn(oldest);
+        writer.purgeBatches();
+        // 流中最早的流水之前再留出一小时
+        LocalDateTime before = LocalDateTime.ofInstant(Instant.ofEpochMilli(oldest).minus(Duration.ofHours(1)), ZoneId.systemDefault());
+        verify(onSaleDao).purgeAppliedBatches(before);
+        verify(transactionManager).commit(any());
+    }
+}
@@ -0,0 +1,111 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductNameIndex;
+import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductNamePo;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static cn.edu.xmu.javaee.core.model.Constants.PLATFORM;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商品名称的n-gram索引，数据库用Mock代替
+ */
+public class ProductNameIndexTest {
+
+    private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+
+    private static ProductPo product(long id, long shopId, String name) {
+        ProductPo po = new ProductPo();
+        po.setId(id);
+        po.setShopId(shopId);
+        po.setName(name);
+        return po;
+    }
+
+    private static ProductNameIndex indexOf(List<ProductPo> products) {
+        ProductPoMapper mapper = mock(ProductPoMapper.class);
+        when(mapper.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Limit.class))).thenAnswer(invocation -> {
+            long after = invocation.getArgument(0);
+            Limit limit = invocation.getArgument(1);
+            return products.stream().filter(po -> po.getId() > after).limit(limit.max())
+                    .map(po -> PROJECTIONS.createProjection(ProductNamePo.class, po)).collect(Collectors.toList());
+        });
+        // 每批2个商品，验证分批读取
+        ProductNameIndex index = new ProductNameIndex(mapper, 2);
+        assertFalse(index.isReady());
+        index.rebuild();
+        assertTrue(index.isReady());
+        return index;
+    }
+
+    @Test
+    public void substringSearchIsRanked() {
+        ProductNameIndex index = indexOf(List.of(
+                product(1, 10, "伊利纯牛奶"),
+                product(2, 10, "牛奶"),
+                product(3, 11, "蒙牛高钙牛奶250ml"),
+                product(4, 11, "牛奶糖"),
+                product(5, 10, "奶粉"),
+                product(6, 12, "ＡＢＣ饼干"),
+                product(7, 12, "奶糖与糖奶")));
+        // 完全相同、开头匹配、中间匹配（先按位置再按名称长度）
+        assertEquals(List.of(2L, 4L, 1L, 3L), index.search(PLATFORM, "牛奶", 10));
+        assertEquals(List.of(2L, 4L), index.search(PLATFORM, "牛奶", 2));
+        // 单字查询
+        assertEquals(List.of(5L, 7L, 2L, 4L, 1L, 3L), index.search(PLATFORM, "奶", 10));
+        // 商铺分区
+        assertEquals(List.of(2L, 1L), index.search(10L, "牛奶", 10));
+        assertEquals(List.of(), index.search(13L, "牛奶", 10));
+        // 片段都在但不相连的不算
+        assertEquals(List.of(), index.search(PLATFORM, "奶糖奶", 10));
+        // 全角和大小写
+        assertEquals(List.of(6L), index.search(PLATFORM, "abc", 10));
+        assertEquals(List.of(3L), index.search(PLATFORM, "250ML", 10));
+        assertEquals(List.of(), index.search(PLATFORM, "  ", 10));
+    }
+
+    @Test
+    public void incrementalUpdates() {
+        ProductNameIndex index = indexOf(List.of(product(1, 10, "苹果"), product(2, 10, "香蕉")));
+        index.put(3L, 11L, "苹果汁");
+        assertEquals(List.of(1L, 3L), index.search(PLATFORM, "苹果", 10));
+        assertEquals(List.of(3L), index.search(11L, "苹果", 10));
+
+        // 改名和转移商铺
+        index.put(1L, 11L, "红富士");
+        assertEquals(List.of(3L), index.search(PLATFORM, "苹果", 10));
+        assertEquals(List.of(1L), index.search(11L, "富士", 10));
+        assertEquals(List.of(), index.search(10L, "富士", 10));
+
+        index.remove(3L);
+        assertEquals(List.of(), index.search(PLATFORM, "苹果", 10));
+        assertEquals(List.of(2L), index.search(10L, "香蕉", 10));
+    }
+
+    @Test
+    public void compactAfterManyDeletes() {
+        List<ProductPo> products = new ArrayList<>();
+        for (long id = 1; id <= 3000; id++) {
+            products.add(product(id, 10, "商品" + id));
+        }
+        ProductNameIndex index = indexOf(products);
+        for (long id = 1; id <= 2000; id++) {
+            index.remove(id);
+        }
+        assertEquals(List.of(2990L, 2991L), index.search(10L, "商品299", 2));
+        assertEquals(List.of(), index.search(10L, "商品1999", 10));
+        assertEquals(List.of(2500L), index.search(PLATFORM, "商品2500", 1));
+    }
+}
@@ -0,0 +1,142 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductRelationGraph;
+import cn.edu.xmu.javaee.productdemoredis.mapper.GoodsPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsRelationPo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商品关联图，数据库用Mock代替
+ */
+public class ProductRelationGraphTest {
+
+    private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+
+    /**
+     * 晚于当前时间，水位取关联的时间
+     */
+    private static final LocalDateTime T0 = LocalDateTime.now().plusHours(1).withNano(0);
+
+    private static GoodsPo relation(long id, long productId, long relateProductId, LocalDateTime time) {
+        GoodsPo po = new GoodsPo();
+        po.setId(id);
+        po.setProductId(productId);
+        po.setRelateProductId(relateProductId);
+        po.setGmtCreate(time);
+        return po;
+    }
+
+    private static List<GoodsRelationPo> page(List<GoodsPo> relations, long after, Limit limit) {
+        return relations.stream().filter(po -> po.getId() > after).limit(limit.max())
+                .map(po -> PROJECTIONS.createProjection(GoodsRelationPo.class, po)).collect(Collectors.toList());
+    }
+
+    private static ProductRelationGraph graphOf(List<GoodsPo> relations, GoodsPoMapper mapper) {
+        when(mapper.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Limit.class))).thenAnswer(invocation ->
+                page(relations, invocation.getArgument(0), invocation.getArgument(1)));
+        when(mapper.findModifiedSince(any(LocalDateTime.class), anyLong(), any(Limit.class))).thenAnswer(invocation -> {
+            LocalDateTime since = invocation.getArgument(0);
+            List<GoodsPo> modified = relations.stream().filter(po -> !po.getGmtCreate().isBefore(since)
+                    || (po.getGmtModified() != null && !po.getGmtModified().isBefore(since))).collect(Collectors.toList());
+            return page(modified, invocation.getArgument(1), invocation.getArgument(2));
+        });
+        // 每批2条关联，验证分批读取
+        ProductRelationGraph graph = new ProductRelationGraph(mapper, 2, 5000, new SimpleMeterRegistry());
+        assertFalse(graph.isReady());
+        graph.rebuild();
+        assertTrue(graph.isReady());
+        return graph;
+    }
+
+    @Test
+    public void neighboursAndTwoHops() {
+        GoodsPoMapper mapper = mock(GoodsPoMapper.class);
+        ProductRelationGraph graph = graphOf(List.of(
+                relation(1, 1, 2, T0),
+                relation(2, 1, 3, T0),
+                relation(3, 2, 4, T0),
+                relation(4, 3, 4, T0),
+                relation(5, 3, 5, T0),
+                relation(6, 2, 1, T0),
+                relation(7, 2, 3, T0),
+                relation(8, 4, 6, T0)), mapper);
+        assertArrayEquals(new long[]{2, 3}, graph.neighbours(1));
+        assertArrayEquals(new long[]{4, 1, 3}, graph.neighbours(2));
+        assertArrayEquals(new long[]{}, graph.neighbours(5));
+        assertArrayEquals(new long[]{}, graph.neighbours(100));
+        // 4经过2和3，5只经过3；不含1本身和直接关联的2、3；6是三跳
+        assertArrayEquals(new long[]{4, 5}, graph.alsoRelated(1, 10));
+        assertArrayEquals(new long[]{4}, graph.alsoRelated(1, 1));
+        assertArrayEquals(new long[]{5, 6}, graph.alsoRelated(2, 10));
+        assertArrayEquals(new long[]{}, graph.alsoRelated(6, 10));
+    }
+
+    @Test
+    public void incrementalRefresh() {
+        GoodsPoMapper mapper = mock(GoodsPoMapper.class);
+        List<GoodsPo> relations = new ArrayList<>(List.of(
+                relation(1, 1, 2, T0),
+                relation(2, 1, 3, T0),
+                relation(3, 2, 3, T0)));
+        ProductRelationGraph graph = graphOf(relations, mapper);
+
+        // 新增关联，修改关联的一端
+        relations.add(relation(4, 3, 1, T0.plusMinutes(1)));
+        relations.get(0).setRelateProductId(4L);
+        relations.get(0).setGmtModified(T0.plusMinutes(1));
+        graph.refresh();
+        assertArrayEquals(new long[]{4, 3}, graph.neighbours(1));
+        assertArrayEquals(new long[]{1}, graph.neighbours(3));
+        assertArrayEquals(new long[]{3}, graph.neighbours(2));
+
+        // 水位往前多取overlap，重复取到的关联不会重复加入
+        relations.add(relation(5, 1, 5, T0.plusMinutes(2)));
+        graph.refresh();
+        assertArrayEquals(new long[]{4, 3, 5}, graph.neighbours(1));
+        assertArrayEquals(new long[]{1}, graph.neighbours(3));
+        verify(mapper).findModifiedSince(eq(T0.minusSeconds(5)), eq(0L), any(Limit.class));
+        verify(mapper).findModifiedSince(eq(T0.plusMinutes(1).minusSeconds(5)), eq(0L), any(Limit.class));
+    }
+
+    @Test
+    public void refreshSkippedWhileRebuilding() throws Exception {
+        GoodsPoMapper mapper = mock(GoodsPoMapper.class);
+        ProductRelationGraph graph = graphOf(new ArrayList<>(List.of(relation(1, 1, 2, T0))), mapper);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mapper.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Limit.class))).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return List.of();
+        });
+        Thread rebuilding = new Thread(graph::rebuild);
+        rebuilding.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        // 重建正在读数据库，刷新不等待，直接跳过
+        graph.refresh();
+        verify(mapper, never()).findModifiedSince(any(), anyLong(), any(Limit.class));
+
+        release.countDown();
+        rebuilding.join(5000);
+        assertFalse(rebuilding.isAlive());
+        assertArrayEquals(new long[]{}, graph.neighbours(1));
+    }
+}
@@ -0,0 +1,97 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductSuggester;
+import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductNamePo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * 前缀联想的字典树，数据库用Mock代替
+ */
+public class ProductSuggesterTest {
+
+    private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+
+    private static ProductPo product(long id, String name) {
+        ProductPo po = new ProductPo();
+        po.setId(id);
+        po.setShopId(1L);
+        po.setName(name);
+        return po;
+    }
+
+    private static ProductSuggester suggesterOf(List<ProductPo> products, SimpleMeterRegistry registry) {
+        ProductPoMapper mapper = mock(ProductPoMapper.class);
+        when(mapper.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Limit.class))).thenAnswer(invocation -> {
+            long after = invocation.getArgument(0);
+            Limit limit = invocation.getArgument(1);
+            return products.stream().filter(po -> po.getId() > after).limit(limit.max())
+                    .map(po -> PROJECTIONS.createProjection(ProductNamePo.class, po)).collect(Collectors.toList());
+        });
+        return new ProductSuggester(mapper, 3, registry);
+    }
+
+    @Test
+    public void topSuggestionsByPopularity() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProductSuggester suggester = suggesterOf(List.of(
+                product(1, "牛奶"), product(2, "牛奶糖"), product(3, "牛肉干"),
+                product(4, "牛奶"), product(5, "Milk Tea"), product(6, "羊奶粉")), registry);
+        assertEquals(List.of(), suggester.suggest("牛", 10));
+        suggester.rebuild();
+        // 同名的商品合并为一个联想词
+        assertEquals(5, suggester.size());
+        // 热度相同时按字典序，前缀在前
+        assertEquals(List.of("牛奶", "牛奶糖", "牛肉干"), suggester.suggest("牛", 10));
+
+        for (int i = 0; i < 3; i++) {
+            suggester.recordView(3L);
+        }
+        suggester.recordView(2L);
+        suggester.recordView(2L);
+        // 两个"牛奶"的热度相加
+        suggester.recordView(1L);
+        suggester.recordView(4L);
+        suggester.recordView(4L);
+        suggester.rebuild();
+        assertEquals(List.of("牛奶", "牛肉干", "牛奶糖"), suggester.suggest("牛", 10));
+        assertEquals(List.of("牛奶", "牛肉干"), suggester.suggest("牛", 2));
+        assertEquals(List.of("牛奶", "牛奶糖"), suggester.suggest("牛奶", 10));
+        assertEquals(List.of("Milk Tea"), suggester.suggest("ＭＩＬ", 10));
+        assertEquals(List.of(), suggester.suggest("牛排", 10));
+        assertEquals(List.of(), suggester.suggest(" ", 10));
+
+        // 热度每次重建减半：牛肉干3 -> 1，牛奶糖2 -> 1，牛奶1+2 -> 0+1
+        suggester.rebuild();
+        assertEquals(List.of("牛奶", "牛奶糖", "牛肉干"), suggester.suggest("牛", 10));
+        assertEquals(suggester.memoryBytes(), registry.get("product.suggest.memory").gauge().value());
+    }
+
+    @Test
+    public void memoryIsCompact() {
+        List<ProductPo> products = new ArrayList<>();
+        for (long id = 1; id <= 20000; id++) {
+            products.add(product(id, "商品" + id));
+        }
+        ProductSuggester suggester = suggesterOf(products, new SimpleMeterRegistry());
+        suggester.rebuild();
+        assertEquals(20000, suggester.size());
+        assertEquals(List.of("商品1", "商品10", "商品100"), suggester.suggest("商品1", 3));
+        // 每个名称不超过100字节，即每百万个名称不超过约100MB
+        assertTrue(suggester.memoryBytes() / suggester.size() < 100);
+    }
+}
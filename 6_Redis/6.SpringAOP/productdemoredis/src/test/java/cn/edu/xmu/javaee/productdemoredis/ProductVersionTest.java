@@ -0,0 +1,219 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.bean.RequestVariables;
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.core.infrastructure.RedisCircuitBreaker;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.model.UserToken;
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductDao;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductNameIndex;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductRelationGraph;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import cn.edu.xmu.javaee.productdemoredis.mapper.GoodsPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.OnSaleBatchPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.OnSalePoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.ProductPoMapper;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.GoodsPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.OnSalePo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductPo;
+import cn.edu.xmu.javaee.productdemoredis.mapper.po.ProductSnapshotPo;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static cn.edu.xmu.javaee.core.model.Constants.PLATFORM;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商品的版本（ETag）只从Redis替身上的缓存读出，数据库用Mock代替
+ */
+public class ProductVersionTest {
+
+    private static RedisServer server;
+    private static RedisNode node;
+    private static ProductPoMapper productPoMapper;
+    private static OnSalePoMapper onSalePoMapper;
+    private static GoodsPoMapper goodsPoMapper;
+    private static OnSaleDao onSaleDao;
+    private static ProductDao productDao;
+    private static RedisUtil redisUtil;
+    private static RequestVariables requestVariables;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        String name = server.getHost() + ":" + server.getBindPort();
+        LettuceConnectionFactory factory = RedisConfig.connect(name, new RedisProperties());
+        node = new RedisNode(name, RedisConfig.createTemplate(factory), List.of(), List.of(factory));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        redisUtil = new RedisUtil(node, registry, breaker);
+        productPoMapper = mock(ProductPoMapper.class);
+        onSalePoMapper = mock(OnSalePoMapper.class);
+        goodsPoMapper = mock(GoodsPoMapper.class);
+        requestVariables = new RequestVariables();
+        requestVariables.setUser(new UserToken(1L, "admin", 10L, 1));
+        onSaleDao = new OnSaleDao(onSalePoMapper, mock(OnSaleBatchPoMapper.class), redisUtil);
+        productDao = productDao(mock(ProductRelationGraph.class));
+    }
+
+    /**
+     * 一个节点上的ProductDao，各节点共用Redis，关联图各自一份
+     */
+    private static ProductDao productDao(ProductRelationGraph graph) {
+        return new ProductDao(productPoMapper, onSaleDao, goodsPoMapper, requestVariables, redisUtil, mock(ProductNameIndex.class),
+                graph, mock(PlatformTransactionManager.class));
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        node.destroy();
+        server.stop();
+    }
+
+    private static ProductPo product(long id, long shopId, String name) {
+        ProductPo po = new ProductPo();
+        po.setId(id);
+        po.setShopId(shopId);
+        po.setName(name);
+        po.setGmtModified(LocalDateTime.of(2025, 11, 1, 10, 0));
+        when(productPoMapper.findFreshById(id)).thenReturn(Optional.of(po));
+        return po;
+    }
+
+    private static OnSalePo onSale(long id, long productId, int quantity) {
+        OnSalePo po = new OnSalePo();
+        po.setId(id);
+        po.setProductId(productId);
+        po.setPrice(100L);
+        po.setQuantity(quantity);
+        po.setBeginTime(LocalDateTime.now().minusDays(1));
+        po.setEndTime(LocalDateTime.now().plusDays(1));
+        return po;
+    }
+
+    @Test
+    public void versionIsReadFromCacheOnly() {
+        product(101L, 10L, "product101");
+        ProductPo related = product(102L, 10L, "product102");
+        GoodsPo goods = new GoodsPo();
+        goods.setProductId(101L);
+        goods.setRelateProductId(102L);
+        when(goodsPoMapper.findFreshByProductId(101L)).thenReturn(List.of(goods));
+        when(productPoMapper.findByIdIn(List.of(102L)))
+                .thenReturn(List.of(new SpelAwareProxyProjectionFactory().createProjection(ProductSnapshotPo.class, related)));
+        when(onSalePoMapper.findByProductIdEqualsAndBeginTimeBeforeAndEndTimeAfter(eq(101L), any(), any(), any()))
+                .thenReturn(List.of(onSale(1001L, 101L, 50)));
+
+        assertNull(productDao.findVersionById(PLATFORM, 101L, true));
+        verify(productPoMapper, never()).findFreshById(101L);
+
+        productDao.findById(PLATFORM, 101L);
+        String version = productDao.findVersionById(PLATFORM, 101L, true);
+        assertNotNull(version);
+        assertEquals(version, productDao.findVersionById(PLATFORM, 101L, true));
+        assertNotNull(productDao.findVersionById(10L, 101L, false));
+        // 其他商铺的商品
+        assertNull(productDao.findVersionById(11L, 101L, false));
+        verify(productPoMapper, times(1)).findFreshById(101L);
+    }
+
+    @Test
+    public void versionChangesWithOnSale() {
+        product(201L, 10L, "product201");
+        when(goodsPoMapper.findFreshByProductId(201L)).thenReturn(List.of());
+        OnSalePo onSale = onSale(2001L, 201L, 50);
+        when(onSalePoMapper.findByProductIdEqualsAndBeginTimeBeforeAndEndTimeAfter(eq(201L), any(), any(), any()))
+                .thenReturn(List.of(onSale));
+        productDao.findById(PLATFORM, 201L);
+        String version = productDao.findVersionById(PLATFORM, 201L, true);
+        assertNotNull(version);
+
+        // 库存写回数据库后刷新OnSale缓存，版本失效，重新组装商品后得到新的版本
+        onSale.setQuantity(40);
+        when(onSalePoMapper.findAllById(List.of(2001L))).thenReturn(List.of(onSale));
+        onSaleDao.refreshOnSaleCache(List.of(2001L));
+        assertNull(productDao.findVersionById(PLATFORM, 201L, true));
+        productDao.findById(PLATFORM, 201L);
+        String refreshed = productDao.findVersionById(PLATFORM, 201L, true);
+        assertNotNull(refreshed);
+        assertNotEquals(version, refreshed);
+    }
+
+    @Test
+    public void versionChangesWithProduct() {
+        ProductPo po = product(301L, 10L, "product301");
+        when(goodsPoMapper.findFreshByProductId(301L)).thenReturn(List.of());
+        when(onSalePoMapper.findByProductIdEqualsAndBeginTimeBeforeAndEndTimeAfter(eq(301L), any(), any(), any()))
+                .thenReturn(List.of());
+        productDao.findById(PLATFORM, 301L);
+        String version = productDao.findVersionById(PLATFORM, 301L, true);
+        assertNotNull(version);
+
+        // 同一秒内的修改gmtModified不变，版本仍然随内容改变
+        when(productPoMapper.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Product modified = new Product();
+        modified.setId(301L);
+        modified.setName("product301-new");
+        productDao.update(modified);
+        assertNull(productDao.findVersionById(PLATFORM, 301L, true));
+        productDao.findById(PLATFORM, 301L);
+        String updated = productDao.findVersionById(PLATFORM, 301L, true);
+        assertNotNull(updated);
+        assertNotEquals(version, updated);
+        assertEquals("product301-new", po.getName());
+    }
+
+    @Test
+    public void versionIsDigestOfCachedContent() {
+        product(401L, 10L, "product401");
+        when(goodsPoMapper.findFreshByProductId(401L)).thenReturn(List.of());
+        when(onSalePoMapper.findByProductIdEqualsAndBeginTimeBeforeAndEndTimeAfter(eq(401L), any(), any(), any()))
+                .thenReturn(List.of(onSale(4001L, 401L, 50)));
+        productDao.findById(PLATFORM, 401L);
+        // 商品、OnSale列表和关联商品列表各是16位十六进制的摘要
+        assertTrue(productDao.findVersionById(PLATFORM, 401L, true).matches("[0-9a-f]{16}-[0-9a-f]{16}-[0-9a-f]{16}"));
+        assertTrue(productDao.findVersionById(PLATFORM, 401L, false).matches("[0-9a-f]{16}"));
+    }
+
+    @Test
+    public void relationVersionIsSharedBetweenNodes() {
+        product(501L, 10L, "product501");
+        when(onSalePoMapper.findByProductIdEqualsAndBeginTimeBeforeAndEndTimeAfter(eq(501L), any(), any(), any()))
+                .thenReturn(List.of());
+        // 两个节点的关联图还没有同步到同样的关联关系
+        ProductRelationGraph graph = mock(ProductRelationGraph.class);
+        when(graph.isReady()).thenReturn(true);
+        when(graph.neighbours(501L)).thenReturn(new long[0]);
+        ProductRelationGraph otherGraph = mock(ProductRelationGraph.class);
+        when(otherGraph.isReady()).thenReturn(true);
+        when(otherGraph.neighbours(501L)).thenReturn(new long[] {502L});
+        ProductDao node = productDao(graph);
+        ProductDao otherNode = productDao(otherGraph);
+
+        assertNull(otherNode.findVersionById(PLATFORM, 501L, true));
+        node.findById(PLATFORM, 501L);
+        String version = node.findVersionById(PLATFORM, 501L, true);
+        assertNotNull(version);
+        // 版本只取自Redis，与节点的关联图无关
+        assertEquals(version, otherNode.findVersionById(PLATFORM, 501L, true));
+        verify(goodsPoMapper, never()).findFreshByProductId(501L);
+    }
+}
@@ -0,0 +1,204 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.core.infrastructure.RedisCircuitBreaker;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.limiter.RateLimit;
+import cn.edu.xmu.javaee.core.limiter.RateLimiters;
+import cn.edu.xmu.javaee.core.model.UserToken;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两级限流：本节点的令牌桶和Redis替身上的滑动窗口
+ */
+public class RateLimitersTest {
+
+    private static RedisServer server;
+    private static RedisNode node;
+    private static RedisUtil redisUtil;
+
+    static class Endpoints {
+        @RateLimit(name = "test.local", rate = 1, burst = 3)
+        public void local() {
+        }
+
+        @RateLimit(name = "test.cluster", keys = RateLimit.KeyType.USER, quota = 5)
+        public void cluster() {
+        }
+
+        @RateLimit(name = "test.client", quota = 3)
+        public void client() {
+        }
+
+        @RateLimit(name = "test.configured", quota = 100)
+        public void configured() {
+        }
+
+        @RateLimit(name = "test.userShop", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, quota = 3)
+        public void userShop() {
+        }
+
+        @RateLimit(name = "test.userShopLocal", keys = {RateLimit.KeyType.USER, RateLimit.KeyType.SHOP}, rate = 1, burst = 2)
+        public void userShopLocal() {
+        }
+    }
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        String name = server.getHost() + ":" + server.getBindPort();
+        LettuceConnectionFactory factory = RedisConfig.connect(name, new RedisProperties());
+        node = new RedisNode(name, RedisConfig.createTemplate(factory), List.of(), List.of(factory));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        redisUtil = new RedisUtil(node, registry, breaker);
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        node.destroy();
+        server.stop();
+    }
+
+    private static MockHttpServletRequest client(String address) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/products");
+        request.setRemoteAddr(address);
+        return request;
+    }
+
+    private static MockHttpServletRequest shop(long shopId) {
+        MockHttpServletRequest request = client("10.0.0.5");
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("shopId", String.valueOf(shopId)));
+        return request;
+    }
+
+    @Test
+    public void localBucketPerClient() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RateLimiters limiters = new RateLimiters(true, redisUtil, registry, new MockEnvironment());
+        Method method = Endpoints.class.getMethod("local");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiters.tryAcquire(method, client("10.0.0.1"), null));
+        }
+        assertTrue(limiters.tryAcquire(method, client("10.0.0.1"), null) > 0);
+        // 其他客户端有自己的令牌桶
+        assertEquals(0, limiters.tryAcquire(method, client("10.0.0.2"), null));
+        // 伪造X-Forwarded-For不会得到新的令牌桶
+        MockHttpServletRequest forwarded = client("10.0.0.1");
+        forwarded.addHeader("X-Forwarded-For", "192.168.1.1, 10.0.0.1");
+        assertTrue(limiters.tryAcquire(method, forwarded, null) > 0);
+        assertEquals(2.0, registry.counter("controller.ratelimit.throttled",
+                "rule", "test.local", "key", "client", "level", "local").count());
+    }
+
+    @Test
+    public void spoofedForwardedForSharesQuota() throws Exception {
+        RateLimiters limiters = new RateLimiters(true, redisUtil, new SimpleMeterRegistry(), new MockEnvironment());
+        Method method = Endpoints.class.getMethod("client");
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest request = client("10.0.0.4");
+            request.addHeader("X-Forwarded-For", "172.16.0." + i);
+            assertEquals(0, limiters.tryAcquire(method, request, null));
+        }
+        MockHttpServletRequest request = client("10.0.0.4");
+        request.addHeader("X-Forwarded-For", "172.16.0.100");
+        assertTrue(limiters.tryAcquire(method, request, null) > 0);
+    }
+
+    @Test
+    public void clusterQuotaSharedByNodes() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RateLimiters node1 = new RateLimiters(true, redisUtil, registry, new MockEnvironment());
+        RateLimiters node2 = new RateLimiters(true, redisUtil, registry, new MockEnvironment());
+        Method method = Endpoints.class.getMethod("cluster");
+        UserToken user = new UserToken(1L, "user1", 0L, 1);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, node1.tryAcquire(method, client("10.0.0.1"), user));
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, node2.tryAcquire(method, client("10.0.0.2"), user));
+        }
+        long retryAfter = node2.tryAcquire(method, client("10.0.0.2"), user);
+        assertTrue(retryAfter > 0 && retryAfter <= 60000);
+        assertTrue(node1.tryAcquire(method, client("10.0.0.1"), user) > 0);
+        assertEquals(2.0, registry.counter("controller.ratelimit.throttled",
+                "rule", "test.cluster", "key", "user", "level", "cluster").count());
+        // 其他用户和未登录的请求不受影响
+        assertEquals(0, node1.tryAcquire(method, client("10.0.0.1"), new UserToken(2L, "user2", 0L, 1)));
+        assertEquals(0, node1.tryAcquire(method, client("10.0.0.1"), null));
+    }
+
+    @Test
+    public void configurationOverridesAnnotation() throws Exception {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("javaee.core.rate-limit.rules.test.configured.quota", "2");
+        RateLimiters limiters = new RateLimiters(true, redisUtil, new SimpleMeterRegistry(), environment);
+        Method method = Endpoints.class.getMethod("configured");
+        assertEquals(0, limiters.tryAcquire(method, client("10.0.0.3"), null));
+        assertEquals(0, limiters.tryAcquire(method, client("10.0.0.3"), null));
+        assertTrue(limiters.tryAcquire(method, client("10.0.0.3"), null) > 0);
+
+        RateLimiters disabled = new RateLimiters(false, redisUtil, new SimpleMeterRegistry(), environment);
+        assertEquals(0, disabled.tryAcquire(method, client("10.0.0.3"), null));
+    }
+
+    @Test
+    public void rejectedByShopDoesNotChargeUser() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RateLimiters limiters = new RateLimiters(true, redisUtil, registry, new MockEnvironment());
+        Method method = Endpoints.class.getMethod("userShop");
+        UserToken other = new UserToken(11L, "user11", 0L, 1);
+        UserToken user = new UserToken(12L, "user12", 0L, 1);
+        // 其他用户用完了商铺1的配额
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiters.tryAcquire(method, shop(1), other));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiters.tryAcquire(method, shop(1), user) > 0);
+        }
+        // 在商铺1被拒绝的请求没有计入用户的配额
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiters.tryAcquire(method, shop(2), user));
+        }
+        assertTrue(limiters.tryAcquire(method, shop(3), user) > 0);
+        assertEquals(3.0, registry.counter("controller.ratelimit.throttled",
+                "rule", "test.userShop", "key", "shop", "level", "cluster").count());
+        assertEquals(1.0, registry.counter("controller.ratelimit.throttled",
+                "rule", "test.userShop", "key", "user", "level", "cluster").count());
+    }
+
+    @Test
+    public void rejectedByShopReturnsUserToken() throws Exception {
+        RateLimiters limiters = new RateLimiters(true, redisUtil, new SimpleMeterRegistry(), new MockEnvironment());
+        Method method = Endpoints.class.getMethod("userShopLocal");
+        UserToken other = new UserToken(21L, "user21", 0L, 1);
+        UserToken user = new UserToken(22L, "user22", 0L, 1);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, limiters.tryAcquire(method, shop(1), other));
+        }
+        for (int i = 0; i < 2; i++) {
+            assertTrue(limiters.tryAcquire(method, shop(1), user) > 0);
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, limiters.tryAcquire(method, shop(2), user));
+        }
+    }
+}
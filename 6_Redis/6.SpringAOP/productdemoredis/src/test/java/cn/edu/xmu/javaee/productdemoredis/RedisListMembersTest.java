@@ -0,0 +1,140 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.core.infrastructure.RedisCircuitBreaker;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.infrastructure.ShardRing;
+import cn.edu.xmu.javaee.core.util.IdListCodec;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 用脚本一次读出ID列表及其成员：单个节点，以及成员分布在两个分片上；
+ * ID列表的紧凑编码，以及旧的JSON格式的ID列表
+ */
+public class RedisListMembersTest {
+
+    private static final List<RedisServer> servers = new ArrayList<>();
+    private static final List<RedisNode> nodes = new ArrayList<>();
+    private static RedisUtil single;
+    private static RedisUtil sharded;
+
+    @BeforeAll
+    static void start() throws IOException {
+        RedisProperties properties = new RedisProperties();
+        for (int i = 0; i < 2; i++) {
+            RedisServer server = RedisServer.newRedisServer().start();
+            servers.add(server);
+            String name = server.getHost() + ":" + server.getBindPort();
+            LettuceConnectionFactory factory = RedisConfig.connect(name, properties);
+            nodes.add(new RedisNode(name, RedisConfig.createTemplate(factory), List.of(), List.of(factory)));
+        }
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        single = new RedisUtil(nodes.get(0), registry, breaker);
+        sharded = new RedisUtil(new ShardRing<>(nodes, RedisNode::getName), registry, breaker);
+        single.loadScripts();
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        sharded.shutdown();
+        nodes.forEach(RedisNode::destroy);
+        for (RedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void listMiss() {
+        assertNull(single.getListMembers("members:list:{0}", "members:obj:{", "}"));
+    }
+
+    @Test
+    public void emptyList() {
+        single.setIds("members:list:{1}", new long[0], -1);
+        RedisUtil.ListMembers result = single.getListMembers("members:list:{1}", "members:obj:{", "}");
+        assertNotNull(result);
+        assertEquals(0, result.ids().length);
+        assertTrue(result.isComplete());
+    }
+
+    @Test
+    public void partialHitsKeepOrder() {
+        // 不按大小排列，差值有正有负
+        long[] ids = new long[20];
+        for (int i = 0; i < ids.length; i++) {
+            long id = i % 2 == 0 ? 100 + i : 3000000000L - i;
+            ids[i] = id;
+            if (i % 7 != 0) {
+                single.set("members:obj:{" + id + "}", "obj" + id, -1);
+            }
+        }
+        single.setIds("members:list:{2}", ids, -1);
+        RedisUtil.ListMembers result = single.getListMembers("members:list:{2}", "members:obj:{", "}");
+        assertArrayEquals(ids, result.ids());
+        assertFalse(result.isComplete());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i % 7 == 0 ? null : "obj" + ids[i], result.members().get(i));
+        }
+    }
+
+    @Test
+    public void legacyJsonList() {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (long id = 300; id < 305; id++) {
+            ids.add(id);
+            single.set("members:obj:{" + id + "}", "obj" + id, -1);
+        }
+        single.set("members:list:{4}", ids, -1);
+        RedisUtil.ListMembers result = single.getListMembers("members:list:{4}", "members:obj:{", "}");
+        assertArrayEquals(new long[]{300, 301, 302, 303, 304}, result.ids());
+        assertTrue(result.isComplete());
+    }
+
+    @Test
+    public void packedEncoding() {
+        long[] ids = {0, 1, 127, 128, 5, -3, Long.MAX_VALUE, Long.MIN_VALUE, 42};
+        byte[] bytes = IdListCodec.encode(ids);
+        assertTrue(IdListCodec.isPacked(bytes));
+        assertArrayEquals(ids, IdListCodec.decode(bytes));
+        assertArrayEquals(new long[0], IdListCodec.decode(IdListCodec.encode(new long[0])));
+        // 按id排列的列表每个ID只占1个字节
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = 1000000 + i * 3;
+        }
+        assertEquals(1 + 1 + 3 + 99, IdListCodec.encode(sorted).length);
+        assertFalse(IdListCodec.isPacked("[\"java.util.ArrayList\",[]]".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> IdListCodec.decode(new byte[]{IdListCodec.FORMAT, 2, 4}));
+    }
+
+    @Test
+    public void membersOnOtherShards() {
+        long[] ids = new long[40];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 200 + i;
+            sharded.set("members:obj:{" + ids[i] + "}", "obj" + ids[i], -1);
+        }
+        sharded.setIds("members:list:{3}", ids, -1);
+        RedisUtil.ListMembers result = sharded.getListMembers("members:list:{3}", "members:obj:{", "}");
+        assertTrue(result.isComplete());
+        List<Serializable> expected = Arrays.stream(ids).mapToObj(id -> (Serializable) ("obj" + id)).toList();
+        assertEquals(expected, result.members());
+    }
+}
@@ -0,0 +1,78 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.core.infrastructure.RedisCircuitBreaker;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 读副本路由：用两个本地Redis替身分别充当主节点和副本。
+ * 替身之间不会复制数据，因此可以从读到的值判断请求发往了哪个节点
+ */
+public class RedisReplicaRoutingTest {
+
+    private static RedisServer primaryServer;
+    private static RedisServer replicaServer;
+    private static RedisNode node;
+    private static RedisTemplate<String, Serializable> replica;
+    private static RedisUtil redisUtil;
+
+    @BeforeAll
+    static void start() throws IOException {
+        primaryServer = RedisServer.newRedisServer().start();
+        replicaServer = RedisServer.newRedisServer().start();
+        RedisProperties properties = new RedisProperties();
+        LettuceConnectionFactory primaryFactory = RedisConfig.connect(primaryServer.getHost() + ":" + primaryServer.getBindPort(), properties);
+        LettuceConnectionFactory replicaFactory = RedisConfig.connect(replicaServer.getHost() + ":" + replicaServer.getBindPort(), properties);
+        replica = RedisConfig.createTemplate(replicaFactory);
+        node = new RedisNode("primary", RedisConfig.createTemplate(primaryFactory), List.of(replica), List.of(primaryFactory, replicaFactory));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        redisUtil = new RedisUtil(node, registry, breaker);
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        node.destroy();
+        primaryServer.stop();
+        replicaServer.stop();
+    }
+
+    @Test
+    public void writeGoesToPrimary() {
+        redisUtil.set("routing:written", "primary", -1);
+        assertNull(redisUtil.get("routing:written"));
+        assertEquals("primary", redisUtil.get("routing:written", true));
+    }
+
+    @Test
+    public void readGoesToReplica() {
+        replica.opsForValue().set("routing:replica", "replica");
+        assertEquals("replica", redisUtil.get("routing:replica"));
+        assertNull(redisUtil.get("routing:replica", true));
+    }
+
+    @Test
+    public void listReadGoesToReplica() {
+        redisUtil.rightPushList("routing:list", "primary");
+        replica.opsForList().rightPush("routing:list", "replica");
+        assertEquals(List.of("replica"), redisUtil.rangeList("routing:list", 0, -1));
+        assertEquals(List.of("primary"), redisUtil.rangeList("routing:list", 0, -1, true));
+    }
+}
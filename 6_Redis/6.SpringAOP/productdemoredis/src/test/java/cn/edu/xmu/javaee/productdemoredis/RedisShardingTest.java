@@ -0,0 +1,123 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.config.RedisConfig;
+import cn.edu.xmu.javaee.core.infrastructure.RedisCircuitBreaker;
+import cn.edu.xmu.javaee.core.infrastructure.RedisNode;
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.core.infrastructure.ShardRing;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两个本地Redis替身作为两个分片
+ */
+public class RedisShardingTest {
+
+    private static final int KEYS = 200;
+
+    private static final List<RedisServer> servers = new ArrayList<>();
+    private static final List<RedisNode> nodes = new ArrayList<>();
+    private static ShardRing<RedisNode> ring;
+    private static RedisUtil redisUtil;
+
+    @BeforeAll
+    static void start() throws IOException {
+        RedisProperties properties = new RedisProperties();
+        for (int i = 0; i < 2; i++) {
+            RedisServer server = RedisServer.newRedisServer().start();
+            servers.add(server);
+            String name = server.getHost() + ":" + server.getBindPort();
+            LettuceConnectionFactory factory = RedisConfig.connect(name, properties);
+            nodes.add(new RedisNode(name, RedisConfig.createTemplate(factory), List.of(), List.of(factory)));
+        }
+        ring = new ShardRing<>(nodes, RedisNode::getName);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 50, 20, 0.5, 2000, 5000, 5, 50, 100, registry);
+        redisUtil = new RedisUtil(ring, registry, breaker);
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        redisUtil.shutdown();
+        nodes.forEach(RedisNode::destroy);
+        for (RedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void keysAreStoredOnTheirShard() {
+        int[] perShard = new int[nodes.size()];
+        for (long id = 0; id < KEYS; id++) {
+            String key = String.format("shard:obj:{%d}", id);
+            redisUtil.set(key, id, -1);
+            RedisNode owner = ring.get(key);
+            assertEquals(id, ((Number) owner.writer().opsForValue().get(key)).longValue());
+            for (RedisNode other : nodes) {
+                if (other != owner) {
+                    assertNull(other.writer().opsForValue().get(key));
+                }
+            }
+            perShard[nodes.indexOf(owner)]++;
+        }
+        for (int count : perShard) {
+            assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void getByListKeepsKeyOrderAcrossShards() {
+        List<String> keys = new ArrayList<>();
+        for (long id = 0; id < KEYS; id++) {
+            String key = String.format("shard:list:{%d}", id);
+            keys.add(key);
+            if (id % 3 != 0) {
+                redisUtil.set(key, id, -1);
+            }
+        }
+        List<Object> results = redisUtil.getByList(keys);
+        assertEquals(KEYS * 2, results.size());
+        for (int id = 0; id < KEYS; id++) {
+            if (id % 3 == 0) {
+                assertEquals(false, results.get(id * 2));
+                assertNull(results.get(id * 2 + 1));
+            } else {
+                assertEquals(true, results.get(id * 2));
+                assertEquals(id, ((Number) results.get(id * 2 + 1)).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void delAcrossShards() {
+        List<String> keys = new ArrayList<>();
+        for (long id = 0; id < KEYS; id++) {
+            String key = String.format("shard:del:{%d}", id);
+            keys.add(key);
+            redisUtil.set(key, id, -1);
+        }
+        assertEquals(KEYS, redisUtil.del(keys.toArray(new String[0])));
+        keys.forEach(key -> assertNull(redisUtil.get(key)));
+    }
+
+    @Test
+    public void scriptKeysMustShareShard() {
+        List<String> keys = new ArrayList<>();
+        for (long id = 0; id < KEYS; id++) {
+            keys.add(String.format("shard:script:{%d}", id));
+        }
+        assertThrows(IllegalArgumentException.class, () -> redisUtil.unionAndStoreSet(keys, "shard:script:dest"));
+    }
+}
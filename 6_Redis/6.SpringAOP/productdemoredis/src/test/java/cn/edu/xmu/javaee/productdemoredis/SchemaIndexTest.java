@@ -0,0 +1,49 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.productdemoredis.config.SchemaIndexInitializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 启动时补建索引：表用不带索引的DDL建立，与没有经过Hibernate建表的已有数据库相同
+ */
+public class SchemaIndexTest {
+
+    private static Set<String> indexesOf(DriverManagerDataSource dataSource, String table) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Connection connection = dataSource.getConnection();
+             ResultSet indexes = connection.getMetaData().getIndexInfo(null, null, table.toUpperCase(), false, false)) {
+            while (indexes.next()) {
+                names.add(indexes.getString("INDEX_NAME").toLowerCase());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void createsMissingIndexesOnce() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:schema-index;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE goods_product (id BIGINT PRIMARY KEY, shop_id BIGINT, name VARCHAR(128))");
+        jdbcTemplate.execute("CREATE TABLE goods_onsale (id BIGINT PRIMARY KEY, product_id BIGINT, end_time TIMESTAMP)");
+
+        SchemaIndexInitializer initializer = new SchemaIndexInitializer(dataSource, true);
+        initializer.run(null);
+        assertTrue(indexesOf(dataSource, "goods_product").containsAll(Set.of("idx_product_name_id", "idx_product_shop_name_id", "idx_product_shop_id")));
+        assertTrue(indexesOf(dataSource, "goods_onsale").contains("idx_onsale_product_end"));
+
+        // 再次启动时已有的索引不再建立，也不出错
+        initializer.run(null);
+        assertTrue(indexesOf(dataSource, "goods_product").contains("idx_product_shop_id"));
+    }
+}
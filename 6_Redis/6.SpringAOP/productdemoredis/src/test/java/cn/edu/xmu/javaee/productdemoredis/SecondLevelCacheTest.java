@@ -0,0 +1,94 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.infrastructure.RedisUtil;
+import cn.edu.xmu.javaee.productdemoredis.dao.OnSaleDao;
+import cn.edu.xmu.javaee.productdemoredis.dao.bo.Product;
+import cn.edu.xmu.javaee.productdemoredis.service.ProductService;
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import static cn.edu.xmu.javaee.core.model.Constants.PLATFORM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 本节点的二级缓存不能把其他节点修改之前的旧值写回共享的Redis。
+ * 其他节点的修改用JdbcTemplate直接修改数据库、再删除Redis中的键来模拟，本节点二级缓存中的仍是修改之前的值
+ */
+@SpringBootTest(classes = ProductDemoRedisApplication.class)
+@ActiveProfiles("loadtest")
+public class SecondLevelCacheTest {
+
+    private static final RedisServer REDIS = startRedis();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RedisUtil redisUtil;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private OnSaleDao onSaleDao;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", REDIS::getHost);
+        registry.add("spring.data.redis.port", REDIS::getBindPort);
+    }
+
+    private static RedisServer startRedis() {
+        try {
+            return RedisServer.newRedisServer().start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        REDIS.stop();
+    }
+
+    @Test
+    public void productModifiedByOtherNodeIsReloadedFromDatabase() {
+        long id = 7001;
+        this.jdbcTemplate.update("INSERT INTO goods_product (id, shop_id, name, original_price) VALUES (?, 1, 'before', 100)", id);
+        assertEquals("before", this.productService.retrieveSimpleProductByID(PLATFORM, id).getName());
+
+        // 其他节点修改商品，提交后删除Redis中的商品
+        this.jdbcTemplate.update("UPDATE goods_product SET name = 'after' WHERE id = ?", id);
+        this.redisUtil.del("product:obj:{" + id + "}");
+
+        assertEquals("after", this.productService.retrieveSimpleProductByID(PLATFORM, id).getName());
+        assertEquals("after", ((Product) this.redisUtil.get("product:obj:{" + id + "}")).getName());
+    }
+
+    @Test
+    public void stockReloadedFromDatabase() {
+        long id = 7002;
+        int partition = (int) (id % OnSaleDao.STOCK_PARTITIONS);
+        LocalDateTime now = LocalDateTime.now();
+        this.jdbcTemplate.update("INSERT INTO goods_onsale (id, shop_id, product_id, price, begin_time, end_time, quantity, max_quantity) "
+                + "VALUES (?, 1, 7002, 100, ?, ?, 10, 5)", id, now.minusHours(1), now.plusHours(1));
+        assertEquals(9, this.onSaleDao.reserve(id, 1L, 1));
+
+        // 其他节点写回了这次预留并确认了流水，之后库存键被淘汰
+        this.jdbcTemplate.update("UPDATE goods_onsale SET quantity = quantity - 1 WHERE id = ?", id);
+        this.redisUtil.del(String.format("onsale:pending:{p%d}", partition), String.format("onsale:stock:{p%d}:%d", partition, id));
+
+        assertEquals(8, this.onSaleDao.reserve(id, 2L, 1));
+    }
+}
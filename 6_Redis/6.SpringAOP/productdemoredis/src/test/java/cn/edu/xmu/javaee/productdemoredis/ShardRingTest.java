@@ -0,0 +1,63 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.infrastructure.ShardRing;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardRingTest {
+
+    private static final int KEYS = 100000;
+
+    private static final List<String> FOUR = List.of("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379", "10.0.0.4:6379");
+
+    @Test
+    public void sameHashTagSameShard() {
+        ShardRing<String> ring = new ShardRing<>(FOUR, Function.identity());
+        for (long id = 0; id < 1000; id++) {
+            String shard = ring.get(String.format("product:obj:{%d}", id));
+            assertEquals(shard, ring.get(String.format("product:relation:{%d}", id)));
+            assertEquals(shard, ring.get(String.format("product:onsale:list:{%d}", id)));
+        }
+    }
+
+    @Test
+    public void keysSpreadEvenly() {
+        ShardRing<String> ring = new ShardRing<>(FOUR, Function.identity());
+        Map<String, Integer> counts = new HashMap<>();
+        for (int id = 0; id < KEYS; id++) {
+            counts.merge(ring.get(String.format("product:obj:{%d}", id)), 1, Integer::sum);
+        }
+        assertEquals(FOUR.size(), counts.size());
+        counts.values().forEach(count -> assertTrue(Math.abs(count - KEYS / 4) < KEYS / 4 * 0.2, "count = " + count));
+    }
+
+    @Test
+    public void addingNodeMovesAboutOneNth() {
+        ShardRing<String> before = new ShardRing<>(FOUR, Function.identity());
+        List<String> five = new ArrayList<>(FOUR);
+        five.add("10.0.0.5:6379");
+        ShardRing<String> after = new ShardRing<>(five, Function.identity());
+        int moved = 0;
+        for (int id = 0; id < KEYS; id++) {
+            String key = String.format("product:obj:{%d}", id);
+            String from = before.get(key);
+            String to = after.get(key);
+            if (!from.equals(to)) {
+                // 只会迁移到新节点上，不会在老节点之间移动
+                assertEquals("10.0.0.5:6379", to);
+                moved++;
+            }
+        }
+        double ratio = (double) moved / KEYS;
+        assertTrue(ratio > 0.15 && ratio < 0.25, "moved ratio = " + ratio);
+    }
+}
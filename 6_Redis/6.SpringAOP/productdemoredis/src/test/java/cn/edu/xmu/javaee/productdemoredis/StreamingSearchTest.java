@@ -0,0 +1,54 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis;
+
+import cn.edu.xmu.javaee.core.model.ReturnNo;
+import cn.edu.xmu.javaee.core.model.ReturnObject;
+import cn.edu.xmu.javaee.productdemoredis.service.vo.CustomerProductVo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式的搜索结果：与整页的列表序列化结果相同，商品在写出时才逐个生成
+ */
+public class StreamingSearchTest {
+
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private static CustomerProductVo product(int id) {
+        CustomerProductVo other = CustomerProductVo.builder().id(id + 1000L).name("other" + id).build();
+        return CustomerProductVo.builder().id((long) id).name("product" + id).price(100L).otherProduct(List.of(other)).build();
+    }
+
+    @Test
+    public void sameJsonAsList() throws Exception {
+        List<CustomerProductVo> list = IntStream.range(0, 5).mapToObj(StreamingSearchTest::product).collect(Collectors.toList());
+        String expected = mapper.writeValueAsString(new ReturnObject(ReturnNo.OK, "成功", list));
+        String actual = mapper.writeValueAsString(new ReturnObject(ReturnNo.OK, "成功", list.stream()));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void productsAreWrittenAsTheyAreAssembled() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> writtenBefore = new ArrayList<>();
+        // 每个商品约200字节，生成器的缓冲区写满之后，后面的商品生成时前面的已经写出
+        Stream<CustomerProductVo> products = IntStream.range(0, 200).mapToObj(i -> {
+            writtenBefore.add(out.size());
+            return product(i);
+        });
+        mapper.writeValue(out, new ReturnObject(ReturnNo.OK, "成功", products));
+        assertEquals(0, writtenBefore.get(0));
+        assertTrue(writtenBefore.get(199) > 0);
+        assertTrue(out.size() > writtenBefore.get(199));
+    }
+}
@@ -0,0 +1,81 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 向内嵌数据库写入合成的商品目录：
+ * goods_product、goods_onsale（每个商品一条当前有效的OnSale）以及oomall_demo.goods_goods（关联商品）
+ */
+@Slf4j
+public class CatalogSeeder {
+
+    public static final int SHOP_NUM = 10;
+    public static final int RELATION_NUM = 6;
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Random random = new Random(20251120L);
+
+    public CatalogSeeder(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public static long shopOf(long productId) {
+        return productId % SHOP_NUM + 1;
+    }
+
+    public static String nameOf(long productId) {
+        return "商品" + productId;
+    }
+
+    /**
+     * 写入productNum个商品，id从1开始连续编号
+     */
+    public void seed(int productNum) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Timestamp begin = Timestamp.valueOf(LocalDateTime.now().minusDays(1));
+        Timestamp end = Timestamp.valueOf(LocalDateTime.now().plusDays(30));
+
+        List<Object[]> products = new ArrayList<>(BATCH_SIZE);
+        List<Object[]> onSales = new ArrayList<>(BATCH_SIZE);
+        List<Object[]> relations = new ArrayList<>(BATCH_SIZE * RELATION_NUM);
+        for (long id = 1; id <= productNum; id++) {
+            long shopId = shopOf(id);
+            products.add(new Object[]{id, shopId, nameOf(id), 1000L + random.nextInt(100000), 500L,
+                    "69" + id, "件", "厦门", "loadtest", now, now, (byte) 1, 2, 1000L});
+            onSales.add(new Object[]{id, shopId, id, 1000L + random.nextInt(100000), begin, end,
+                    10000, 10, "loadtest", now, now});
+            for (int i = 0; i < RELATION_NUM; i++) {
+                long relateId = 1 + random.nextInt(productNum);
+                relations.add(new Object[]{id, relateId, "loadtest", now, now});
+            }
+            if (products.size() == BATCH_SIZE) {
+                flush(products, onSales, relations);
+            }
+        }
+        flush(products, onSales, relations);
+        log.info("seed: {} products written", productNum);
+    }
+
+    private void flush(List<Object[]> products, List<Object[]> onSales, List<Object[]> relations) {
+        jdbcTemplate.batchUpdate("INSERT INTO goods_product (id, shop_id, name, original_price, weight, barcode, unit, "
+                + "origin_place, creator, gmt_create, gmt_modified, status, commission_ratio, free_threshold) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", products);
+        jdbcTemplate.batchUpdate("INSERT INTO goods_onsale (id, shop_id, product_id, price, begin_time, end_time, "
+                + "quantity, max_quantity, creator, gmt_create, gmt_modified) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", onSales);
+        jdbcTemplate.batchUpdate("INSERT INTO oomall_demo.goods_goods (product_id, relate_product_id, creator, "
+                + "gmt_create, gmt_modified) VALUES (?, ?, ?, ?, ?)", relations);
+        products.clear();
+        onSales.clear();
+        relations.clear();
+    }
+}
@@ -0,0 +1,50 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * 单个端点的压测结果
+ * @param endpoint 端点名称
+ * @param requests 成功完成的请求数
+ * @param errors 非2xx或异常的请求数（不含shed）
+ * @param shed 被并发限制拒绝(503)的请求数
+ * @param throughput 吞吐量（请求/秒）
+ * @param p50 延迟中位数（毫秒）
+ * @param p99 99分位延迟（毫秒）
+ * @param p999 99.9分位延迟（毫秒）
+ * @param hitRate 该阶段内redis缓存命中率，没有缓存访问时为-1
+ */
+public record EndpointReport(String endpoint, long requests, long errors, long shed, double throughput,
+                             double p50, double p99, double p999, double hitRate) {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    public static EndpointReport of(String endpoint, long[] latencies, long errors, long shed, long elapsedNanos,
+                                    double hits, double misses) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double throughput = sorted.length * 1_000_000_000.0 / Math.max(elapsedNanos, 1);
+        double hitRate = (hits + misses) == 0 ? -1 : hits / (hits + misses);
+        return new EndpointReport(endpoint, sorted.length - errors - shed, errors, shed, throughput,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999), hitRate);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / NANOS_PER_MILLI;
+    }
+
+    public String toRow() {
+        return String.format("%-32s %8d %6d %6d %10.1f %8.2f %8.2f %8.2f %8s", endpoint, requests, errors, shed, throughput,
+                p50, p99, p999, hitRate < 0 ? "-" : String.format("%.1f%%", hitRate * 100));
+    }
+
+    public static String header() {
+        return String.format("%-32s %8s %6s %6s %10s %8s %8s %8s %8s", "endpoint", "requests", "errors", "shed", "req/s",
+                "p50(ms)", "p99(ms)", "p999(ms)", "hit");
+    }
+}
@@ -0,0 +1,96 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.loadtest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * 以固定并发度驱动一个端点：concurrency个工作线程共同完成requests个请求，
+ * 记录每个请求的延迟，并根据redis.cache.gets计数器的增量计算该阶段的缓存命中率。
+ * 并发限制拒绝的请求(503)单独计为shed，不计入errors
+ */
+public class LoadDriver {
+
+    private final HttpClient client;
+    private final MeterRegistry meterRegistry;
+    private final int concurrency;
+
+    public LoadDriver(MeterRegistry meterRegistry, int concurrency) {
+        this.meterRegistry = meterRegistry;
+        this.concurrency = concurrency;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(concurrency))
+                .build();
+    }
+
+    /**
+     * 预热，不计入结果
+     */
+    public void warmup(int requests, IntFunction<HttpRequest> requestFactory) throws InterruptedException {
+        run(requests, requestFactory, new long[requests], new AtomicLong(), new AtomicLong());
+    }
+
+    public EndpointReport drive(String endpoint, int requests, IntFunction<HttpRequest> requestFactory) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicLong errors = new AtomicLong();
+        AtomicLong shed = new AtomicLong();
+        double hits = count("hit");
+        double misses = count("miss");
+        long begin = System.nanoTime();
+        run(requests, requestFactory, latencies, errors, shed);
+        long elapsed = System.nanoTime() - begin;
+        return EndpointReport.of(endpoint, latencies, errors.get(), shed.get(), elapsed,
+                count("hit") - hits, count("miss") - misses);
+    }
+
+    private void run(int requests, IntFunction<HttpRequest> requestFactory, long[] latencies, AtomicLong errors, AtomicLong shed) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            workers.execute(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests) {
+                        HttpRequest request = requestFactory.apply(i);
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() == 503) {
+                                shed.incrementAndGet();
+                            } else if (response.statusCode() >= 300) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private double count(String result) {
+        var counter = meterRegistry.find("redis.cache.gets").tag("result", result).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
@@ -0,0 +1,312 @@
+//School of Informatics Xiamen University, GPL-3.0 license
+package cn.edu.xmu.javaee.productdemoredis.loadtest;
+
+import cn.edu.xmu.javaee.core.model.UserToken;
+import cn.edu.xmu.javaee.core.util.JacksonUtil;
+import cn.edu.xmu.javaee.productdemoredis.ProductDemoRedisApplication;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductNameIndex;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductRelationGraph;
+import cn.edu.xmu.javaee.productdemoredis.dao.ProductSuggester;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * 离线端到端压测
+ * 应用运行在内嵌H2数据库（合成商品目录）和进程内的Redis替身之上，
+ * 逐个端点以固定并发度施压，输出吞吐量、p50/p99/p999延迟和缓存命中率，
+ * 结果同时写入target/loadtest-report-{profiles}.json。
+ * 只在-Ploadtest下运行，参数见productdemoredis/pom.xml中的loadtest profile，
+ * 用-Dloadtest.profiles=loadtest,virtual在相同负载下对比虚拟线程模式
+ */
+@Slf4j
+@SpringBootTest(classes = ProductDemoRedisApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "loadtest.enabled", matches = "true")
+public class ProductLoadTest {
+
+    private static final RedisServer REDIS = startRedis();
+
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 32);
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 2000);
+    private static final int WARMUP = Integer.getInteger("loadtest.warmup", 200);
+    private static final int PRODUCTS = Integer.getInteger("loadtest.products", 5000);
+    private static final double HOT_RATIO = Double.parseDouble(System.getProperty("loadtest.hot-ratio", "0.2"));
+    /**
+     * 访问热点商品的请求比例
+     */
+    private static final double HOT_TRAFFIC = 0.8;
+    /**
+     * 每次批量导入的商品数
+     */
+    private static final int IMPORT_ROWS = 100;
+    /**
+     * 每次批量修改、删除的商品数
+     */
+    private static final int BULK_IDS = 100;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ProductNameIndex productNameIndex;
+
+    @Autowired
+    private ProductSuggester productSuggester;
+
+    @Autowired
+    private ProductRelationGraph productRelationGraph;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", REDIS::getHost);
+        registry.add("spring.data.redis.port", REDIS::getBindPort);
+    }
+
+    private static RedisServer startRedis() {
+        try {
+            return RedisServer.newRedisServer().start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        REDIS.stop();
+    }
+
+    @Test
+    public void run() throws Exception {
+        new CatalogSeeder(jdbcTemplate).seed(PRODUCTS);
+        // 商品直接写入数据库，不经过ProductDao，名称索引、联想词和关联图要重建
+        productNameIndex.rebuild();
+        productSuggester.rebuild();
+        productRelationGraph.rebuild();
+        LoadDriver driver = new LoadDriver(meterRegistry, CONCURRENCY);
+
+        Map<String, IntFunction<HttpRequest>> endpoints = new LinkedHashMap<>();
+        endpoints.put("GET /products/{id}", i -> request("/products/" + pickProduct()).GET().build());
+        endpoints.put("GET /products?name=", i -> request("/products?name=" + encode(CatalogSeeder.nameOf(pickProduct()))).GET().build());
+        // 名称片段，如"品12"匹配商品12、120~129、1200~1299……
+        endpoints.put("GET /products/search?keyword=", i -> request("/products/search?keyword="
+                + encode(CatalogSeeder.nameOf(pickProduct() / 10).substring(1))).GET().build());
+        // 逐字输入商品名称时的联想，如"商"、"商品"、"商品1"、"商品12"……
+        endpoints.put("GET /products/{id}/related", i -> request("/products/" + pickProduct() + "/related").GET().build());
+        endpoints.put("GET /products/suggest?prefix=", i -> {
+            String name = CatalogSeeder.nameOf(pickProduct());
+            return request("/products/suggest?prefix=" + encode(name.substring(0, 1 + i % name.length()))).GET().build();
+        });
+        endpoints.put("GET /shops/{s}/products/{id}", i -> {
+            long id = pickProduct();
+            long shopId = CatalogSeeder.shopOf(id);
+            return admin("/shops/" + shopId + "/products/" + id, shopId).GET().build();
+        });
+        endpoints.put("GET /shops/{s}/products?name=", i -> {
+            long id = pickProduct();
+            long shopId = CatalogSeeder.shopOf(id);
+            return admin("/shops/" + shopId + "/products?name=" + encode(CatalogSeeder.nameOf(id)), shopId).GET().build();
+        });
+        endpoints.put("PUT /shops/{s}/products/{id}", i -> {
+            long id = pickProduct();
+            long shopId = CatalogSeeder.shopOf(id);
+            return admin("/shops/" + shopId + "/products/" + id, shopId)
+                    .PUT(json("{\"originalPrice\":" + (1000 + i) + "}")).build();
+        });
+        endpoints.put("POST /shops/{s}/products", i -> {
+            long shopId = i % CatalogSeeder.SHOP_NUM + 1;
+            return admin("/shops/" + shopId + "/products", shopId)
+                    .POST(json("{\"name\":\"新商品" + i + "\",\"originalPrice\":1000}")).build();
+        });
+        // 每次导入IMPORT_ROWS个商品，其中一行缺少名称
+        endpoints.put("POST /shops/{s}/products/import", i -> {
+            long shopId = i % CatalogSeeder.SHOP_NUM + 1;
+            StringBuilder csv = new StringBuilder("name,originalPrice,unit\n");
+            for (int row = 0; row < IMPORT_ROWS; row++) {
+                csv.append(row == 1 ? "" : "导入商品" + i + "-" + row).append(',').append(1000 + row).append(",件\n");
+            }
+            return admin("/shops/" + shopId + "/products/import", shopId).setHeader("Content-Type", "text/csv;charset=UTF-8")
+                    .POST(HttpRequest.BodyPublishers.ofString(csv.toString())).build();
+        });
+        // 批量修改BULK_IDS个商品的价格，商品id按商铺间隔排列，都属于该商铺
+        endpoints.put("PUT /shops/{s}/products?ids=", i -> {
+            long shopId = i % CatalogSeeder.SHOP_NUM + 1;
+            StringJoiner ids = new StringJoiner(",");
+            for (long k = 1; k <= BULK_IDS; k++) {
+                ids.add(Long.toString(shopId - 1 + k * CatalogSeeder.SHOP_NUM));
+            }
+            return admin("/shops/" + shopId + "/products?ids=" + ids, shopId).PUT(json("{\"originalPrice\":" + (2000 + i) + "}")).build();
+        });
+        // 批量删除导入的商品，其中有的不属于该商铺，不会被删除
+        endpoints.put("DELETE /shops/{s}/products?ids=", i -> {
+            long shopId = i % CatalogSeeder.SHOP_NUM + 1;
+            StringJoiner ids = new StringJoiner(",");
+            for (long id = PRODUCTS + 1L + (long) i * BULK_IDS; id <= PRODUCTS + (long) (i + 1) * BULK_IDS; id++) {
+                ids.add(Long.toString(id));
+            }
+            return admin("/shops/" + shopId + "/products?ids=" + ids, shopId).DELETE().build();
+        });
+        endpoints.put("POST /shops/{s}/products/export", i -> {
+            long shopId = i % CatalogSeeder.SHOP_NUM + 1;
+            return admin("/shops/" + shopId + "/products/export?format=" + (i % 2 == 0 ? "ndjson" : "csv"), shopId)
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+        });
+        // 每个商品有一条OnSale，id与商品相同；每个请求一个用户，不受每人限购数量的限制
+        endpoints.put("POST /onsales/{id}/reservations", i -> customer("/onsales/" + pickProduct() + "/reservations", i)
+                .POST(json("{\"quantity\":1}")).build());
+
+        List<EndpointReport> reports = new ArrayList<>();
+        for (Map.Entry<String, IntFunction<HttpRequest>> endpoint : endpoints.entrySet()) {
+            driver.warmup(WARMUP, endpoint.getValue());
+            reports.add(driver.drive(endpoint.getKey(), REQUESTS, endpoint.getValue()));
+        }
+
+        StringBuilder table = new StringBuilder("\n").append(EndpointReport.header()).append('\n');
+        reports.forEach(report -> table.append(report.toRow()).append('\n'));
+        Map<String, Map<String, Double>> regions = secondLevelCache();
+        regions.forEach((region, counts) -> table.append("second level cache ").append(region).append(' ').append(counts).append('\n'));
+        Map<String, Double> routing = dataSourceRouting();
+        table.append("datasource routing ").append(routing).append('\n');
+        Map<String, Map<String, Double>> connections = connectionTimes();
+        connections.forEach((endpoint, times) -> table.append("connection ").append(endpoint).append(' ').append(times).append('\n'));
+        System.out.println(table);
+        writeReport(reports, regions, routing, connections);
+    }
+
+    /**
+     * 各端点从连接池取出的连接数，等待和占用连接的平均、最长时间（毫秒）
+     */
+    private Map<String, Map<String, Double>> connectionTimes() {
+        Map<String, Map<String, Double>> connections = new TreeMap<>();
+        for (String name : List.of("wait", "hold")) {
+            meterRegistry.find("datasource.connection." + name).timers().forEach(timer -> {
+                Map<String, Double> times = connections.computeIfAbsent(
+                        timer.getId().getTag("method") + " " + timer.getId().getTag("uri"), k -> new TreeMap<>());
+                times.put("count", (double) timer.count());
+                times.put(name + ".mean", timer.mean(TimeUnit.MILLISECONDS));
+                times.put(name + ".max", timer.max(TimeUnit.MILLISECONDS));
+            });
+        }
+        return connections;
+    }
+
+    /**
+     * 数据库连接的去向（主库或读副本）及原因
+     */
+    private Map<String, Double> dataSourceRouting() {
+        Map<String, Double> routing = new TreeMap<>();
+        meterRegistry.find("datasource.routing").counters().forEach(counter ->
+                routing.put(counter.getId().getTag("target") + ":" + counter.getId().getTag("reason"), counter.count()));
+        return routing;
+    }
+
+    /**
+     * Hibernate二级缓存各区域的命中、未命中和写入次数
+     */
+    private Map<String, Map<String, Double>> secondLevelCache() {
+        Map<String, Map<String, Double>> regions = new TreeMap<>();
+        for (String name : List.of("hibernate.second.level.cache.requests", "hibernate.second.level.cache.puts")) {
+            meterRegistry.find(name).meters().forEach(meter -> {
+                String result = meter.getId().getTag("result");
+                regions.computeIfAbsent(meter.getId().getTag("region"), k -> new TreeMap<>())
+                        .put(result == null ? "put" : result, meter.measure().iterator().next().getValue());
+            });
+        }
+        return regions;
+    }
+
+    private void writeReport(List<EndpointReport> reports, Map<String, Map<String, Double>> regions,
+                             Map<String, Double> routing, Map<String, Map<String, Double>> connections) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("profiles", Arrays.asList(environment.getActiveProfiles()));
+        report.put("concurrency", CONCURRENCY);
+        report.put("requests", REQUESTS);
+        report.put("products", PRODUCTS);
+        report.put("endpoints", reports);
+        report.put("secondLevelCache", regions);
+        report.put("dataSourceRouting", routing);
+        report.put("connections", connections);
+        File file = new File("target/loadtest-report-" + String.join("-", environment.getActiveProfiles()) + ".json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+        log.info("writeReport: report is saved to {}", file.getAbsolutePath());
+    }
+
+    /**
+     * 按热点分布选取商品：HOT_TRAFFIC的请求落在前HOT_RATIO的商品上
+     */
+    private static long pickProduct() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int hot = Math.max(1, (int) (PRODUCTS * HOT_RATIO));
+        if (random.nextDouble() < HOT_TRAFFIC) {
+            return 1 + random.nextInt(hot);
+        }
+        return 1 + random.nextInt(PRODUCTS);
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+
+    /**
+     * 后台接口需要Authorization头，以该商铺管理员的身份访问
+     */
+    private HttpRequest.Builder admin(String path, long shopId) {
+        UserToken user = UserToken.builder().id(1L).name("loadtest").departId(shopId).build();
+        return request(path).header("Authorization", JacksonUtil.toJson(user))
+                .header("Content-Type", "application/json;charset=UTF-8");
+    }
+
+    /**
+     * 以顾客的身份访问
+     */
+    private HttpRequest.Builder customer(String path, long userId) {
+        UserToken user = UserToken.builder().id(userId).name("customer" + userId).build();
+        return request(path).header("Authorization", JacksonUtil.toJson(user))
+                .header("Content-Type", "application/json;charset=UTF-8");
+    }
+
+    private static HttpRequest.BodyPublisher json(String body) {
+        return HttpRequest.BodyPublishers.ofString(body);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}